@@ -0,0 +1,203 @@
+package jsontree;
+
+import java.util.Arrays;
+
+/**
+ * This is a class that appends the entries and the string bytes of a
+ * JsonArena, for JsonArenaBuilder and JsonArena.copyOf.
+ *
+ * <p>The index of the entry opening each container is kept on a stack,
+ * and is filled in with the count and the jump once the container closes,
+ * as in JsonTapeBuilder.
+ */
+final class ArenaWriter {
+  private final DirectSegments entries;
+  private final DirectSegments bytes;
+  private long[] opens;
+  private long[] counts;
+  private int depth;
+
+  /**
+   * This is the constructor for the ArenaWriter class.
+   *
+   * @param segmentSize the size of the segments, a power of two of at least 8.
+   */
+  ArenaWriter(int segmentSize) {
+    this.entries = new DirectSegments(segmentSize);
+    this.bytes = new DirectSegments(segmentSize);
+    this.opens = new long[16];
+    this.counts = new long[16];
+    this.depth = 0;
+  }
+
+  /**
+   * This method opens a container. Its entries are completed by close().
+   *
+   * @param tag OBJECT or ARRAY.
+   */
+  void open(long tag) {
+    if (depth == opens.length) {
+      opens = Arrays.copyOf(opens, depth * 2);
+      counts = Arrays.copyOf(counts, depth * 2);
+    }
+    opens[depth] = index();
+    counts[depth] = 0;
+    depth++;
+    entries.appendLong(tag << 60);
+    entries.appendLong(0);
+  }
+
+  /**
+   * This method closes the innermost container.
+   */
+  void close() {
+    depth--;
+    long start = opens[depth];
+    long tag = entries.getLong(start * 8) >>> 60;
+    entries.putLong(start * 8, JsonArena.entry(tag, index() + 1));
+    entries.putLong((start + 1) * 8, counts[depth]);
+    entries.appendLong(JsonArena.entry(JsonTape.END, start));
+    counted();
+  }
+
+  /**
+   * This method appends a key, a value string or a number kept as text.
+   * The characters are stored as UTF-8, after their length.
+   *
+   * @param tag  KEY, STRING or BIG_NUMBER.
+   * @param text the characters.
+   */
+  void text(long tag, CharSequence text) {
+    entries.appendLong(JsonArena.entry(tag, bytes.length()));
+    long size = utf8Length(text);
+    while (size >= 0x80) {
+      bytes.append((byte) (size | 0x80));
+      size >>>= 7;
+    }
+    bytes.append((byte) size);
+    encode(text);
+    if (tag != JsonTape.KEY) {
+      counted();
+    }
+  }
+
+  /**
+   * This method appends a number that fits, as its scale followed by
+   * the unscaled value.
+   *
+   * @param unscaled the digits of the number, with its sign.
+   * @param scale    the number of digits after the decimal point.
+   */
+  void number(long unscaled, int scale) {
+    entries.appendLong(JsonArena.entry(JsonTape.NUMBER, scale & 0xFFFFFFFFL));
+    entries.appendLong(unscaled);
+    counted();
+  }
+
+  /**
+   * This method appends true, false or null.
+   *
+   * @param tag TRUE, FALSE or NULL.
+   */
+  void literal(long tag) {
+    entries.appendLong(tag << 60);
+    counted();
+  }
+
+  /**
+   * This method ends the writing and gives the arena.
+   *
+   * @return the JsonArena holding the entries.
+   */
+  JsonArena finish() {
+    entries.trim();
+    bytes.trim();
+    return new JsonArena(entries, bytes);
+  }
+
+  /**
+   * This method drops what has been written.
+   */
+  void release() {
+    entries.release();
+    bytes.release();
+  }
+
+  /**
+   * This method gives the index of the next entry.
+   *
+   * @return the number of entries so far.
+   */
+  private long index() {
+    return entries.length() / 8;
+  }
+
+  /**
+   * This method counts a value in the innermost container, if any.
+   */
+  private void counted() {
+    if (depth > 0) {
+      counts[depth - 1]++;
+    }
+  }
+
+  /**
+   * This method gives the number of bytes of the UTF-8 form of a text.
+   * A lone surrogate counts as U+FFFD.
+   *
+   * @param text the characters.
+   * @return the number of bytes.
+   */
+  private static long utf8Length(CharSequence text) {
+    long size = 0;
+    for (int idx = 0; idx < text.length(); idx++) {
+      char c = text.charAt(idx);
+      if (c < 0x80) {
+        size++;
+      } else if (c < 0x800) {
+        size += 2;
+      } else if (Character.isHighSurrogate(c) && idx + 1 < text.length()
+              && Character.isLowSurrogate(text.charAt(idx + 1))) {
+        size += 4;
+        idx++;
+      } else {
+        size += 3;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * This method appends the UTF-8 form of a text. A lone surrogate is
+   * replaced by U+FFFD.
+   *
+   * @param text the characters.
+   */
+  private void encode(CharSequence text) {
+    for (int idx = 0; idx < text.length(); idx++) {
+      char c = text.charAt(idx);
+      if (c < 0x80) {
+        bytes.append((byte) c);
+        continue;
+      }
+      int cp = c;
+      if (Character.isHighSurrogate(c) && idx + 1 < text.length()
+              && Character.isLowSurrogate(text.charAt(idx + 1))) {
+        cp = Character.toCodePoint(c, text.charAt(++idx));
+      } else if (Character.isSurrogate(c)) {
+        cp = 0xFFFD;
+      }
+      if (cp < 0x800) {
+        bytes.append((byte) (0xC0 | (cp >> 6)));
+      } else if (cp < 0x10000) {
+        bytes.append((byte) (0xE0 | (cp >> 12)));
+        bytes.append((byte) (0x80 | ((cp >> 6) & 0x3F)));
+      } else {
+        bytes.append((byte) (0xF0 | (cp >> 18)));
+        bytes.append((byte) (0x80 | ((cp >> 12) & 0x3F)));
+        bytes.append((byte) (0x80 | ((cp >> 6) & 0x3F)));
+      }
+      bytes.append((byte) (0x80 | (cp & 0x3F)));
+    }
+  }
+}
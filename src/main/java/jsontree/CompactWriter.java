@@ -0,0 +1,300 @@
+package jsontree;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is a package private class that writes the compact form of a tree
+ * as UTF-8, for JsonNode.writeCompact.
+ *
+ * <p>Nothing is written between the tokens, and keys and strings are
+ * encoded straight from their characters into a byte[] that is handed to
+ * the OutputStream or ByteBuffer each time it fills up, so no String is
+ * made for the document or for any node but the numbers with a fraction or
+ * an exponent. The tree is walked with a stack of the open containers, as
+ * in PrettyWriter. A lone surrogate is written as U+FFFD.
+ *
+ * <p>The byte[] is kept for each thread between writes. A writer takes it
+ * out while it writes and puts it back once done, so a write started on
+ * the same thread in the meantime, e.g. by the stream, gets an array of
+ * its own instead of overwriting the bytes not handed over yet.
+ */
+final class CompactWriter {
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+  private final OutputStream stream;
+  private final ByteBuffer target;
+  private final byte[] buffer;
+  private int length;
+  private List<?>[] lists;
+  private boolean[] objects;
+  private int[] positions;
+  private int depth;
+
+  /**
+   * This is the constructor for the CompactWriter class.
+   *
+   * @param stream the stream the bytes go to, or null.
+   * @param target the buffer the bytes go to, if stream is null.
+   */
+  private CompactWriter(OutputStream stream, ByteBuffer target) {
+    this.stream = stream;
+    this.target = target;
+    byte[] kept = BUFFERS.get();
+    if (kept != null) {
+      BUFFERS.set(null);
+    }
+    this.buffer = kept != null ? kept : new byte[BUFFER_SIZE];
+    this.length = 0;
+    this.lists = new List<?>[16];
+    this.objects = new boolean[16];
+    this.positions = new int[16];
+    this.depth = 0;
+  }
+
+  /**
+   * This method writes the compact form of a tree to a stream.
+   *
+   * @param node the root of the tree.
+   * @param out  the stream.
+   * @throws IOException if the stream throws.
+   */
+  static void write(JsonNode node, OutputStream out) throws IOException {
+    new CompactWriter(out, null).write(node);
+  }
+
+  /**
+   * This method writes the compact form of a tree to a buffer.
+   *
+   * @param node the root of the tree.
+   * @param out  the buffer.
+   * @throws java.nio.BufferOverflowException if the buffer is too small.
+   */
+  static void write(JsonNode node, ByteBuffer out) {
+    try {
+      new CompactWriter(null, out).write(node);
+    } catch (IOException e) {
+      // Only a stream throws.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * This method writes a tree and hands the last bytes over. The buffer is
+   * then kept for the next write on this thread.
+   *
+   * @param node the root of the tree.
+   * @throws IOException if the stream throws.
+   */
+  private void write(JsonNode node) throws IOException {
+    try {
+      if (node.isScalar()) {
+        scalar(node);
+      } else {
+        open(node);
+        run();
+      }
+      flush();
+    } finally {
+      BUFFERS.set(buffer);
+    }
+  }
+
+  /**
+   * This method writes the containers on the stack until the last one
+   * is closed.
+   *
+   * @throws IOException if the stream throws.
+   */
+  private void run() throws IOException {
+    while (depth > 0) {
+      int top = depth - 1;
+      List<?> list = lists[top];
+      int position = positions[top];
+      if (position == list.size()) {
+        ascii(objects[top] ? '}' : ']');
+        lists[top] = null;
+        depth--;
+        if (depth > 0) {
+          next();
+        }
+        continue;
+      }
+      if (position > 0) {
+        ascii(',');
+      }
+      JsonNode value;
+      if (objects[top]) {
+        Pair pair = (Pair) list.get(position);
+        ascii('"');
+        text(pair.getKey());
+        ascii('"');
+        ascii(':');
+        value = pair.getValue();
+      } else {
+        value = (JsonNode) list.get(position);
+      }
+      if (value.isScalar()) {
+        scalar(value);
+        next();
+      } else {
+        open(value);
+      }
+    }
+  }
+
+  /**
+   * This method writes the start of a container and pushes it.
+   *
+   * @param node an object or an array.
+   * @throws IOException if the stream throws.
+   */
+  private void open(JsonNode node) throws IOException {
+    boolean object = PrettyWriter.isObject(node);
+    ascii(object ? '{' : '[');
+    if (depth == lists.length) {
+      lists = Arrays.copyOf(lists, depth * 2);
+      objects = Arrays.copyOf(objects, depth * 2);
+      positions = Arrays.copyOf(positions, depth * 2);
+    }
+    lists[depth] = PrettyWriter.children(node);
+    objects[depth] = object;
+    positions[depth] = 0;
+    depth++;
+  }
+
+  /**
+   * This method moves on to the next value of the innermost container.
+   */
+  private void next() {
+    positions[depth - 1]++;
+  }
+
+  /**
+   * This method writes a string, number or literal. Whole numbers are
+   * written digit by digit.
+   *
+   * @param node the scalar node.
+   * @throws IOException if the stream throws.
+   */
+  private void scalar(JsonNode node) throws IOException {
+    if (node instanceof JsonString) {
+      ascii('"');
+      text(((JsonString) node).chars());
+      ascii('"');
+    } else if (node instanceof JsonNumber && ((JsonNumber) node).fits()
+            && ((JsonNumber) node).scale() == 0) {
+      digits(((JsonNumber) node).unscaled());
+    } else {
+      text(node.prettyPrint());
+    }
+  }
+
+  /**
+   * This method writes a whole number.
+   *
+   * @param value the number.
+   * @throws IOException if the stream throws.
+   */
+  private void digits(long value) throws IOException {
+    room(20);
+    if (value < 0) {
+      buffer[length++] = '-';
+    } else {
+      // The digits of a negative value reach Long.MIN_VALUE as well.
+      value = -value;
+    }
+    int end = length + 19;
+    int at = end;
+    do {
+      buffer[--at] = (byte) ('0' - value % 10);
+      value /= 10;
+    } while (value != 0);
+    System.arraycopy(buffer, at, buffer, length, end - at);
+    length += end - at;
+  }
+
+  /**
+   * This method writes the UTF-8 form of characters.
+   *
+   * @param text the characters.
+   * @throws IOException if the stream throws.
+   */
+  private void text(CharSequence text) throws IOException {
+    int size = text.length();
+    for (int idx = 0; idx < size; idx++) {
+      char c = text.charAt(idx);
+      if (c < 0x80) {
+        if (length == buffer.length) {
+          flush();
+        }
+        buffer[length++] = (byte) c;
+        continue;
+      }
+      room(4);
+      int cp = c;
+      if (Character.isHighSurrogate(c) && idx + 1 < size
+              && Character.isLowSurrogate(text.charAt(idx + 1))) {
+        cp = Character.toCodePoint(c, text.charAt(++idx));
+      } else if (Character.isSurrogate(c)) {
+        cp = 0xFFFD;
+      }
+      if (cp < 0x800) {
+        buffer[length++] = (byte) (0xC0 | (cp >> 6));
+      } else if (cp < 0x10000) {
+        buffer[length++] = (byte) (0xE0 | (cp >> 12));
+        buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      } else {
+        buffer[length++] = (byte) (0xF0 | (cp >> 18));
+        buffer[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      }
+      buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+    }
+  }
+
+  /**
+   * This method writes an ASCII character.
+   *
+   * @param c the character.
+   * @throws IOException if the stream throws.
+   */
+  private void ascii(char c) throws IOException {
+    if (length == buffer.length) {
+      flush();
+    }
+    buffer[length++] = (byte) c;
+  }
+
+  /**
+   * This method makes sure the buffer has room for some bytes.
+   *
+   * @param size the number of bytes.
+   * @throws IOException if the stream throws.
+   */
+  private void room(int size) throws IOException {
+    if (buffer.length - length < size) {
+      flush();
+    }
+  }
+
+  /**
+   * This method hands the bytes written so far to the stream or the
+   * buffer, and empties the internal buffer.
+   *
+   * @throws IOException if the stream throws.
+   */
+  private void flush() throws IOException {
+    if (stream != null) {
+      stream.write(buffer, 0, length);
+    } else {
+      target.put(buffer, 0, length);
+    }
+    length = 0;
+  }
+}
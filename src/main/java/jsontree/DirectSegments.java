@@ -0,0 +1,211 @@
+package jsontree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * This is a class that holds a growing run of bytes outside the heap, in
+ * direct ByteBuffer segments of the same size, addressed by a long.
+ *
+ * <p>Bytes are only appended. A full segment is never copied, a new one is
+ * allocated after it, so the run can grow past 2 GB and adding to it costs
+ * the same at any size. trim() shrinks the last segment to the bytes in use
+ * once nothing more is appended. Longs are appended at offsets that are a
+ * multiple of 8, so they never cross two segments.
+ *
+ * <p>release() drops the segments, after which any access throws an
+ * IllegalStateException. The memory of a direct buffer goes back to the
+ * system when the buffer is collected, which is a single small object per
+ * segment.
+ */
+final class DirectSegments {
+  private final int bits;
+  private final int mask;
+  private ByteBuffer[] segments;
+  private int count;
+  private ByteBuffer tail;
+  private long length;
+
+  /**
+   * This is the constructor for the DirectSegments class. No segment
+   * is allocated until the first byte is appended.
+   *
+   * @param size the size of each segment, a power of two of at least 8.
+   */
+  DirectSegments(int size) {
+    this.bits = Integer.numberOfTrailingZeros(size);
+    this.mask = size - 1;
+    this.segments = new ByteBuffer[4];
+    this.count = 0;
+    this.tail = null;
+    this.length = 0;
+  }
+
+  /**
+   * This method gives the number of bytes appended so far.
+   *
+   * @return the length.
+   */
+  long length() {
+    return length;
+  }
+
+  /**
+   * This method gives the number of bytes allocated for the segments.
+   *
+   * @return the capacity of all the segments.
+   */
+  long allocated() {
+    long total = 0;
+    for (int idx = 0; idx < count; idx++) {
+      total += segments()[idx].capacity();
+    }
+    return total;
+  }
+
+  /**
+   * This method appends a single byte.
+   *
+   * @param b the byte.
+   */
+  void append(byte b) {
+    ensure();
+    tail.put((int) (length & mask), b);
+    length++;
+  }
+
+  /**
+   * This method appends a long. The length must be a multiple of 8.
+   *
+   * @param value the long.
+   */
+  void appendLong(long value) {
+    ensure();
+    tail.putLong((int) (length & mask), value);
+    length += 8;
+  }
+
+  /**
+   * This method reads a byte.
+   *
+   * @param at the offset of the byte.
+   * @return the byte.
+   */
+  byte get(long at) {
+    return segment(at).get((int) (at & mask));
+  }
+
+  /**
+   * This method reads a long appended by appendLong.
+   *
+   * @param at the offset of the long.
+   * @return the long.
+   */
+  long getLong(long at) {
+    return segment(at).getLong((int) (at & mask));
+  }
+
+  /**
+   * This method overwrites a long appended by appendLong.
+   *
+   * @param at    the offset of the long.
+   * @param value the new value.
+   */
+  void putLong(long at, long value) {
+    segment(at).putLong((int) (at & mask), value);
+  }
+
+  /**
+   * This method copies a range of bytes, which may span several segments.
+   *
+   * @param at     the offset of the first byte.
+   * @param target the array the bytes are copied to, filled completely.
+   */
+  void get(long at, byte[] target) {
+    int done = 0;
+    while (done < target.length) {
+      ByteBuffer segment = segment(at + done).duplicate();
+      int from = (int) ((at + done) & mask);
+      int chunk = Math.min(target.length - done, segment.capacity() - from);
+      segment.position(from);
+      segment.get(target, done, chunk);
+      done += chunk;
+    }
+  }
+
+  /**
+   * This method shrinks the last segment to the bytes in use, by copying
+   * them to a segment of their own size.
+   */
+  void trim() {
+    if (tail == null || (length & mask) == 0) {
+      return;
+    }
+    int used = (int) (length & mask);
+    ByteBuffer source = tail.duplicate();
+    source.position(0).limit(used);
+    ByteBuffer trimmed = ByteBuffer.allocateDirect(used).order(ByteOrder.nativeOrder());
+    trimmed.put(source);
+    tail = trimmed;
+    segments[count - 1] = trimmed;
+  }
+
+  /**
+   * This method drops the segments.
+   */
+  void release() {
+    segments = null;
+    tail = null;
+  }
+
+  /**
+   * This method tells if the segments have been released.
+   *
+   * @return true after release().
+   */
+  boolean released() {
+    return segments == null;
+  }
+
+  /**
+   * This method makes room for at least one more byte, or the next
+   * long, in the last segment.
+   */
+  private void ensure() {
+    if (tail != null && (length & mask) != 0) {
+      return;
+    }
+    ByteBuffer[] all = segments();
+    if (count == all.length) {
+      segments = Arrays.copyOf(all, count * 2);
+    }
+    tail = ByteBuffer.allocateDirect(mask + 1).order(ByteOrder.nativeOrder());
+    segments[count++] = tail;
+  }
+
+  /**
+   * This method finds the segment holding an offset.
+   *
+   * @param at the offset.
+   * @return the segment.
+   * @throws IllegalStateException if the segments have been released.
+   */
+  private ByteBuffer segment(long at) {
+    return segments()[(int) (at >>> bits)];
+  }
+
+  /**
+   * This method gives the segments, unless they have been released.
+   *
+   * @return the array of segments.
+   * @throws IllegalStateException if the segments have been released.
+   */
+  private ByteBuffer[] segments() {
+    ByteBuffer[] all = segments;
+    if (all == null) {
+      throw new IllegalStateException("The arena has been closed");
+    }
+    return all;
+  }
+}
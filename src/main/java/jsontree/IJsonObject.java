@@ -1,10 +1,13 @@
 package jsontree;
 
+import java.util.List;
+
 /**
  * This as an abstract class that represents a specification
  * for a Json object. It extends JsonNode and declares (but does not implement)
  * a new public method void add(JsonNode value) that appends a new
- * element to this object.
+ * element to this object, and the methods that look up the values
+ * stored for a key.
  */
 public abstract class IJsonObject extends JsonNode {
   /**
@@ -15,4 +18,30 @@ public abstract class IJsonObject extends JsonNode {
    * @param value The value to be stored for a key in the pair.
    */
   public abstract void add(String key, JsonNode value);
+
+  /**
+   * This method gives the first value stored for a key.
+   *
+   * @param key The key to look up.
+   * @return the first value added for the key, or null if there is none.
+   */
+  public abstract JsonNode get(String key);
+
+  /**
+   * This method gives all the values stored for a key, as a key
+   * may be repeated in a json object.
+   *
+   * @param key The key to look up.
+   * @return the values added for the key in the order they were added,
+   *         or an empty list if there are none.
+   */
+  public abstract List<JsonNode> getAll(String key);
+
+  /**
+   * This method tells if a value is stored for a key.
+   *
+   * @param key The key to look up.
+   * @return true if at least one value was added for the key.
+   */
+  public abstract boolean containsKey(String key);
 }
@@ -0,0 +1,543 @@
+package jsontree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This is a class that represents a whole json document outside the heap,
+ * for documents too large to be kept as a tree of JsonNode.
+ *
+ * <p>The layout is that of JsonTape, with two runs of direct ByteBuffer
+ * segments instead of a long[] and a char[], see DirectSegments. The GC
+ * only sees a handful of buffer objects however large the document is, and
+ * the runs are addressed by a long, so they are not limited to 2 GB. Every
+ * entry is a long with the tag of JsonTape in its top 4 bits and a 60-bit
+ * field:
+ *
+ * <ul>
+ *   <li>OBJECT and ARRAY hold the index of the entry after the matching
+ *   END, and are followed by an entry holding the number of pairs or
+ *   elements.
+ *   <li>END holds the index of its OBJECT or ARRAY entry.
+ *   <li>KEY, STRING and BIG_NUMBER hold the offset of their text in the
+ *   byte run, where it is kept as UTF-8 after its length in bytes, written
+ *   7 bits at a time.
+ *   <li>NUMBER holds the scale in its low 32 bits and is followed by the
+ *   unscaled value, see JsonNumber.
+ *   <li>TRUE, FALSE and NULL hold nothing else.
+ * </ul>
+ *
+ * <p>An arena is built by JsonArenaBuilder or copied from a tree by
+ * copyOf, read through Cursor, and converted back to a tree by toJsonNode.
+ * close() drops the segments once the document is no longer needed, after
+ * which reading it throws an IllegalStateException. The memory itself goes
+ * back to the system when the GC collects the few buffer objects, as Java
+ * has no call to free a direct buffer at once.
+ *
+ * <p>An arena is never changed once built, so it can be shared between
+ * threads, as long as it is not closed while it is being read.
+ */
+public final class JsonArena implements AutoCloseable {
+  /**
+   * The default size of the segments in bytes.
+   */
+  public static final int DEFAULT_SEGMENT = 1 << 20;
+
+  private static final long FIELD_MASK = (1L << 60) - 1;
+
+  private final DirectSegments entries;
+  private final DirectSegments bytes;
+
+  /**
+   * This is the constructor for the JsonArena class.
+   *
+   * @param entries the entries.
+   * @param bytes   the UTF-8 text of the keys, values and large numbers.
+   */
+  JsonArena(DirectSegments entries, DirectSegments bytes) {
+    this.entries = entries;
+    this.bytes = bytes;
+  }
+
+  /**
+   * This method packs an entry.
+   *
+   * @param tag   the tag.
+   * @param field the index, offset or scale, at most 60 bits.
+   * @return the entry.
+   */
+  static long entry(long tag, long field) {
+    return (tag << 60) | field;
+  }
+
+  /**
+   * This method copies a tree to a new arena.
+   * See copyOf(JsonNode, int).
+   *
+   * @param root the root of the tree.
+   * @return the JsonArena holding the tree.
+   */
+  public static JsonArena copyOf(JsonNode root) {
+    return copyOf(root, DEFAULT_SEGMENT);
+  }
+
+  /**
+   * This method copies a tree to a new arena. Frozen objects and arrays
+   * are thawed first.
+   *
+   * @param root        the root of the tree.
+   * @param segmentSize the size of the segments in bytes.
+   * @return the JsonArena holding the tree.
+   * @throws IllegalArgumentException if segmentSize is not a power of two
+   *                                  of at least 8.
+   */
+  public static JsonArena copyOf(JsonNode root, int segmentSize) {
+    ArenaWriter writer = new ArenaWriter(checkSegment(segmentSize));
+    write(writer, PersistentJsonObject.thaw(root));
+    return writer.finish();
+  }
+
+  /**
+   * This method checks the size of the segments.
+   *
+   * @param segmentSize the size of the segments in bytes.
+   * @return the size.
+   * @throws IllegalArgumentException if it is not a power of two of at least 8.
+   */
+  static int checkSegment(int segmentSize) {
+    if (segmentSize < 8 || Integer.bitCount(segmentSize) != 1) {
+      throw new IllegalArgumentException("The segment size has to be a power of two of at least 8");
+    }
+    return segmentSize;
+  }
+
+  /**
+   * This method appends the entries of a node and everything below it.
+   *
+   * @param writer the writer of the arena.
+   * @param node   the node.
+   */
+  private static void write(ArenaWriter writer, JsonNode node) {
+    if (node instanceof JsonObject) {
+      writer.open(JsonTape.OBJECT);
+      for (Pair pair : ((JsonObject) node).jsonObject) {
+        writer.text(JsonTape.KEY, pair.getKey());
+        write(writer, pair.getValue());
+      }
+      writer.close();
+    } else if (node instanceof JsonArray) {
+      writer.open(JsonTape.ARRAY);
+      List<JsonNode> elements = ((JsonArray) node).jsonArray;
+      for (int idx = 0; idx < elements.size(); idx++) {
+        write(writer, elements.get(idx));
+      }
+      writer.close();
+    } else if (node instanceof JsonString) {
+      writer.text(JsonTape.STRING, ((JsonString) node).value());
+    } else if (node instanceof JsonNumber) {
+      JsonNumber number = (JsonNumber) node;
+      if (number.fits()) {
+        writer.number(number.unscaled(), number.scale());
+      } else {
+        writer.text(JsonTape.BIG_NUMBER, number.prettyPrint());
+      }
+    } else if (node instanceof JsonBoolean) {
+      writer.literal(((JsonBoolean) node).value() ? JsonTape.TRUE : JsonTape.FALSE);
+    } else {
+      writer.literal(JsonTape.NULL);
+    }
+  }
+
+  /**
+   * This method gives a cursor on the root value.
+   *
+   * @return the cursor.
+   * @throws IllegalStateException if the arena has been closed.
+   */
+  public Cursor root() {
+    entries.getLong(0);
+    return new Cursor(this, 0);
+  }
+
+  /**
+   * This method converts the whole document to a tree on the heap.
+   *
+   * @return the root JsonNode.
+   * @throws IllegalStateException if the arena has been closed.
+   */
+  public JsonNode toJsonNode() {
+    return root().toJsonNode();
+  }
+
+  /**
+   * This method gives the memory taken by the segments, outside the heap.
+   *
+   * @return the number of bytes allocated, or 0 once closed.
+   */
+  public long sizeInBytes() {
+    if (isClosed()) {
+      return 0;
+    }
+    return entries.allocated() + bytes.allocated();
+  }
+
+  /**
+   * This method tells if the arena has been closed.
+   *
+   * @return true after close().
+   */
+  public boolean isClosed() {
+    return entries.released();
+  }
+
+  /**
+   * This method drops the segments of the arena. Cursors on it throw an
+   * IllegalStateException from then on. Closing it again does nothing.
+   */
+  @Override
+  public void close() {
+    entries.release();
+    bytes.release();
+  }
+
+  /**
+   * This is a class that points at a value of a JsonArena.
+   *
+   * <p>A cursor only holds the arena and an index, and never copies
+   * anything out of the arena unless asked to. Moving gives a new cursor,
+   * and methods that find no value give null.
+   */
+  public static final class Cursor {
+    private final JsonArena arena;
+    private final long index;
+
+    /**
+     * This is the constructor for the Cursor class.
+     *
+     * @param arena the arena.
+     * @param index the index of the first entry of the value.
+     */
+    private Cursor(JsonArena arena, long index) {
+      this.arena = arena;
+      this.index = index;
+    }
+
+    /**
+     * This method tells if the value is an object.
+     *
+     * @return true for an object.
+     */
+    public boolean isObject() {
+      return tag(index) == JsonTape.OBJECT;
+    }
+
+    /**
+     * This method tells if the value is an array.
+     *
+     * @return true for an array.
+     */
+    public boolean isArray() {
+      return tag(index) == JsonTape.ARRAY;
+    }
+
+    /**
+     * This method tells if the value is a string.
+     *
+     * @return true for a string.
+     */
+    public boolean isString() {
+      return tag(index) == JsonTape.STRING;
+    }
+
+    /**
+     * This method tells if the value is a number.
+     *
+     * @return true for a number.
+     */
+    public boolean isNumber() {
+      long tag = tag(index);
+      return tag == JsonTape.NUMBER || tag == JsonTape.BIG_NUMBER;
+    }
+
+    /**
+     * This method tells if the value is true or false.
+     *
+     * @return true for a boolean.
+     */
+    public boolean isBoolean() {
+      long tag = tag(index);
+      return tag == JsonTape.TRUE || tag == JsonTape.FALSE;
+    }
+
+    /**
+     * This method tells if the value is null.
+     *
+     * @return true for null.
+     */
+    public boolean isNull() {
+      return tag(index) == JsonTape.NULL;
+    }
+
+    /**
+     * This method gives the number of pairs of an object or the number
+     * of elements of an array.
+     *
+     * @return the size of the container, or 0 for any other value.
+     */
+    public long size() {
+      return isObject() || isArray() ? arena.entries.getLong((index + 1) * 8) : 0;
+    }
+
+    /**
+     * This method gives the text of a string value.
+     *
+     * @return a new String, or null if the value is not a string.
+     */
+    public String stringValue() {
+      return isString() ? text(index) : null;
+    }
+
+    /**
+     * This method gives a number value.
+     *
+     * @return a new JsonNumber, or null if the value is not a number.
+     */
+    public JsonNumber numberValue() {
+      long tag = tag(index);
+      if (tag == JsonTape.NUMBER) {
+        return new JsonNumber(arena.entries.getLong((index + 1) * 8), (int) raw(index));
+      }
+      return tag == JsonTape.BIG_NUMBER ? new JsonNumber(text(index)) : null;
+    }
+
+    /**
+     * This method gives a boolean value.
+     *
+     * @return true for true, false for anything else.
+     */
+    public boolean booleanValue() {
+      return tag(index) == JsonTape.TRUE;
+    }
+
+    /**
+     * This method gives the key of the pair this value belongs to.
+     *
+     * @return the key, or null if the value is not in an object.
+     */
+    public String key() {
+      return index > 0 && tag(index - 1) == JsonTape.KEY ? text(index - 1) : null;
+    }
+
+    /**
+     * This method gives the first pair value of an object or the first
+     * element of an array.
+     *
+     * @return the cursor, or null if the value is not a container.
+     */
+    public Cursor first() {
+      if (!isObject() && !isArray()) {
+        return null;
+      }
+      return at(index + 2);
+    }
+
+    /**
+     * This method gives the value that follows this one in its container.
+     *
+     * @return the cursor, or null after the last value.
+     */
+    public Cursor next() {
+      if (index == 0) {
+        return null;
+      }
+      return at(after(index));
+    }
+
+    /**
+     * This method gives the value of the first pair of an object with the
+     * given key. The key is compared to the UTF-8 bytes in the arena, and
+     * the values in between are skipped in one step each.
+     *
+     * @param key the key to look up.
+     * @return the cursor, or null if the key is not there or the value is
+     *         not an object.
+     */
+    public Cursor get(String key) {
+      if (!isObject()) {
+        return null;
+      }
+      byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+      long entry = index + 2;
+      while (tag(entry) == JsonTape.KEY) {
+        if (textEquals(entry, wanted)) {
+          return new Cursor(arena, entry + 1);
+        }
+        entry = after(entry + 1);
+      }
+      return null;
+    }
+
+    /**
+     * This method gives an element of an array.
+     *
+     * @param position the position of the element.
+     * @return the cursor, or null if there is no such element or the
+     *         value is not an array.
+     */
+    public Cursor get(long position) {
+      if (!isArray() || position < 0 || position >= size()) {
+        return null;
+      }
+      Cursor element = first();
+      for (long idx = 0; idx < position; idx++) {
+        element = element.next();
+      }
+      return element;
+    }
+
+    /**
+     * This method converts the value to a JsonNode on the heap, together
+     * with everything below it.
+     *
+     * @return the root of the new tree.
+     */
+    public JsonNode toJsonNode() {
+      long tag = tag(index);
+      if (tag == JsonTape.STRING) {
+        return new JsonString(text(index));
+      }
+      if (tag == JsonTape.NUMBER || tag == JsonTape.BIG_NUMBER) {
+        return numberValue();
+      }
+      if (tag == JsonTape.TRUE || tag == JsonTape.FALSE) {
+        return JsonBoolean.valueOf(tag == JsonTape.TRUE);
+      }
+      if (tag == JsonTape.NULL) {
+        return JsonNull.INSTANCE;
+      }
+      if (tag == JsonTape.ARRAY) {
+        IJsonArray array = new JsonArray();
+        for (Cursor element = first(); element != null; element = element.next()) {
+          array.add(element.toJsonNode());
+        }
+        return array;
+      }
+      IJsonObject object = new JsonObject();
+      for (Cursor value = first(); value != null; value = value.next()) {
+        object.add(value.key(), value.toJsonNode());
+      }
+      return object;
+    }
+
+    /**
+     * This method gives the value starting at an entry, skipping a key.
+     *
+     * @param entry the index of the entry.
+     * @return the cursor, or null if the entry closes the container.
+     */
+    private Cursor at(long entry) {
+      long tag = tag(entry);
+      if (tag == JsonTape.END) {
+        return null;
+      }
+      return new Cursor(arena, tag == JsonTape.KEY ? entry + 1 : entry);
+    }
+
+    /**
+     * This method gives the index after a value, skipping a container
+     * in one step.
+     *
+     * @param entry the index of the first entry of the value.
+     * @return the index of the entry after it.
+     */
+    private long after(long entry) {
+      long tag = tag(entry);
+      if (tag == JsonTape.OBJECT || tag == JsonTape.ARRAY) {
+        return raw(entry);
+      }
+      return tag == JsonTape.NUMBER ? entry + 2 : entry + 1;
+    }
+
+    /**
+     * This method gives the tag of an entry.
+     *
+     * @param entry the index of the entry.
+     * @return the tag.
+     */
+    private long tag(long entry) {
+      return arena.entries.getLong(entry * 8) >>> 60;
+    }
+
+    /**
+     * This method gives the 60-bit field of an entry.
+     *
+     * @param entry the index of the entry.
+     * @return the index, offset or scale.
+     */
+    private long raw(long entry) {
+      return arena.entries.getLong(entry * 8) & FIELD_MASK;
+    }
+
+    /**
+     * This method copies the UTF-8 bytes of a KEY, STRING or BIG_NUMBER
+     * entry.
+     *
+     * @param entry the index of the entry.
+     * @return the bytes.
+     */
+    private byte[] bytes(long entry) {
+      DirectSegments text = arena.bytes;
+      long at = raw(entry);
+      long length = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = text.get(at++);
+        length |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      byte[] copy = new byte[(int) length];
+      text.get(at, copy);
+      return copy;
+    }
+
+    /**
+     * This method decodes the text of a KEY, STRING or BIG_NUMBER entry.
+     *
+     * @param entry the index of the entry.
+     * @return the text.
+     */
+    private String text(long entry) {
+      return new String(bytes(entry), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * This method compares the text of a KEY entry.
+     *
+     * @param entry the index of the entry.
+     * @param text  the UTF-8 bytes to compare with.
+     * @return true if they are the same.
+     */
+    private boolean textEquals(long entry, byte[] text) {
+      DirectSegments pool = arena.bytes;
+      long at = raw(entry);
+      long length = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = pool.get(at++);
+        length |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      if (length != text.length) {
+        return false;
+      }
+      for (int idx = 0; idx < text.length; idx++) {
+        if (pool.get(at + idx) != text[idx]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
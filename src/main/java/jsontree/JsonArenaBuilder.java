@@ -0,0 +1,191 @@
+package jsontree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import parser.AbstractJsonParser;
+import parser.InvalidJsonException;
+import parser.Status;
+
+/**
+ * This is a class that extends AbstractJsonParser as
+ * AbstractJsonParser\< JsonArena \>. It builds the JsonArena of the input
+ * JSON data, outside the heap, instead of a tree.
+ *
+ * <p>The entries and the UTF-8 text are appended to direct segments as the
+ * state machine in AbstractJsonParser reports them, see ArenaWriter, so
+ * the heap only holds the capture buffer and the stack of open
+ * containers, whatever the size of the document.
+ *
+ * <p>The output function returns the JsonArena if parsing is complete and
+ * valid, and null if parsing is incomplete or invalid. The arena belongs
+ * to the caller, who closes it once done with it.
+ */
+public class JsonArenaBuilder extends AbstractJsonParser<JsonArena> {
+  private final int segmentSize;
+  private ArenaWriter writer;
+  private JsonArena document;
+
+  /**
+   * This is a constructor for the JsonArenaBuilder class, with segments
+   * of JsonArena.DEFAULT_SEGMENT bytes.
+   */
+  public JsonArenaBuilder() {
+    this(JsonArena.DEFAULT_SEGMENT);
+  }
+
+  /**
+   * This is a constructor for the JsonArenaBuilder class.
+   * Smaller segments waste less memory on small documents, larger ones
+   * mean fewer buffer objects for large documents.
+   *
+   * @param segmentSize the size of the segments in bytes.
+   * @throws IllegalArgumentException if segmentSize is not a power of two
+   *                                  of at least 8.
+   */
+  public JsonArenaBuilder(int segmentSize) {
+    super();
+    this.segmentSize = JsonArena.checkSegment(segmentSize);
+    this.writer = new ArenaWriter(segmentSize);
+    this.document = null;
+    this.capture = new StringBuilder();
+  }
+
+  /**
+   * This method builds the arena of a UTF-8 json file, see
+   * AbstractJsonParser.input(Path).
+   *
+   * @param path the file to be parsed.
+   * @return the JsonArena if the file is complete, null otherwise.
+   * @throws InvalidJsonException if the file is invalid json.
+   * @throws IOException if the file cannot be read.
+   */
+  public static JsonArena parse(Path path) throws InvalidJsonException, IOException {
+    return new JsonArenaBuilder().input(path).output();
+  }
+
+  /**
+   * This method brings the builder back to the Empty state, see
+   * AbstractJsonParser.reset(). The segments of a document that has not
+   * been handed out by output() are dropped, and an arena that has been
+   * is left untouched.
+   *
+   * @return the current object
+   */
+  @Override
+  public JsonArenaBuilder reset() {
+    super.reset();
+    if (writer != null && document == null) {
+      writer.release();
+    }
+    if (writer != null) {
+      this.writer = new ArenaWriter(segmentSize);
+    }
+    this.document = null;
+    return this;
+  }
+
+  /**
+   * This method gives the arena if parsing is complete and valid. The
+   * segments are trimmed on the first call, and the same arena is given
+   * from then on.
+   *
+   * @return the JsonArena if valid, null otherwise.
+   */
+  @Override
+  public JsonArena output() {
+    if (status() != Status.VALID) {
+      return null;
+    }
+    if (document == null) {
+      document = writer.finish();
+    }
+    return document;
+  }
+
+  /**
+   * This method appends the entries opening an object.
+   */
+  @Override
+  protected void objectOpened() {
+    writer.open(JsonTape.OBJECT);
+  }
+
+  /**
+   * This method appends the entry closing an object.
+   */
+  @Override
+  protected void objectClosed() {
+    writer.close();
+  }
+
+  /**
+   * This method appends the entries opening an array.
+   */
+  @Override
+  protected void arrayOpened() {
+    writer.open(JsonTape.ARRAY);
+  }
+
+  /**
+   * This method appends the entry closing an array.
+   */
+  @Override
+  protected void arrayClosed() {
+    writer.close();
+  }
+
+  /**
+   * This method appends the key that has been read.
+   */
+  @Override
+  protected void keyRead() {
+    writer.text(JsonTape.KEY, capture);
+  }
+
+  /**
+   * This method appends the value string that has been read.
+   */
+  @Override
+  protected void valueRead() {
+    writer.text(JsonTape.STRING, capture);
+  }
+
+  /**
+   * This method appends a number that fits.
+   *
+   * @param unscaled the digits of the number, with its sign.
+   * @param scale    the number of digits after the decimal point.
+   */
+  @Override
+  protected void numberRead(long unscaled, int scale) {
+    writer.number(unscaled, scale);
+  }
+
+  /**
+   * This method appends a number that does not fit, from its text
+   * in capture.
+   */
+  @Override
+  protected void numberRead() {
+    writer.text(JsonTape.BIG_NUMBER, capture);
+  }
+
+  /**
+   * This method appends true or false.
+   *
+   * @param value the value of the literal.
+   */
+  @Override
+  protected void booleanRead(boolean value) {
+    writer.literal(value ? JsonTape.TRUE : JsonTape.FALSE);
+  }
+
+  /**
+   * This method appends null.
+   */
+  @Override
+  protected void nullRead() {
+    writer.literal(JsonTape.NULL);
+  }
+}
@@ -1,6 +1,9 @@
 package jsontree;
 
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -12,9 +15,28 @@ import java.util.List;
  *
  * <p>It overrides add, prettyPrint, equals and hashcode methods
  * to fit the needs of this class.
+ *
+ * <p>The hash code is cached, and so can the text of prettyPrint be,
+ * see JsonObject.
+ *
+ * <p>The arrays built by JsonTreeBuilder start out with their strings
+ * packed, see PackedStrings. Such an array is unpacked into an ArrayList
+ * the first time an object or an array is added to it.
  */
 public final class JsonArray extends IJsonArray {
+  /**
+   * The bit set in hash once it holds the hash code, in its low half.
+   */
+  private static final long HASHED = 1L << 32;
+
   List<JsonNode> jsonArray;
+  private volatile long hash;
+  private WeakReference<JsonNode> parent;
+  private List<WeakReference<JsonNode>> parents;
+  private boolean cachePretty;
+  private String pretty;
+  private int prettyDepth;
+  private boolean printed;
 
   /**
    * This is the constructor for JsonArray class that initializes
@@ -23,6 +45,25 @@ public final class JsonArray extends IJsonArray {
    */
   public JsonArray() {
     jsonArray = new ArrayList<JsonNode>();
+    hash = 0;
+    parent = null;
+    parents = null;
+    cachePretty = false;
+    pretty = null;
+    prettyDepth = 0;
+    printed = false;
+  }
+
+  /**
+   * This method gives an empty array that keeps its strings packed, for
+   * JsonTreeBuilder.
+   *
+   * @return the new JsonArray.
+   */
+  static JsonArray packed() {
+    JsonArray array = new JsonArray();
+    array.jsonArray = new PackedStrings();
+    return array;
   }
 
   /**
@@ -34,7 +75,64 @@ public final class JsonArray extends IJsonArray {
    */
   @Override
   public void add(JsonNode value) {
+    if (jsonArray instanceof PackedStrings) {
+      if (value instanceof JsonString) {
+        String string = ((JsonString) value).value();
+        ((PackedStrings) jsonArray).append(string, 0, string.length());
+        contentChanged();
+        return;
+      }
+      jsonArray = new ArrayList<>(jsonArray);
+    }
     jsonArray.add(value);
+    value.addedTo(this);
+    contentChanged();
+  }
+
+  /**
+   * This method adds a string made of a range of characters, if the
+   * strings of this array are packed.
+   *
+   * @param source the characters.
+   * @param start  index of the first character.
+   * @param end    index after the last character.
+   * @return false if the strings are not packed, and nothing was added.
+   */
+  boolean addPacked(CharSequence source, int start, int end) {
+    if (!(jsonArray instanceof PackedStrings)) {
+      return false;
+    }
+    ((PackedStrings) jsonArray).append(source, start, end);
+    contentChanged();
+    return true;
+  }
+
+  /**
+   * This method adds a string made of a range of ASCII bytes, if the
+   * strings of this array are packed.
+   *
+   * @param source the buffer holding the bytes.
+   * @param start  index of the first byte.
+   * @param end    index after the last byte.
+   * @return false if the strings are not packed, and nothing was added.
+   */
+  boolean addPacked(ByteBuffer source, int start, int end) {
+    if (!(jsonArray instanceof PackedStrings)) {
+      return false;
+    }
+    ((PackedStrings) jsonArray).append(source, start, end);
+    contentChanged();
+    return true;
+  }
+
+  /**
+   * This method drops the room left for more packed strings, once the
+   * array is complete.
+   */
+  void trim() {
+    if (jsonArray instanceof PackedStrings) {
+      ((PackedStrings) jsonArray).trim();
+    }
   }
 
   /**
@@ -51,40 +149,74 @@ public final class JsonArray extends IJsonArray {
    */
   @Override
   public String prettyPrint() {
-    if (jsonArray.isEmpty()) {
-      return "[\n]";
-    }
-
-    StringBuilder prettyJson = new StringBuilder();
+    return cachePretty ? prettyPrintAt(0) : PrettyWriter.print(this);
+  }
 
-    prettyJson.append("[\n");
-    for (int idx = 0; idx < jsonArray.size(); idx++) {
+  @Override
+  String prettyPrintAt(int depth) {
+    if (!cachePretty) {
+      return PrettyWriter.print(this, depth);
+    }
+    if (pretty == null || prettyDepth != depth) {
+      pretty = PrettyWriter.cache(this, depth);
+      prettyDepth = depth;
+    }
+    return pretty;
+  }
 
+  /**
+   * This method makes this array keep the text of prettyPrint() until
+   * something is added to it or below it, see JsonObject.cachePretty.
+   *
+   * @param enabled true to keep the text, false to drop it.
+   */
+  public void cachePretty(boolean enabled) {
+    cachePretty = enabled;
+    if (!enabled) {
+      pretty = null;
+    }
+  }
 
-      if (!(jsonArray.get(idx) instanceof JsonString)) {
-        prettyJson.append("  ");
-        for (char c : jsonArray.get(idx).prettyPrint().toCharArray()) {
-          prettyJson.append(c);
-          if (c == '\n') {
-            prettyJson.append("  ");
-          }
-        }
-      }
-      else {
-        prettyJson.append("  ");
-        prettyJson.append(jsonArray.get(idx).prettyPrint());
-      }
+  @Override
+  boolean cachesPretty() {
+    return cachePretty;
+  }
 
-      // Add ',' after all the elements except the last one.
-      if (idx < jsonArray.size() - 1) {
-        prettyJson.append(',');
-      }
+  @Override
+  void printed() {
+    printed = true;
+  }
 
-      prettyJson.append('\n');
+  /**
+   * This method detaches the elements of this array and everything
+   * below them, see JsonString.detach.
+   *
+   * @return this array.
+   */
+  @Override
+  public JsonArray detach() {
+    if (jsonArray instanceof PackedStrings) {
+      // Packed strings never refer to the input.
+      return this;
     }
-    prettyJson.append("]");
+    for (JsonNode element : jsonArray) {
+      element.detach();
+    }
+    return this;
+  }
 
-    return prettyJson.toString();
+  /**
+   * This method gives an immutable copy of this array.
+   *
+   * @return the PersistentJsonArray holding the frozen elements.
+   */
+  @Override
+  public PersistentJsonArray freeze() {
+    PersistentJsonArray frozen = PersistentJsonArray.empty();
+    for (JsonNode element : jsonArray) {
+      frozen = frozen.with(element);
+    }
+    return frozen;
   }
 
   /**
@@ -106,6 +238,11 @@ public final class JsonArray extends IJsonArray {
 
     JsonArray other = (JsonArray) o;
 
+    // Arrays with different cached hash codes can't be equal.
+    if (this.jsonArray.size() != other.jsonArray.size()
+            || this.hashCode() != other.hashCode()) {
+      return false;
+    }
     return this.jsonArray.equals(other.jsonArray);
   }
 
@@ -113,10 +250,80 @@ public final class JsonArray extends IJsonArray {
    * Hashcode method has to be replaced as well to work
    * properly with Hashing.
    *
+   * <p>It is the hash code of the list of elements, and is cached until
+   * the array or a container below it changes. The cached code and the
+   * fact that there is one are a single volatile field, see JsonObject.
+   *
    * @return An int denoting the hashcode.
    */
   @Override
   public int hashCode() {
-    return jsonArray.hashCode();
+    long h = hash;
+    if (h == 0) {
+      h = HASHED | (jsonArray.hashCode() & 0xFFFFFFFFL);
+      hash = h;
+    }
+    return (int) h;
+  }
+
+  /**
+   * This method records a container this array has been added to, see
+   * JsonObject.addedTo.
+   *
+   * @param container the JsonObject or JsonArray this array was added to.
+   */
+  @Override
+  void addedTo(JsonNode container) {
+    JsonNode first = parent == null ? null : parent.get();
+    if (first == null) {
+      parent = new WeakReference<>(container);
+      return;
+    }
+    if (first == container) {
+      return;
+    }
+    if (parents == null) {
+      parents = new ArrayList<>();
+    } else if (parents.get(parents.size() - 1).get() == container) {
+      return;
+    } else if (Integer.bitCount(parents.size()) == 1) {
+      parents.removeIf(ref -> ref.get() == null);
+    }
+    parents.add(new WeakReference<>(container));
+  }
+
+  /**
+   * This method drops the cached hash code and pretty text of this array
+   * and of the containers it is in, see JsonObject.contentChanged.
+   */
+  @Override
+  void contentChanged() {
+    if (hash == 0 && !printed) {
+      return;
+    }
+    hash = 0;
+    printed = false;
+    pretty = null;
+    if (parent != null) {
+      JsonNode container = parent.get();
+      if (container == null) {
+        parent = null;
+      } else {
+        container.contentChanged();
+      }
+    }
+    if (parents != null) {
+      for (Iterator<WeakReference<JsonNode>> it = parents.iterator(); it.hasNext();) {
+        JsonNode container = it.next().get();
+        if (container == null) {
+          it.remove();
+        } else {
+          container.contentChanged();
+        }
+      }
+    }
+    if (parents != null && parents.isEmpty()) {
+      parents = null;
+    }
   }
 }
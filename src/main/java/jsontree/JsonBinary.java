@@ -0,0 +1,600 @@
+package jsontree;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is a class that encodes trees in a binary form, and decodes them
+ * back, to cache parsed json without having to parse it again.
+ *
+ * <p>The encoding starts with the bytes 'J', 'T', 'B' and VERSION, and
+ * the dictionary of the keys: their number, then each key once, in the
+ * order they first appear, as its length in bytes and its UTF-8 bytes.
+ * The root value follows, each value being a tag byte and then:
+ *
+ * <ul>
+ *   <li>OBJECT: the number of pairs, then for each pair the position of
+ *   the key in the dictionary and the value.
+ *   <li>ARRAY: the number of elements, then the elements.
+ *   <li>STRING: the length in bytes and the UTF-8 bytes. ASCII_STRING is
+ *   the same for a string made of ASCII characters only.
+ *   <li>NUMBER: the unscaled value and the scale, see JsonNumber.
+ *   BIG_NUMBER: the length and the characters of a number that does not
+ *   fit, in ASCII.
+ *   <li>TRUE, FALSE and NULL: nothing.
+ * </ul>
+ *
+ * <p>Numbers and lengths are written 7 bits at a time, low bits first,
+ * and signed numbers are first mapped to unsigned ones so that small
+ * negative numbers stay short. All the containers are known to be valid,
+ * so decoding only follows the tags and the counts, with no state machine,
+ * and every key is decoded once however often it is used.
+ *
+ * <p>A lazy decode does not copy the ASCII strings that are values of
+ * objects: their JsonString nodes refer to the buffer, as the ones of
+ * JsonTreeBuilder with lazy values refer to the input, so the buffer must
+ * not change until they are read or detached.
+ */
+public final class JsonBinary {
+  /**
+   * The version of the encoding, written after the magic bytes. An
+   * encoding of another version is refused by decode.
+   */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'J', 'T', 'B'};
+
+  private static final byte OBJECT = 1;
+  private static final byte ARRAY = 2;
+  private static final byte STRING = 3;
+  private static final byte ASCII_STRING = 4;
+  private static final byte NUMBER = 5;
+  private static final byte BIG_NUMBER = 6;
+  private static final byte TRUE = 7;
+  private static final byte FALSE = 8;
+  private static final byte NULL = 9;
+
+  private final ByteBuffer source;
+  private final boolean lazy;
+  private int position;
+
+  /**
+   * This is a private constructor for a decoder, as the class is used
+   * through its static methods.
+   *
+   * @param source the buffer holding the encoding.
+   * @param lazy   true to leave the ASCII strings of objects in the buffer.
+   */
+  private JsonBinary(ByteBuffer source, boolean lazy) {
+    this.source = source;
+    this.lazy = lazy;
+    this.position = source.position();
+  }
+
+  /**
+   * This method encodes a tree.
+   *
+   * @param node the root of the tree.
+   * @return the encoding.
+   */
+  public static byte[] encode(JsonNode node) {
+    Encoder encoder = new Encoder();
+    encoder.write(node);
+    return encoder.finish();
+  }
+
+  /**
+   * This method encodes a tree to a stream, which is neither flushed
+   * nor closed.
+   *
+   * @param node the root of the tree.
+   * @param out  the stream.
+   * @throws IOException if the stream throws.
+   */
+  public static void encode(JsonNode node, OutputStream out) throws IOException {
+    out.write(encode(node));
+  }
+
+  /**
+   * This method decodes a tree, from the position of the buffer on,
+   * and moves the position past the encoding. All the strings are
+   * copied out of the buffer.
+   *
+   * @param bytes the buffer holding the encoding.
+   * @return the root of the tree.
+   * @throws IllegalArgumentException if the bytes are not an encoding of
+   *                                  VERSION, or are cut short.
+   */
+  public static JsonNode decode(ByteBuffer bytes) {
+    return decode(bytes, false);
+  }
+
+  /**
+   * This method decodes a tree, from the position of the buffer on,
+   * and moves the position past the encoding.
+   *
+   * @param bytes the buffer holding the encoding.
+   * @param lazy  true to leave the ASCII strings of objects in the buffer,
+   *              which must then not change, see JsonString.detach.
+   * @return the root of the tree.
+   * @throws IllegalArgumentException if the bytes are not an encoding of
+   *                                  VERSION, or are cut short.
+   */
+  public static JsonNode decode(ByteBuffer bytes, boolean lazy) {
+    JsonBinary decoder = new JsonBinary(bytes, lazy);
+    JsonNode root;
+    try {
+      root = decoder.read();
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("The binary encoding is cut short");
+    }
+    bytes.position(decoder.position);
+    return root;
+  }
+
+  /**
+   * This method reads the header, the dictionary and the root value.
+   *
+   * @return the root of the tree.
+   */
+  private JsonNode read() {
+    for (byte b : MAGIC) {
+      if (source.get(position++) != b) {
+        throw new IllegalArgumentException("Not a binary encoding of a tree");
+      }
+    }
+    int version = source.get(position++);
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported binary encoding version: " + version);
+    }
+    String[] keys = new String[count()];
+    for (int idx = 0; idx < keys.length; idx++) {
+      int size = length();
+      keys[idx] = new String(bytes(size), StandardCharsets.UTF_8);
+    }
+
+    JsonNode[] nodes = new JsonNode[16];
+    int[] remaining = new int[16];
+    String[] nodeKeys = new String[16];
+    int depth = 0;
+    while (true) {
+      JsonNode top = depth > 0 ? nodes[depth - 1] : null;
+      String key = top instanceof JsonObject ? key(keys) : null;
+      byte tag = source.get(position++);
+      JsonNode node;
+      int size;
+      switch (tag) {
+        case OBJECT:
+        case ARRAY:
+          size = count();
+          node = tag == OBJECT ? new JsonObject() : JsonArray.packed();
+          if (size > 0) {
+            if (depth == nodes.length) {
+              nodes = Arrays.copyOf(nodes, depth * 2);
+              remaining = Arrays.copyOf(remaining, depth * 2);
+              nodeKeys = Arrays.copyOf(nodeKeys, depth * 2);
+            }
+            nodes[depth] = node;
+            remaining[depth] = size;
+            nodeKeys[depth] = key;
+            depth++;
+            continue;
+          }
+          break;
+        case ASCII_STRING:
+          size = length();
+          int start = position;
+          skip(size);
+          if (top instanceof JsonArray && ((JsonArray) top).addPacked(source, start, position)) {
+            node = null;
+          } else if (lazy) {
+            node = new JsonString(source, start, position);
+          } else {
+            node = new JsonString(new String(copy(start, size), StandardCharsets.US_ASCII));
+          }
+          break;
+        case STRING:
+          node = new JsonString(new String(bytes(length()), StandardCharsets.UTF_8));
+          break;
+        case NUMBER:
+          long unscaled = signed();
+          long scale = signed();
+          if (scale != (int) scale) {
+            throw new IllegalArgumentException("Invalid scale at " + position);
+          }
+          node = new JsonNumber(unscaled, (int) scale);
+          break;
+        case BIG_NUMBER:
+          node = new JsonNumber(new String(bytes(length()), StandardCharsets.US_ASCII));
+          break;
+        case TRUE:
+          node = JsonBoolean.TRUE;
+          break;
+        case FALSE:
+          node = JsonBoolean.FALSE;
+          break;
+        case NULL:
+          node = JsonNull.INSTANCE;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown tag " + tag + " at " + (position - 1));
+      }
+
+      // Adds the value to its container, and every container it
+      // completes to the one above.
+      while (depth > 0) {
+        JsonNode container = nodes[depth - 1];
+        if (node != null) {
+          if (container instanceof JsonArray) {
+            ((JsonArray) container).add(node);
+          } else {
+            ((JsonObject) container).add(key, node);
+          }
+        }
+        if (--remaining[depth - 1] > 0) {
+          break;
+        }
+        depth--;
+        nodes[depth] = null;
+        if (container instanceof JsonArray) {
+          ((JsonArray) container).trim();
+        }
+        node = container;
+        key = nodeKeys[depth];
+      }
+      if (depth == 0) {
+        return node;
+      }
+    }
+  }
+
+  /**
+   * This method reads the position of a key and gives the key.
+   *
+   * @param keys the dictionary.
+   * @return the key.
+   */
+  private String key(String[] keys) {
+    int index = length();
+    if (index >= keys.length) {
+      throw new IllegalArgumentException("Unknown key " + index + " at " + position);
+    }
+    return keys[index];
+  }
+
+  /**
+   * This method moves past bytes, after checking they are there.
+   *
+   * @param size the number of bytes.
+   * @throws IndexOutOfBoundsException if the buffer ends before.
+   */
+  private void skip(int size) {
+    if (source.limit() - position < size) {
+      throw new IndexOutOfBoundsException();
+    }
+    position += size;
+  }
+
+  /**
+   * This method copies bytes out of the buffer and moves past them.
+   *
+   * @param size the number of bytes.
+   * @return the bytes.
+   */
+  private byte[] bytes(int size) {
+    int start = position;
+    skip(size);
+    return copy(start, size);
+  }
+
+  /**
+   * This method copies bytes out of the buffer.
+   *
+   * @param start the index of the first byte.
+   * @param size  the number of bytes.
+   * @return the bytes.
+   */
+  private byte[] copy(int start, int size) {
+    byte[] copy = new byte[size];
+    ByteBuffer range = source.duplicate();
+    range.position(start);
+    range.get(copy);
+    return copy;
+  }
+
+  /**
+   * This method reads an unsigned number written 7 bits at a time.
+   *
+   * @return the number.
+   */
+  private long unsigned() {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = source.get(position++);
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Invalid number at " + position);
+  }
+
+  /**
+   * This method reads a signed number, see Encoder.signed.
+   *
+   * @return the number.
+   */
+  private long signed() {
+    long value = unsigned();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * This method reads a count, a length or the position of a key.
+   *
+   * @return the number.
+   */
+  private int length() {
+    long value = unsigned();
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid length at " + position);
+    }
+    return (int) value;
+  }
+
+  /**
+   * This method reads the number of keys or of the values of a container.
+   * Each of them takes at least one byte, so a count past the bytes left
+   * means the encoding is cut short, or corrupt, and it is refused before
+   * anything is made for it.
+   *
+   * @return the number.
+   */
+  private int count() {
+    int value = length();
+    if (value > source.limit() - position) {
+      throw new IllegalArgumentException("The binary encoding is cut short");
+    }
+    return value;
+  }
+
+  /**
+   * This is a class that writes the encoding of a tree to a growing
+   * byte[], with the dictionary of the keys in a second one.
+   */
+  private static final class Encoder {
+    private final Map<String, Integer> positions;
+    private byte[] keys;
+    private int keysLength;
+    private byte[] body;
+    private int bodyLength;
+
+    /**
+     * This is the constructor for the Encoder class.
+     */
+    Encoder() {
+      this.positions = new HashMap<>();
+      this.keys = new byte[256];
+      this.keysLength = 0;
+      this.body = new byte[1024];
+      this.bodyLength = 0;
+    }
+
+    /**
+     * This method writes a tree, with a stack of the open containers
+     * instead of recursion, as in PrettyWriter.
+     *
+     * @param root the root of the tree.
+     */
+    void write(JsonNode root) {
+      List<?>[] lists = new List<?>[16];
+      int[] next = new int[16];
+      int depth = 0;
+      JsonNode node = root;
+      while (true) {
+        if (node.isScalar()) {
+          scalar(node);
+        } else {
+          List<?> list = PrettyWriter.children(node);
+          body(PrettyWriter.isObject(node) ? OBJECT : ARRAY);
+          unsigned(list.size());
+          if (depth == lists.length) {
+            lists = Arrays.copyOf(lists, depth * 2);
+            next = Arrays.copyOf(next, depth * 2);
+          }
+          lists[depth] = list;
+          next[depth] = 0;
+          depth++;
+        }
+        // Finds the next value, closing the containers that are done.
+        node = null;
+        while (depth > 0 && node == null) {
+          List<?> list = lists[depth - 1];
+          if (next[depth - 1] == list.size()) {
+            lists[--depth] = null;
+            continue;
+          }
+          Object item = list.get(next[depth - 1]++);
+          if (item instanceof Pair) {
+            unsigned(key(((Pair) item).getKey()));
+            node = ((Pair) item).getValue();
+          } else {
+            node = (JsonNode) item;
+          }
+        }
+        if (node == null) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * This method gives the encoding, with the header and the
+     * dictionary in front of the values.
+     *
+     * @return the bytes.
+     */
+    byte[] finish() {
+      int[] header = {MAGIC[0], MAGIC[1], MAGIC[2], VERSION};
+      byte[] count = new byte[10];
+      int countLength = 0;
+      long size = positions.size();
+      while (size >= 0x80) {
+        count[countLength++] = (byte) (size | 0x80);
+        size >>>= 7;
+      }
+      count[countLength++] = (byte) size;
+
+      byte[] encoding = new byte[header.length + countLength + keysLength + bodyLength];
+      for (int idx = 0; idx < header.length; idx++) {
+        encoding[idx] = (byte) header[idx];
+      }
+      System.arraycopy(count, 0, encoding, header.length, countLength);
+      System.arraycopy(keys, 0, encoding, header.length + countLength, keysLength);
+      System.arraycopy(body, 0, encoding, header.length + countLength + keysLength, bodyLength);
+      return encoding;
+    }
+
+    /**
+     * This method writes a string, number or literal.
+     *
+     * @param node the scalar node.
+     */
+    private void scalar(JsonNode node) {
+      if (node instanceof JsonString) {
+        string(((JsonString) node).chars());
+      } else if (node instanceof JsonNumber) {
+        JsonNumber number = (JsonNumber) node;
+        if (number.fits()) {
+          body(NUMBER);
+          signed(number.unscaled());
+          signed(number.scale());
+        } else {
+          body(BIG_NUMBER);
+          byte[] text = number.prettyPrint().getBytes(StandardCharsets.US_ASCII);
+          unsigned(text.length);
+          append(text);
+        }
+      } else if (node instanceof JsonBoolean) {
+        body(((JsonBoolean) node).value() ? TRUE : FALSE);
+      } else {
+        body(NULL);
+      }
+    }
+
+    /**
+     * This method writes a string, as ASCII_STRING when it can.
+     *
+     * @param chars the characters of the string.
+     */
+    private void string(CharSequence chars) {
+      int size = chars.length();
+      for (int idx = 0; idx < size; idx++) {
+        if (chars.charAt(idx) >= 0x80) {
+          body(STRING);
+          byte[] utf8 = chars.toString().getBytes(StandardCharsets.UTF_8);
+          unsigned(utf8.length);
+          append(utf8);
+          return;
+        }
+      }
+      body(ASCII_STRING);
+      unsigned(size);
+      room(size);
+      for (int idx = 0; idx < size; idx++) {
+        body[bodyLength++] = (byte) chars.charAt(idx);
+      }
+    }
+
+    /**
+     * This method gives the position of a key in the dictionary, and
+     * adds it there the first time.
+     *
+     * @param key the key.
+     * @return the position.
+     */
+    private int key(String key) {
+      Integer known = positions.get(key);
+      if (known != null) {
+        return known;
+      }
+      int index = positions.size();
+      positions.put(key, index);
+      byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+      if (keys.length - keysLength < utf8.length + 5) {
+        keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + utf8.length + 5));
+      }
+      int size = utf8.length;
+      while (size >= 0x80) {
+        keys[keysLength++] = (byte) (size | 0x80);
+        size >>>= 7;
+      }
+      keys[keysLength++] = (byte) size;
+      System.arraycopy(utf8, 0, keys, keysLength, utf8.length);
+      keysLength += utf8.length;
+      return index;
+    }
+
+    /**
+     * This method writes a signed number, mapped to an unsigned one so
+     * that small negative numbers stay short.
+     *
+     * @param value the number.
+     */
+    private void signed(long value) {
+      unsigned((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * This method writes an unsigned number 7 bits at a time.
+     *
+     * @param value the number.
+     */
+    private void unsigned(long value) {
+      room(10);
+      while ((value & ~0x7FL) != 0) {
+        body[bodyLength++] = (byte) (value | 0x80);
+        value >>>= 7;
+      }
+      body[bodyLength++] = (byte) value;
+    }
+
+    /**
+     * This method writes a byte.
+     *
+     * @param b the byte.
+     */
+    private void body(byte b) {
+      room(1);
+      body[bodyLength++] = b;
+    }
+
+    /**
+     * This method writes bytes.
+     *
+     * @param bytes the bytes.
+     */
+    private void append(byte[] bytes) {
+      room(bytes.length);
+      System.arraycopy(bytes, 0, body, bodyLength, bytes.length);
+      bodyLength += bytes.length;
+    }
+
+    /**
+     * This method makes room for some more bytes.
+     *
+     * @param size the number of bytes.
+     */
+    private void room(int size) {
+      if (body.length - bodyLength < size) {
+        body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLength + size));
+      }
+    }
+  }
+}
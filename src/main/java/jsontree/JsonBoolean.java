@@ -0,0 +1,86 @@
+package jsontree;
+
+/**
+ * This is a concrete class that represents the Json literals
+ * true and false. It extends and fully implements JsonNode.
+ *
+ * <p>There are only two instances, TRUE and FALSE, which are shared by
+ * all the trees.
+ */
+public final class JsonBoolean extends JsonNode {
+  /**
+   * The Json literal true.
+   */
+  public static final JsonBoolean TRUE = new JsonBoolean(true);
+
+  /**
+   * The Json literal false.
+   */
+  public static final JsonBoolean FALSE = new JsonBoolean(false);
+
+  private final boolean value;
+
+  /**
+   * This is a private constructor as only TRUE and FALSE exist.
+   *
+   * @param value the value of the literal.
+   */
+  private JsonBoolean(boolean value) {
+    this.value = value;
+  }
+
+  /**
+   * This method gives the instance for a value.
+   *
+   * @param value the value of the literal.
+   * @return TRUE or FALSE.
+   */
+  public static JsonBoolean valueOf(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  /**
+   * This method gets the value of the literal.
+   *
+   * @return the boolean value.
+   */
+  public boolean value() {
+    return value;
+  }
+
+  /**
+   * This method gives the literal as Json.
+   *
+   * @return "true" or "false".
+   */
+  public String prettyPrint() {
+    return value ? "true" : "false";
+  }
+
+  @Override
+  boolean isScalar() {
+    return true;
+  }
+
+  /**
+   * This method overrides the default equals method of object Class.
+   *
+   * @param o Takes in the object to be compared with.
+   * @return a boolean value indicating the sameness.
+   */
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof JsonBoolean && ((JsonBoolean) o).value == value;
+  }
+
+  /**
+   * Hashcode method has to be replaced as well to work
+   * properly with Hashing.
+   *
+   * @return the hash code of the boolean value.
+   */
+  @Override
+  public int hashCode() {
+    return Boolean.hashCode(value);
+  }
+}
@@ -1,11 +1,16 @@
 package jsontree;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * This is an abstract class that represents a node
  * in the Json hierarchy. It is initially empty.
  *
  * <p>Json Node might represent a Simple Json String,
- * a Json Array or a Json Object.
+ * a Json Number, true, false, null, a Json Array or a Json Object.
  */
 public abstract class JsonNode {
   /**
@@ -18,6 +23,62 @@ public abstract class JsonNode {
    */
   public abstract String prettyPrint();
 
+  /**
+   * This method writes the same json as prettyPrint, for any number of
+   * spaces for each level, straight to an Appendable such as a Writer or
+   * a StringBuilder.
+   *
+   * <p>No String is built for the children, every character is written
+   * once, and the tree is walked without recursion, so this is the way to
+   * print large or deep trees. writePretty(out, 2) writes exactly what
+   * prettyPrint() gives.
+   *
+   * @param out    where the characters are written.
+   * @param indent the number of spaces for each level.
+   * @throws IOException if the output throws.
+   * @throws IllegalArgumentException if indent is negative.
+   */
+  public void writePretty(Appendable out, int indent) throws IOException {
+    PrettyWriter.write(this, out, indent);
+  }
+
+  /**
+   * This method writes the json of the tree below this node as UTF-8,
+   * with nothing between the tokens, to a stream.
+   *
+   * <p>The bytes are encoded straight from the nodes into a buffer kept
+   * for each thread, which is written to the stream each time it fills
+   * up, so there is no String or byte[] of the whole document. The
+   * stream is neither flushed nor closed. It may itself write other
+   * trees compact on the same thread.
+   *
+   * <p>The output is minified json, which is prettyPrint with only the
+   * whitespace taken out. That is about 15% smaller on flat documents
+   * such as 40 short fields, more on deeply nested trees, and not half:
+   * the keys, strings and numbers are the same bytes in both. What this
+   * saves is the String of prettyPrint and its copy to bytes. A smaller
+   * encoding that is not json is given by JsonBinary.
+   *
+   * @param out the stream.
+   * @throws IOException if the stream throws.
+   */
+  public void writeCompact(OutputStream out) throws IOException {
+    CompactWriter.write(this, out);
+  }
+
+  /**
+   * This method writes the json of the tree below this node as UTF-8,
+   * with nothing between the tokens, to a buffer, from its position on.
+   * See writeCompact(OutputStream).
+   *
+   * @param out the buffer, whose position is moved past the json.
+   * @throws BufferOverflowException if the json does not fit. The buffer
+   *                                 then holds part of it.
+   */
+  public void writeCompact(ByteBuffer out) {
+    CompactWriter.write(this, out);
+  }
+
   /**
    * This overrides the default equals method from the object
    * class.
@@ -40,4 +101,86 @@ public abstract class JsonNode {
    */
   @Override
   public abstract int hashCode();
+
+  /**
+   * This method gives an immutable copy of the tree below this node, made
+   * of PersistentJsonObject and PersistentJsonArray in place of JsonObject
+   * and JsonArray. Nodes that are already immutable, such as JsonString,
+   * are shared rather than copied, so this node is given back as it is.
+   *
+   * @return the immutable node.
+   */
+  public JsonNode freeze() {
+    return this;
+  }
+
+  /**
+   * This method makes the tree below this node stop referring to the
+   * input it was built from, see JsonString.detach. Does nothing unless
+   * overridden.
+   *
+   * @return this node.
+   */
+  public JsonNode detach() {
+    return this;
+  }
+
+  /**
+   * This method tells if this node is printed on the line of its key or
+   * array element, as strings, numbers and literals are, rather than on
+   * lines of its own.
+   *
+   * @return true for the nodes that are not containers.
+   */
+  boolean isScalar() {
+    return false;
+  }
+
+  /**
+   * This method tells if this node keeps its prettyPrint() text, so that
+   * PrettyWriter can copy it instead of walking the node again.
+   *
+   * @return true for a container with cachePretty set.
+   */
+  boolean cachesPretty() {
+    return false;
+  }
+
+  /**
+   * This method gives the text of prettyPrint() as it is printed inside
+   * containers, with the indents of their depth after each line break.
+   * PrettyWriter appends it as it is for the nodes that keep their text.
+   *
+   * @param depth the number of containers around this node.
+   * @return the formatted json.
+   */
+  String prettyPrintAt(int depth) {
+    return PrettyWriter.print(this, depth);
+  }
+
+  /**
+   * This method is called by PrettyWriter on every container below a node
+   * whose text it is caching, so that a change below drops that text, see
+   * contentChanged. Does nothing unless overridden.
+   */
+  void printed() {
+  }
+
+  /**
+   * This method is called when this node is added to a container.
+   * Containers keep weak references to the containers they are in, so
+   * that their cached hash codes can be dropped when they change. Does
+   * nothing unless overridden.
+   *
+   * @param container the JsonObject or JsonArray this node was added to.
+   */
+  void addedTo(JsonNode container) {
+  }
+
+  /**
+   * This method is called when a node below this one changes, and drops
+   * any hash code cached for it. Does nothing unless overridden.
+   */
+  void contentChanged() {
+  }
 }
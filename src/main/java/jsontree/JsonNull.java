@@ -0,0 +1,57 @@
+package jsontree;
+
+/**
+ * This is a concrete class that represents the Json literal null.
+ * It extends and fully implements JsonNode.
+ *
+ * <p>There is a single instance, INSTANCE, which is shared by all
+ * the trees.
+ */
+public final class JsonNull extends JsonNode {
+  /**
+   * The Json literal null.
+   */
+  public static final JsonNull INSTANCE = new JsonNull();
+
+  /**
+   * This is a private constructor as only INSTANCE exists.
+   */
+  private JsonNull() {
+  }
+
+  /**
+   * This method gives the literal as Json.
+   *
+   * @return "null".
+   */
+  public String prettyPrint() {
+    return "null";
+  }
+
+  @Override
+  boolean isScalar() {
+    return true;
+  }
+
+  /**
+   * This method overrides the default equals method of object Class.
+   *
+   * @param o Takes in the object to be compared with.
+   * @return true if o is null as a Json value too.
+   */
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof JsonNull;
+  }
+
+  /**
+   * Hashcode method has to be replaced as well to work
+   * properly with Hashing.
+   *
+   * @return 0, as for a null reference.
+   */
+  @Override
+  public int hashCode() {
+    return 0;
+  }
+}
@@ -0,0 +1,306 @@
+package jsontree;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * This is a concrete class that represents a Json number.
+ * It extends and fully implements JsonNode.
+ *
+ * <p>The number is kept as an exact decimal, unscaled * 10^-scale, in a
+ * primitive long and an int, so 0.1 stays 0.1 instead of the nearest
+ * double, and equal numbers are equal however they were written: 1e2,
+ * 100 and 100.0 all give 1 and -2. The unscaled value never ends with a
+ * zero, which makes the pair unique. This is also what JsonTreeBuilder
+ * reads straight out of the digits, without a String in between.
+ *
+ * <p>The few numbers that do not fit are kept as the characters they were
+ * written with, and only turned into a BigDecimal when it is asked for, or
+ * when they are compared. doubleValue() and longValue() convert on the fly.
+ *
+ * <p>A JsonNumber never changes, so it can be shared between threads.
+ */
+public final class JsonNumber extends JsonNode {
+  /**
+   * The powers of ten that are exact as a double.
+   */
+  private static final double[] POWERS = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+      1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+  };
+
+  private final long unscaled;
+  private final int scale;
+  private final char[] text;
+  private BigDecimal decimal;
+
+  /**
+   * This is a constructor for JsonNumber class to hold
+   * a whole number.
+   *
+   * @param value the value of the number.
+   */
+  public JsonNumber(long value) {
+    this(value, 0);
+  }
+
+  /**
+   * This is a constructor for JsonNumber class to hold the decimal
+   * that the double prints as, so new JsonNumber(0.1) is 0.1.
+   *
+   * @param value the value of the number.
+   * @throws IllegalArgumentException if the value is NaN or infinite.
+   */
+  public JsonNumber(double value) {
+    this(decimal(value));
+  }
+
+  /**
+   * This is a constructor for JsonNumber class to hold
+   * an arbitrary decimal.
+   *
+   * @param value the value of the number.
+   */
+  public JsonNumber(BigDecimal value) {
+    BigDecimal stripped = value.signum() == 0 ? BigDecimal.ZERO : value.stripTrailingZeros();
+    BigInteger digits = stripped.unscaledValue();
+    if (digits.bitLength() < Long.SIZE) {
+      this.unscaled = digits.longValue();
+      this.scale = stripped.scale();
+      this.text = null;
+    } else {
+      this.unscaled = 0;
+      this.scale = 0;
+      this.text = stripped.toString().toCharArray();
+    }
+    this.decimal = stripped;
+  }
+
+  /**
+   * This is a constructor for JsonNumber class that takes the value read
+   * by JsonTreeBuilder, as unscaled * 10^-scale.
+   *
+   * @param unscaled the digits of the number, with its sign.
+   * @param scale    the number of digits after the decimal point,
+   *                 negative for a power of ten.
+   */
+  JsonNumber(long unscaled, int scale) {
+    while (unscaled != 0 && unscaled % 10 == 0 && scale > Integer.MIN_VALUE) {
+      unscaled /= 10;
+      scale--;
+    }
+    this.unscaled = unscaled;
+    this.scale = unscaled == 0 ? 0 : scale;
+    this.text = null;
+  }
+
+  /**
+   * This is a constructor for JsonNumber class that takes a number that
+   * does not fit in a long and an int, as written in the json.
+   *
+   * @param text the characters of a valid Json number.
+   */
+  JsonNumber(CharSequence text) {
+    char[] chars = new char[text.length()];
+    for (int idx = 0; idx < chars.length; idx++) {
+      chars[idx] = text.charAt(idx);
+    }
+    this.unscaled = 0;
+    this.scale = 0;
+    this.text = chars;
+  }
+
+  /**
+   * This method gives the exact decimal a double prints as.
+   *
+   * @param value the double.
+   * @return the BigDecimal.
+   * @throws IllegalArgumentException if the value is NaN or infinite.
+   */
+  private static BigDecimal decimal(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException("A Json number has to be finite");
+    }
+    return BigDecimal.valueOf(value);
+  }
+
+  /**
+   * This method gives the number as a double, rounded to the nearest one.
+   *
+   * <p>When the digits and the power of ten are both exact as doubles,
+   * a single multiplication or division rounds correctly, so that is all
+   * it takes for most numbers. The others go through BigDecimal, or are
+   * parsed from their text.
+   *
+   * @return the double value.
+   */
+  public double doubleValue() {
+    if (text != null) {
+      return Double.parseDouble(new String(text));
+    }
+    if (scale == 0) {
+      return unscaled;
+    }
+    if (Math.abs(unscaled) < 1L << 53 && scale >= -22 && scale <= 22) {
+      return scale > 0 ? unscaled / POWERS[scale] : unscaled * POWERS[-scale];
+    }
+    return bigDecimalValue().doubleValue();
+  }
+
+  /**
+   * This method gives the number as a long. Any fraction is dropped, and
+   * only the low 64 bits of a larger number are kept, like
+   * BigDecimal.longValue.
+   *
+   * @return the long value.
+   * @throws NumberFormatException if the exponent is out of the range
+   *                               of a BigDecimal.
+   */
+  public long longValue() {
+    if (text == null && scale == 0) {
+      return unscaled;
+    }
+    return bigDecimalValue().longValue();
+  }
+
+  /**
+   * This method gives the exact value of the number. It is worked out
+   * once and kept.
+   *
+   * @return the BigDecimal value.
+   * @throws NumberFormatException if the exponent is out of the range
+   *                               of a BigDecimal.
+   */
+  public BigDecimal bigDecimalValue() {
+    BigDecimal value = decimal;
+    if (value == null) {
+      value = text != null ? new BigDecimal(text) : BigDecimal.valueOf(unscaled, scale);
+      decimal = value;
+    }
+    return value;
+  }
+
+  /**
+   * This method gives the number as Json. Small powers of ten are written
+   * out, 1e3 as 1000, and numbers kept as text as they were written.
+   *
+   * @return the number.
+   */
+  public String prettyPrint() {
+    if (text != null) {
+      return new String(text);
+    }
+    if (scale == 0) {
+      return Long.toString(unscaled);
+    }
+    BigDecimal value = BigDecimal.valueOf(unscaled, scale);
+    return scale < 0 && scale >= -6 ? value.toPlainString() : value.toString();
+  }
+
+  @Override
+  boolean isScalar() {
+    return true;
+  }
+
+  /**
+   * This method tells if the number is kept as an unscaled long and a
+   * scale rather than as text.
+   *
+   * @return true if unscaled() and scale() hold the value.
+   */
+  boolean fits() {
+    return text == null;
+  }
+
+  /**
+   * This method gets the unscaled value of a number that fits.
+   *
+   * @return the digits of the number, with its sign.
+   */
+  long unscaled() {
+    return unscaled;
+  }
+
+  /**
+   * This method gets the scale of a number that fits.
+   *
+   * @return the number of digits after the decimal point.
+   */
+  int scale() {
+    return scale;
+  }
+
+  /**
+   * This method overrides the default equals method of object Class.
+   *
+   * <p>Numbers are equal when their values are, whatever way they were
+   * written in. Numbers kept as text are compared as BigDecimal.
+   *
+   * @param o Takes in the object to be compared with.
+   * @return a boolean value indicating the sameness.
+   */
+  @Override
+  public boolean equals(Object o) {
+    // Fast pointer equality.
+    if (this == o) {
+      return true;
+    }
+    // If o isn't the right class then it can't be equal.
+    if (!(o instanceof JsonNumber)) {
+      return false;
+    }
+
+    JsonNumber other = (JsonNumber) o;
+    if (this.text == null && other.text == null) {
+      return this.unscaled == other.unscaled && this.scale == other.scale;
+    }
+    try {
+      return this.bigDecimalValue().compareTo(other.bigDecimalValue()) == 0;
+    } catch (NumberFormatException e) {
+      // Out of the range of BigDecimal, only the same text is equal.
+      return Arrays.equals(this.text, other.text);
+    }
+  }
+
+  /**
+   * Hashcode method has to be replaced as well to work
+   * properly with Hashing.
+   *
+   * <p>It is worked out from the unscaled value and the scale, so numbers
+   * kept as text that would fit are first brought to that form.
+   *
+   * @return An int denoting the hashcode.
+   */
+  @Override
+  public int hashCode() {
+    if (text == null) {
+      return hash(unscaled, scale);
+    }
+    try {
+      BigDecimal value = bigDecimalValue();
+      if (value.signum() == 0) {
+        return hash(0, 0);
+      }
+      value = value.stripTrailingZeros();
+      BigInteger digits = value.unscaledValue();
+      if (digits.bitLength() < Long.SIZE) {
+        return hash(digits.longValue(), value.scale());
+      }
+      return value.hashCode();
+    } catch (NumberFormatException e) {
+      return Arrays.hashCode(text);
+    }
+  }
+
+  /**
+   * This method gives the hash code of a number that fits.
+   *
+   * @param unscaled the unscaled value, with no zeros at the end.
+   * @param scale    the scale.
+   * @return the hash code.
+   */
+  private static int hash(long unscaled, int scale) {
+    return 31 * Long.hashCode(unscaled) + scale;
+  }
+}
@@ -1,9 +1,11 @@
 package jsontree;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * This is a concrete class that extends the IJsonObject
@@ -14,16 +16,65 @@ import java.util.Map;
  *
  * <p>It overrides add, prettyPrint, equals and hashcode methods
  * to fit the needs of this class.
+ *
+ * <p>Keys are looked up by scanning the list as long as the object is
+ * small. Once it holds INDEX_THRESHOLD pairs, the first lookup builds an
+ * open-addressing hash table over the list, see Index, which add() then
+ * keeps up to date. The table maps a key to the positions of its first and
+ * last pairs, and the next array links every pair to the next one with the
+ * same key, so the list itself, with its order and its duplicate keys, is
+ * left as it is.
+ *
+ * <p>Lookups from several threads at once are safe, as long as no thread
+ * adds to the object meanwhile. The table is filled before it is stored
+ * in the object, and its arrays are final fields, so a thread that finds
+ * it sees it complete. Threads that look up a key before any table is
+ * stored may each build one, and the last one stored is kept.
+ *
+ * <p>The hash code is cached. It is dropped when a pair is added to this
+ * object or to any container below it, which is why every container
+ * keeps weak references to the containers it has been added to, see
+ * addedTo. The text of prettyPrint can be kept the same way, see
+ * cachePretty.
  */
 public final class JsonObject extends IJsonObject {
+  /**
+   * Objects with fewer pairs than this are never indexed.
+   */
+  static final int INDEX_THRESHOLD = 8;
+
+  /**
+   * The bit set in hash once it holds the hash code, in its low half.
+   */
+  private static final long HASHED = 1L << 32;
+
   List<Pair> jsonObject;
+  private Index index;
+  private volatile long hash;
+  private volatile long[] view;
+  private WeakReference<JsonNode> parent;
+  private List<WeakReference<JsonNode>> parents;
+  private boolean cachePretty;
+  private String pretty;
+  private int prettyDepth;
+  private boolean printed;
 
   /**
    * This is the constructor for class JsonObject that
    * initializes the jsonObject Attribute with an ArrayList.
+   * The index is only built when needed.
    */
   public JsonObject() {
     this.jsonObject = new ArrayList<Pair>();
+    this.index = null;
+    this.hash = 0;
+    this.view = null;
+    this.parent = null;
+    this.parents = null;
+    this.cachePretty = false;
+    this.pretty = null;
+    this.prettyDepth = 0;
+    this.printed = false;
   }
 
   /**
@@ -42,6 +93,102 @@ public final class JsonObject extends IJsonObject {
     }
 
     jsonObject.add(new Pair(key, value));
+    if (index != null && !index.add(jsonObject, jsonObject.size() - 1)) {
+      index = new Index(jsonObject);
+    }
+    value.addedTo(this);
+    contentChanged();
+  }
+
+  /**
+   * This method gives the first value stored for a key.
+   *
+   * @param key The key to look up.
+   * @return the first value added for the key, or null if there is none.
+   */
+  @Override
+  public JsonNode get(String key) {
+    int position = first(key);
+    return position < 0 ? null : jsonObject.get(position).getValue();
+  }
+
+  /**
+   * This method gives all the values stored for a key.
+   *
+   * @param key The key to look up.
+   * @return the values added for the key in the order they were added,
+   *         or an empty list if there are none.
+   */
+  @Override
+  public List<JsonNode> getAll(String key) {
+    int position = first(key);
+    if (position < 0) {
+      return Collections.emptyList();
+    }
+    List<JsonNode> values = new ArrayList<>();
+    Index table = index;
+    if (table == null) {
+      for (int idx = position; idx < jsonObject.size(); idx++) {
+        Pair pair = jsonObject.get(idx);
+        if (pair.getKey().equals(key)) {
+          values.add(pair.getValue());
+        }
+      }
+    } else {
+      for (int idx = position; idx >= 0; idx = table.next[idx]) {
+        values.add(jsonObject.get(idx).getValue());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * This method tells if a value is stored for a key.
+   *
+   * @param key The key to look up.
+   * @return true if at least one value was added for the key.
+   */
+  @Override
+  public boolean containsKey(String key) {
+    return first(key) >= 0;
+  }
+
+  /**
+   * This method finds the position of the first pair with a key,
+   * building the index first if the object is large enough.
+   *
+   * @param key The key to look up.
+   * @return the position in jsonObject, or -1 if there is none.
+   */
+  private int first(String key) {
+    if (key == null) {
+      return -1;
+    }
+    Index table = index;
+    if (table == null) {
+      if (jsonObject.size() < INDEX_THRESHOLD) {
+        for (int idx = 0; idx < jsonObject.size(); idx++) {
+          if (jsonObject.get(idx).getKey().equals(key)) {
+            return idx;
+          }
+        }
+        return -1;
+      }
+      table = new Index(jsonObject);
+      index = table;
+    }
+    return table.first(jsonObject, key);
+  }
+
+  /**
+   * This method spreads the high bits of a hash code over the low bits,
+   * which are the ones that pick a slot.
+   *
+   * @param hash the hash code.
+   * @return the spread hash code.
+   */
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
   }
 
   /**
@@ -54,7 +201,7 @@ public final class JsonObject extends IJsonObject {
    * @param key String value to be validated.
    * @return a boolean value indicating if the key is valid or not.
    */
-  private boolean isValidKey(String key) {
+  static boolean isValidKey(String key) {
     if (key == null || key.isEmpty() || !Character.isLetter(key.charAt(0))) {
       return false;
     }
@@ -73,42 +220,85 @@ public final class JsonObject extends IJsonObject {
    */
   @Override
   public String prettyPrint() {
-    if (jsonObject.isEmpty()) {
-      return "{\n}";
-    }
-
-    StringBuilder prettyJson = new StringBuilder();
-
-    prettyJson.append("{\n");
-    for (int idx = 0; idx < jsonObject.size(); idx++) {
-      Pair kv = jsonObject.get(idx);
-
-      prettyJson.append("  ")
-              .append("\"")
-              .append(kv.getKey())
-              .append("\":");
-      if (!(kv.getValue() instanceof JsonString)) {
-        prettyJson.append("\n  ");
-        for (char c : kv.getValue().prettyPrint().toCharArray()) {
-          prettyJson.append(c);
-          if (c == '\n') {
-            prettyJson.append("  ");
-          }
-        }
-      }
-      else {
-        prettyJson.append(kv.getValue().prettyPrint());
-      }
+    return cachePretty ? prettyPrintAt(0) : PrettyWriter.print(this);
+  }
 
-      if (idx < jsonObject.size() - 1) {
-        prettyJson.append(',');
-      }
+  @Override
+  String prettyPrintAt(int depth) {
+    if (!cachePretty) {
+      return PrettyWriter.print(this, depth);
+    }
+    if (pretty == null || prettyDepth != depth) {
+      pretty = PrettyWriter.cache(this, depth);
+      prettyDepth = depth;
+    }
+    return pretty;
+  }
 
-      prettyJson.append("\n");
+  /**
+   * This method makes this object keep the text of prettyPrint() from one
+   * call to the next, until something is added to it or below it.
+   *
+   * <p>Printing a container above it then appends the kept text in one
+   * piece instead of walking this object again, so for a tree that mostly
+   * stays the same, with the containers on the way to its changes cached,
+   * printing it again only walks the containers that changed. All of the
+   * text is still copied, so the time saved is that of walking and
+   * formatting the nodes, not of the output itself.
+   *
+   * <p>The text is kept with the indents of the depth it was last printed
+   * at, so that it is not indented again on each copy. A container printed
+   * both on its own and inside others makes its text again each time the
+   * depth changes. Each cached container holds a String as long as its
+   * text, so this is best set on a few large and stable containers rather
+   * than on all of them.
+   *
+   * @param enabled true to keep the text, false to drop it.
+   */
+  public void cachePretty(boolean enabled) {
+    cachePretty = enabled;
+    if (!enabled) {
+      pretty = null;
     }
-    prettyJson.append("}");
+  }
 
-    return prettyJson.toString();
+  @Override
+  boolean cachesPretty() {
+    return cachePretty;
+  }
+
+  @Override
+  void printed() {
+    printed = true;
+  }
+
+  /**
+   * This method detaches the values of this object and of everything
+   * below it, see JsonString.detach.
+   *
+   * @return this object.
+   */
+  @Override
+  public JsonObject detach() {
+    for (Pair pair : jsonObject) {
+      pair.getValue().detach();
+    }
+    return this;
+  }
+
+  /**
+   * This method gives an immutable copy of this object. The pairs keep
+   * their order, and repeated keys are kept as well.
+   *
+   * @return the PersistentJsonObject holding the frozen pairs.
+   */
+  @Override
+  public PersistentJsonObject freeze() {
+    PersistentJsonObject frozen = PersistentJsonObject.empty();
+    for (Pair pair : jsonObject) {
+      frozen = frozen.append(pair.getKey(), pair.getValue().freeze());
+    }
+    return frozen;
   }
 
   /**
@@ -118,6 +308,13 @@ public final class JsonObject extends IJsonObject {
    * regardless of order. Objects are equal if they have the same keys
    * and for each key, the same set of values (including duplicates).
    *
+   * <p>Objects of different sizes or hash codes are told apart right away.
+   * Otherwise the pairs of both objects are walked in the order of their
+   * hash codes, see pairView(), so most pairs are only compared with the
+   * single pair of the other object that has the same hash code. Only
+   * runs of pairs sharing a hash code, such as repeated pairs, are
+   * matched against each other as a whole.
+   *
    * @param o Takes in the object to be compared with.
    * @return a boolean value indicating the sameness.
    */
@@ -133,79 +330,302 @@ public final class JsonObject extends IJsonObject {
     }
     JsonObject other = (JsonObject) o;
 
-    // Check sizes of the objects
-    if (this.jsonObject.size() != other.jsonObject.size()) {
+    // Check sizes and hash codes of the objects.
+    if (this.jsonObject.size() != other.jsonObject.size()
+            || this.hashCode() != other.hashCode()) {
       return false;
     }
 
-    // Count the frequencies of each key and each value for a key in this.jsonObject
-    Map<String, Map<JsonNode, Integer>> thisCount = countKeyValueFreq(this.jsonObject);
-
-    // Count the frequencies of each key and each value for a key in other.jsonObject
-    Map<String, Map<JsonNode, Integer>> otherCount = countKeyValueFreq(other.jsonObject);
-
-    // Comparing the two maps by checking for keys similarity
-    if (!(thisCount.keySet().equals(otherCount.keySet()))) {
-      return false;
+    long[] mine = this.pairView();
+    long[] theirs = other.pairView();
+    int idx = 0;
+    while (idx < mine.length) {
+      // The run of pairs with the same hash code must be as long on both sides.
+      long pairHash = mine[idx] >> 32;
+      int end = idx + 1;
+      while (end < mine.length && mine[end] >> 32 == pairHash) {
+        end++;
+      }
+      if (theirs[idx] >> 32 != pairHash || theirs[end - 1] >> 32 != pairHash
+              || (end < theirs.length && theirs[end] >> 32 == pairHash)) {
+        return false;
+      }
+      if (end - idx == 1) {
+        if (!samePair(pair(mine[idx]), other.pair(theirs[idx]))) {
+          return false;
+        }
+      } else if (!sameRun(mine, theirs, other, idx, end)) {
+        return false;
+      }
+      idx = end;
     }
+    return true;
+  }
 
-    // Comparing the two maps by checking value frequencies for each key.
-    for (String key : thisCount.keySet()) {
-      Map<JsonNode, Integer> thisInnerMap = thisCount.get(key);
-      Map<JsonNode, Integer> otherInnerMap = otherCount.get(key);
-
-      if (!(thisInnerMap.equals(otherInnerMap))) {
+  /**
+   * This method matches a run of pairs with the same hash code against
+   * the run of the other object, as multisets.
+   *
+   * @param mine   the pair view of this object.
+   * @param theirs the pair view of the other object.
+   * @param other  the other object.
+   * @param from   index of the first entry of the run in both views.
+   * @param to     index after the last entry of the run in both views.
+   * @return true if every pair of the run has its own match.
+   */
+  private boolean sameRun(long[] mine, long[] theirs, JsonObject other, int from, int to) {
+    boolean[] matched = new boolean[to - from];
+    for (int idx = from; idx < to; idx++) {
+      Pair pair = pair(mine[idx]);
+      boolean found = false;
+      for (int jdx = from; jdx < to && !found; jdx++) {
+        if (!matched[jdx - from] && samePair(pair, other.pair(theirs[jdx]))) {
+          matched[jdx - from] = true;
+          found = true;
+        }
+      }
+      if (!found) {
         return false;
       }
     }
     return true;
   }
 
+  /**
+   * This method compares two pairs.
+   *
+   * @param a a pair.
+   * @param b another pair.
+   * @return true if the keys and the values are equal.
+   */
+  private static boolean samePair(Pair a, Pair b) {
+    return a.getKey().equals(b.getKey()) && a.getValue().equals(b.getValue());
+  }
+
+  /**
+   * This method gives the pair an entry of the pair view stands for.
+   *
+   * @param entry an entry of the pair view.
+   * @return the pair.
+   */
+  private Pair pair(long entry) {
+    return jsonObject.get((int) entry);
+  }
+
+  /**
+   * This method gives the pairs of this object ordered by their hash
+   * codes. Each entry holds the hash code of a pair in its high half and
+   * the position of the pair in its low half. The view is cached together
+   * with the hash code of the object.
+   *
+   * <p>The view is sorted before it is stored in the volatile field, so a
+   * thread that finds it sees it whole, as for the hash code.
+   *
+   * @return the pair view.
+   */
+  private long[] pairView() {
+    long[] entries = view;
+    if (entries == null) {
+      hashCode();
+      entries = new long[jsonObject.size()];
+      for (int idx = 0; idx < entries.length; idx++) {
+        entries[idx] = ((long) pairHash(jsonObject.get(idx)) << 32) | idx;
+      }
+      Arrays.sort(entries);
+      view = entries;
+    }
+    return entries;
+  }
 
   /**
    * Overriding hashcode method has as well to work
    * properly with Hashing.
    *
+   * <p>As the order of the pairs does not matter for equals, the hash
+   * code is the sum of the mixed hash codes of the pairs. It is cached
+   * until the object or a container below it changes.
+   *
+   * <p>The cached code is kept in the low half of a volatile long, with
+   * HASHED set in the high half, so that a code of 0 is cached as well and
+   * a thread never sees the code without the mark or the other way round.
+   * Threads that hash the object at the same time each work the code out
+   * and store the same value.
    *
    * @return An int denoting the hashcode.
    */
   @Override
   public int hashCode() {
-    // Create a frequency map.
-    Map<String, Map<JsonNode, Integer>> countMap = countKeyValueFreq(this.jsonObject);
-    return countMap.hashCode();
+    long h = hash;
+    if (h == 0) {
+      int sum = 0;
+      for (Pair pair : jsonObject) {
+        sum += pairHash(pair);
+      }
+      h = HASHED | (sum & 0xFFFFFFFFL);
+      hash = h;
+    }
+    return (int) h;
   }
 
+  /**
+   * This method gives the hash code of a pair. Its bits are mixed, so
+   * that the sum of the hash codes of different pairs rarely collides.
+   *
+   * @param pair the pair.
+   * @return the hash code of the pair.
+   */
+  static int pairHash(Pair pair) {
+    int h = pair.getKey().hashCode() * 31 + pair.getValue().hashCode();
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
 
   /**
-   * This is a private method that stores the key and their value anf its frequency
-   * in a HashMap and return the computed map.
+   * This method records a container this object has been added to.
+   *
+   * <p>The containers are held through weak references, so that this
+   * object does not keep alive the containers it was once added to. The
+   * references the collector has cleared are dropped each time the list
+   * of the other containers reaches a power of two, and when a change is
+   * passed on, see contentChanged. Adding this object to the same
+   * container again is only recorded once in a row.
    *
-   * @param jsonObj The Json Object List< Pair > on which counting is to be done.
-   * @return a Map< String, Map< JsonNode, Integer>> that contains the count
-   *          of each value for a key.
+   * @param container the JsonObject or JsonArray this object was added to.
    */
-  private Map<String, Map<JsonNode, Integer>> countKeyValueFreq(List<Pair> jsonObj) {
-    // Create a frequency map for consistent hashing
-    Map<String, Map<JsonNode, Integer>> countMap = new HashMap<>();
-    for (Pair pair : jsonObj) {
-      String key = pair.getKey();
-      JsonNode value = pair.getValue();
+  @Override
+  void addedTo(JsonNode container) {
+    JsonNode first = parent == null ? null : parent.get();
+    if (first == null) {
+      parent = new WeakReference<>(container);
+      return;
+    }
+    if (first == container) {
+      return;
+    }
+    if (parents == null) {
+      parents = new ArrayList<>();
+    } else if (parents.get(parents.size() - 1).get() == container) {
+      return;
+    } else if (Integer.bitCount(parents.size()) == 1) {
+      parents.removeIf(ref -> ref.get() == null);
+    }
+    parents.add(new WeakReference<>(container));
+  }
 
-      if (countMap.containsKey(key)) {
-        Map<JsonNode, Integer> innerMap = countMap.get(key);
-        if (innerMap.containsKey(value)) {
-          innerMap.compute(value, (v, count) -> count + 1);
+  /**
+   * This method drops the cached hash code and pretty text of this object
+   * and of the containers it is in. A container only caches its hash code
+   * once its children have theirs, and every container below a cached text
+   * has been marked as printed, so there is nothing to drop above an
+   * object that has neither. The containers that are no longer used are
+   * left out, and their references dropped.
+   */
+  @Override
+  void contentChanged() {
+    if (hash == 0 && !printed) {
+      return;
+    }
+    hash = 0;
+    view = null;
+    printed = false;
+    pretty = null;
+    if (parent != null) {
+      JsonNode container = parent.get();
+      if (container == null) {
+        parent = null;
+      } else {
+        container.contentChanged();
+      }
+    }
+    if (parents != null) {
+      for (Iterator<WeakReference<JsonNode>> it = parents.iterator(); it.hasNext();) {
+        JsonNode container = it.next().get();
+        if (container == null) {
+          it.remove();
         } else {
-          innerMap.put(value, 1);
+          container.contentChanged();
         }
-      } else {
-        Map<JsonNode, Integer> innerMap = new HashMap<>();
-        innerMap.put(value, 1);
-        countMap.put(key, innerMap);
+      }
+    }
+    if (parents != null && parents.isEmpty()) {
+      parents = null;
+    }
+  }
+
+  /**
+   * This is a class that holds the hash table over the pairs of an object.
+   * The table is built whole by the constructor, see the class comment of
+   * JsonObject.
+   */
+  private static final class Index {
+    private final int[] slots;
+    private final int[] tails;
+    private final int[] next;
+
+    /**
+     * This is the constructor for the Index class, which indexes all the
+     * pairs.
+     *
+     * @param pairs the pairs of the object.
+     */
+    Index(List<Pair> pairs) {
+      int capacity = Integer.highestOneBit(pairs.size() * 4 - 1);
+      this.slots = new int[capacity];
+      this.tails = new int[capacity];
+      this.next = new int[capacity / 2];
+      for (int idx = 0; idx < pairs.size(); idx++) {
+        add(pairs, idx);
       }
     }
 
-    return countMap;
+    /**
+     * This method finds the position of the first pair with a key.
+     *
+     * @param pairs the pairs of the object.
+     * @param key   The key to look up.
+     * @return the position in pairs, or -1 if there is none.
+     */
+    int first(List<Pair> pairs, String key) {
+      int mask = slots.length - 1;
+      for (int slot = spread(key.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+        int position = slots[slot] - 1;
+        if (pairs.get(position).getKey().equals(key)) {
+          return position;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * This method adds a pair to the table. The table is kept at most half
+     * full, so there is always a free slot to stop a probe.
+     *
+     * @param pairs    the pairs of the object.
+     * @param position the position of the pair in pairs.
+     * @return false if the table is full, and a larger one is needed.
+     */
+    boolean add(List<Pair> pairs, int position) {
+      if (position >= next.length) {
+        return false;
+      }
+      next[position] = -1;
+      String key = pairs.get(position).getKey();
+      int mask = slots.length - 1;
+      int slot = spread(key.hashCode()) & mask;
+      for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+        if (pairs.get(slots[slot] - 1).getKey().equals(key)) {
+          // A repeated key goes at the end of the chain of its key.
+          next[tails[slot]] = position;
+          tails[slot] = position;
+          return true;
+        }
+      }
+      slots[slot] = position + 1;
+      tails[slot] = position;
+      return true;
+    }
   }
 }
@@ -1,19 +1,28 @@
 package jsontree;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * This is a concrete class that represents a Json string.
  * It extends and fully implements JsonNode.
  *
- * <p>The string is stored in a String object jsonString which is
- * final and is set in the constructor.
+ * <p>The string is stored in jsonString, which is a String set in the
+ * constructor, or a Slice of the input for the strings built by a
+ * JsonTreeBuilder with lazy values. A Slice only keeps the input and the
+ * range of the value, so the value is not copied until it is asked for
+ * through value(). equals, hashCode and prettyPrint read the Slice as it
+ * is. detach() copies the value out, so the input can be dropped.
  *
  * <p>We have implemented a getter for this class as more other classes
  * might need access to the value of class attribute jsonString.
- * String is immutable so it doesn't cause any issues anyway.
+ * String is immutable so it doesn't cause any issues anyway. A Slice is
+ * replaced by its String at once, so a JsonString can still be shared
+ * between threads as long as the input does not change.
  */
 public final class JsonString extends JsonNode {
-  private final String jsonString;
+  private CharSequence jsonString;
+  private int hash;
 
   /**
    * This is a constructor for JsonString class to
@@ -27,18 +36,100 @@ public final class JsonString extends JsonNode {
   }
 
   /**
-   * This method gets the string the class attribute
-   * is storing.
+   * This is a constructor for JsonString class that refers to a range
+   * of character input.
+   *
+   * @param source the input characters, which must not change.
+   * @param start  index of the first character of the value.
+   * @param end    index after the last character of the value.
+   */
+  JsonString(CharSequence source, int start, int end) {
+    this.jsonString = new Slice(source, null, start, end);
+  }
+
+  /**
+   * This is a constructor for JsonString class that refers to a range
+   * of printable ASCII bytes.
+   *
+   * @param source the buffer holding the bytes, which must not change.
+   * @param start  index of the first byte of the value.
+   * @param end    index after the last byte of the value.
+   */
+  JsonString(ByteBuffer source, int start, int end) {
+    this.jsonString = new Slice(null, source, start, end);
+  }
+
+  /**
+   * This method gets the string the class attribute is storing. A value
+   * that still refers to the input is copied out of it first, see detach.
+   *
    * @return the jsonString class attribute.
    */
+  public String value() {
+    CharSequence value = jsonString;
+    if (value instanceof Slice) {
+      String copy = value.toString();
+      jsonString = copy;
+      return copy;
+    }
+    return (String) value;
+  }
+
+  /**
+   * This method copies the value out of the input it refers to, if any,
+   * so that the input is no longer held by this node.
+   *
+   * @return this node.
+   */
+  @Override
+  public JsonString detach() {
+    value();
+    return this;
+  }
+
+  /**
+   * This method tells if the value still refers to the input.
+   *
+   * @return true if the value has not been copied yet.
+   */
+  boolean isSlice() {
+    return jsonString instanceof Slice;
+  }
+
+  /**
+   * This method gives the string in quotes.
+   * @return the quoted jsonString class attribute.
+   */
   public String prettyPrint() {
-    return "\"" + jsonString + "\"";
+    CharSequence value = jsonString;
+    if (value instanceof Slice) {
+      return new StringBuilder(value.length() + 2).append('"').append(value).append('"').toString();
+    }
+    return "\"" + value + "\"";
+  }
+
+  @Override
+  boolean isScalar() {
+    return true;
+  }
+
+  /**
+   * This method gives the characters of the value without copying
+   * them out of the input, for PrettyWriter.
+   *
+   * @return the value or the Slice of the input holding it.
+   */
+  CharSequence chars() {
+    return jsonString;
   }
 
 
   /**
    * This method overrides the default equals method of object Class.
    *
+   * <p>Values that refer to the input are compared character by
+   * character, after their lengths and hash codes.
+   *
    * @param o Takes in the object to be compared with.
    * @return a boolean value indicating the sameness.
    */
@@ -54,18 +145,96 @@ public final class JsonString extends JsonNode {
     }
 
     JsonString other = (JsonString) o;
+    CharSequence mine = this.jsonString;
+    CharSequence theirs = other.jsonString;
+    if (!(mine instanceof Slice) && !(theirs instanceof Slice)) {
+      return mine.equals(theirs);
+    }
 
-    return this.jsonString.equals(other.jsonString);
+    if (mine.length() != theirs.length() || this.hashCode() != other.hashCode()) {
+      return false;
+    }
+    for (int idx = 0; idx < mine.length(); idx++) {
+      if (mine.charAt(idx) != theirs.charAt(idx)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
    * Hashcode method has to be replaced as well to work
    * properly with Hashing.
    *
+   * <p>It is the hash code of the String value. For a value that refers
+   * to the input it is worked out from the input and kept.
+   *
    * @return An int denoting the hashcode.
    */
   @Override
   public int hashCode() {
-    return jsonString.hashCode();
+    CharSequence value = jsonString;
+    if (!(value instanceof Slice)) {
+      return value.hashCode();
+    }
+    int h = hash;
+    if (h == 0) {
+      for (int idx = 0; idx < value.length(); idx++) {
+        h = 31 * h + value.charAt(idx);
+      }
+      hash = h;
+    }
+    return h;
+  }
+
+  /**
+   * This is a class that represents a range of the input, either
+   * characters or printable ASCII bytes, as a CharSequence.
+   */
+  private static final class Slice implements CharSequence {
+    private final CharSequence chars;
+    private final ByteBuffer bytes;
+    private final int start;
+    private final int end;
+
+    /**
+     * This is the constructor for the Slice class.
+     *
+     * @param chars the input characters, or null for bytes.
+     * @param bytes the input bytes, or null for characters.
+     * @param start index of the first character or byte.
+     * @param end   index after the last character or byte.
+     */
+    Slice(CharSequence chars, ByteBuffer bytes, int start, int end) {
+      this.chars = chars;
+      this.bytes = bytes;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return chars != null ? chars.charAt(start + index) : (char) bytes.get(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      return toString().substring(from, to);
+    }
+
+    @Override
+    public String toString() {
+      if (chars != null) {
+        return new StringBuilder(length()).append(chars, start, end).toString();
+      }
+      byte[] copy = new byte[length()];
+      bytes.duplicate().position(start).get(copy);
+      return new String(copy, StandardCharsets.ISO_8859_1);
+    }
   }
 }
@@ -0,0 +1,418 @@
+package jsontree;
+
+/**
+ * This is a class that represents a whole json document as a tape, the
+ * compact alternative to a tree of JsonNode built by JsonTapeBuilder.
+ *
+ * <p>The document is one long[] of entries and one char[] pool holding the
+ * characters of all the keys and values, one after the other. Each entry
+ * has a tag in its top 4 bits, a 28-bit field and a 32-bit field:
+ *
+ * <ul>
+ *   <li>OBJECT and ARRAY open a container. The 28-bit field holds the
+ *   number of pairs or elements, and the 32-bit field the index of the
+ *   entry after the matching END, so a container is skipped in one step.
+ *   <li>END closes a container, and holds the index of its OBJECT or ARRAY
+ *   entry in the 32-bit field.
+ *   <li>KEY and STRING hold the length of a key or value string in the
+ *   28-bit field and its offset in the pool in the 32-bit field.
+ *   <li>NUMBER holds the scale of a number in the 32-bit field, and is
+ *   followed by a second entry that is the whole unscaled long, see
+ *   JsonNumber. BIG_NUMBER holds a number that does not fit, as text in
+ *   the pool like STRING.
+ *   <li>TRUE, FALSE and NULL stand for the literals, and hold nothing else.
+ * </ul>
+ *
+ * <p>An object is its OBJECT entry, a KEY entry followed by the entries of
+ * the value for every pair, and its END entry. An array is the same
+ * without the KEY entries. The root object starts at index 0.
+ *
+ * <p>A string value costs 8 bytes of tape and its characters, where a
+ * tree needs a Pair, a JsonString and a String for it, and the entries
+ * of a container are read in order from a single array. The tape is
+ * read through Cursor, and toJsonNode converts it to a tree.
+ *
+ * <p>A tape is never changed once built, so it can be shared between
+ * threads.
+ */
+public final class JsonTape {
+  static final long OBJECT = 1;
+  static final long ARRAY = 2;
+  static final long END = 3;
+  static final long KEY = 4;
+  static final long STRING = 5;
+  static final long NUMBER = 6;
+  static final long BIG_NUMBER = 7;
+  static final long TRUE = 8;
+  static final long FALSE = 9;
+  static final long NULL = 10;
+
+  /**
+   * The largest count or string length an entry can hold.
+   */
+  static final int MAX_FIELD = (1 << 28) - 1;
+
+  private final long[] tape;
+  private final char[] pool;
+
+  /**
+   * This is the constructor for the JsonTape class.
+   *
+   * @param tape the entries.
+   * @param pool the characters of the keys and values.
+   */
+  JsonTape(long[] tape, char[] pool) {
+    this.tape = tape;
+    this.pool = pool;
+  }
+
+  /**
+   * This method packs an entry.
+   *
+   * @param tag   the tag.
+   * @param field the count or length, at most MAX_FIELD.
+   * @param index the index or offset.
+   * @return the entry.
+   */
+  static long entry(long tag, int field, int index) {
+    return (tag << 60) | ((long) field << 32) | (index & 0xFFFFFFFFL);
+  }
+
+  /**
+   * This method gives a cursor on the root object.
+   *
+   * @return the cursor.
+   */
+  public Cursor root() {
+    return new Cursor(this, 0);
+  }
+
+  /**
+   * This method converts the whole document to a tree.
+   *
+   * @return the root JsonObject.
+   */
+  public JsonNode toJsonNode() {
+    return root().toJsonNode();
+  }
+
+  /**
+   * This method gives the size of the tape and of the pool.
+   *
+   * @return the number of bytes held by the two arrays.
+   */
+  public long sizeInBytes() {
+    return tape.length * 8L + pool.length * 2L;
+  }
+
+  /**
+   * This is a class that points at a value of a JsonTape, which is an
+   * object, an array, a string, a number or a literal.
+   *
+   * <p>A cursor only holds the tape and an index, and never copies
+   * anything out of the tape unless asked to. Moving gives a new cursor,
+   * and methods that find no value give null.
+   */
+  public static final class Cursor {
+    private final JsonTape document;
+    private final int index;
+
+    /**
+     * This is the constructor for the Cursor class.
+     *
+     * @param document the tape.
+     * @param index    the index of the first entry of the value.
+     */
+    private Cursor(JsonTape document, int index) {
+      this.document = document;
+      this.index = index;
+    }
+
+    /**
+     * This method tells if the value is an object.
+     *
+     * @return true for an object.
+     */
+    public boolean isObject() {
+      return tag(index) == OBJECT;
+    }
+
+    /**
+     * This method tells if the value is an array.
+     *
+     * @return true for an array.
+     */
+    public boolean isArray() {
+      return tag(index) == ARRAY;
+    }
+
+    /**
+     * This method tells if the value is a string.
+     *
+     * @return true for a string.
+     */
+    public boolean isString() {
+      return tag(index) == STRING;
+    }
+
+    /**
+     * This method tells if the value is a number.
+     *
+     * @return true for a number.
+     */
+    public boolean isNumber() {
+      long tag = tag(index);
+      return tag == NUMBER || tag == BIG_NUMBER;
+    }
+
+    /**
+     * This method tells if the value is true or false.
+     *
+     * @return true for a boolean.
+     */
+    public boolean isBoolean() {
+      long tag = tag(index);
+      return tag == TRUE || tag == FALSE;
+    }
+
+    /**
+     * This method tells if the value is null.
+     *
+     * @return true for null.
+     */
+    public boolean isNull() {
+      return tag(index) == NULL;
+    }
+
+    /**
+     * This method gives the number of pairs of an object, the number of
+     * elements of an array or the length of a string.
+     *
+     * @return the size of the value, or 0 for numbers and literals.
+     */
+    public int size() {
+      return isObject() || isArray() || isString() ? field(index) : 0;
+    }
+
+    /**
+     * This method gives the text of a string value.
+     *
+     * @return a new String, or null if the value is not a string.
+     */
+    public String stringValue() {
+      return isString() ? text(index) : null;
+    }
+
+    /**
+     * This method gives a number value. A number that fits is read from
+     * the tape as it is, without going through any text.
+     *
+     * @return a new JsonNumber, or null if the value is not a number.
+     */
+    public JsonNumber numberValue() {
+      long tag = tag(index);
+      if (tag == NUMBER) {
+        return new JsonNumber(document.tape[index + 1], (int) document.tape[index]);
+      }
+      return tag == BIG_NUMBER ? new JsonNumber(text(index)) : null;
+    }
+
+    /**
+     * This method gives a boolean value.
+     *
+     * @return true for true, false for anything else.
+     */
+    public boolean booleanValue() {
+      return tag(index) == TRUE;
+    }
+
+    /**
+     * This method gives the key of the pair this value belongs to.
+     *
+     * @return the key, or null if the value is not in an object.
+     */
+    public String key() {
+      return index > 0 && tag(index - 1) == KEY ? text(index - 1) : null;
+    }
+
+    /**
+     * This method gives the first pair value of an object or the first
+     * element of an array.
+     *
+     * @return the cursor, or null if the value is not a container.
+     */
+    public Cursor first() {
+      if (!isObject() && !isArray()) {
+        return null;
+      }
+      return at(index + 1);
+    }
+
+    /**
+     * This method gives the value that follows this one in its container.
+     *
+     * @return the cursor, or null after the last value.
+     */
+    public Cursor next() {
+      if (index == 0) {
+        return null;
+      }
+      return at(after(index));
+    }
+
+    /**
+     * This method gives the value of the first pair of an object with the
+     * given key. The keys are compared in the pool, without making any
+     * String, and the values in between are skipped in one step each.
+     *
+     * @param key the key to look up.
+     * @return the cursor, or null if the key is not there or the value is
+     *         not an object.
+     */
+    public Cursor get(String key) {
+      if (!isObject()) {
+        return null;
+      }
+      int entry = index + 1;
+      while (tag(entry) == KEY) {
+        if (textEquals(entry, key)) {
+          return new Cursor(document, entry + 1);
+        }
+        entry = after(entry + 1);
+      }
+      return null;
+    }
+
+    /**
+     * This method gives an element of an array.
+     *
+     * @param position the position of the element.
+     * @return the cursor, or null if there is no such element or the
+     *         value is not an array.
+     */
+    public Cursor get(int position) {
+      if (!isArray() || position < 0 || position >= size()) {
+        return null;
+      }
+      Cursor element = first();
+      for (int idx = 0; idx < position; idx++) {
+        element = element.next();
+      }
+      return element;
+    }
+
+    /**
+     * This method converts the value to a JsonNode, together with
+     * everything below it.
+     *
+     * @return the root of the new tree.
+     */
+    public JsonNode toJsonNode() {
+      long tag = tag(index);
+      if (tag == STRING) {
+        return new JsonString(text(index));
+      }
+      if (tag == NUMBER || tag == BIG_NUMBER) {
+        return numberValue();
+      }
+      if (tag == TRUE || tag == FALSE) {
+        return JsonBoolean.valueOf(tag == TRUE);
+      }
+      if (tag == NULL) {
+        return JsonNull.INSTANCE;
+      }
+      if (isArray()) {
+        IJsonArray array = new JsonArray();
+        for (Cursor element = first(); element != null; element = element.next()) {
+          array.add(element.toJsonNode());
+        }
+        return array;
+      }
+      IJsonObject object = new JsonObject();
+      for (Cursor value = first(); value != null; value = value.next()) {
+        object.add(value.key(), value.toJsonNode());
+      }
+      return object;
+    }
+
+    /**
+     * This method gives the value starting at an entry, skipping a key.
+     *
+     * @param entry the index of the entry.
+     * @return the cursor, or null if the entry closes the container.
+     */
+    private Cursor at(int entry) {
+      long tag = tag(entry);
+      if (tag == END) {
+        return null;
+      }
+      return new Cursor(document, tag == KEY ? entry + 1 : entry);
+    }
+
+    /**
+     * This method gives the index after a value, skipping a container
+     * in one step.
+     *
+     * @param entry the index of the first entry of the value.
+     * @return the index of the entry after it.
+     */
+    private int after(int entry) {
+      long tag = tag(entry);
+      if (tag == OBJECT || tag == ARRAY) {
+        return (int) document.tape[entry];
+      }
+      return tag == NUMBER ? entry + 2 : entry + 1;
+    }
+
+    /**
+     * This method gives the tag of an entry.
+     *
+     * @param entry the index of the entry.
+     * @return the tag.
+     */
+    private long tag(int entry) {
+      return document.tape[entry] >>> 60;
+    }
+
+    /**
+     * This method gives the 28-bit field of an entry.
+     *
+     * @param entry the index of the entry.
+     * @return the count or length.
+     */
+    private int field(int entry) {
+      return (int) (document.tape[entry] >>> 32) & MAX_FIELD;
+    }
+
+    /**
+     * This method copies the text of a KEY, STRING or BIG_NUMBER entry.
+     *
+     * @param entry the index of the entry.
+     * @return the text.
+     */
+    private String text(int entry) {
+      return new String(document.pool, (int) document.tape[entry], field(entry));
+    }
+
+    /**
+     * This method compares the text of a KEY or STRING entry.
+     *
+     * @param entry the index of the entry.
+     * @param text  the text to compare with.
+     * @return true if they are the same.
+     */
+    private boolean textEquals(int entry, String text) {
+      int length = field(entry);
+      if (length != text.length()) {
+        return false;
+      }
+      int offset = (int) document.tape[entry];
+      for (int idx = 0; idx < length; idx++) {
+        if (document.pool[offset + idx] != text.charAt(idx)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package jsontree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import parser.AbstractJsonParser;
+import parser.InvalidJsonException;
+import parser.Status;
+
+/**
+ * This is a class that extends AbstractJsonParser as
+ * AbstractJsonParser\< JsonTape \>. It builds the tape of the input
+ * JSON data, see JsonTape, instead of a tree.
+ *
+ * <p>The entries are appended to a long[] and the keys and values to a
+ * char[] pool as the state machine in AbstractJsonParser reports them.
+ * The index of the entry opening each container is kept on a stack, and
+ * is filled in with the count and the jump once the container closes.
+ *
+ * <p>The output function returns the JsonTape if parsing is complete and
+ * valid, and null if parsing is incomplete or invalid.
+ */
+public class JsonTapeBuilder extends AbstractJsonParser<JsonTape> {
+  private long[] tape;
+  private int length;
+  private char[] pool;
+  private int poolLength;
+  private int[] opens;
+  private int[] counts;
+  private int depth;
+  private JsonTape document;
+
+  /**
+   * This is a constructor for the JsonTapeBuilder class.
+   * It initializes the tape, the pool, the stack of open containers and
+   * the capture buffer.
+   */
+  public JsonTapeBuilder() {
+    super();
+    this.tape = new long[64];
+    this.length = 0;
+    this.pool = new char[256];
+    this.poolLength = 0;
+    this.opens = new int[16];
+    this.counts = new int[16];
+    this.depth = 0;
+    this.document = null;
+    this.capture = new StringBuilder();
+  }
+
+  /**
+   * This method builds the tape of a UTF-8 json file, see
+   * AbstractJsonParser.input(Path).
+   *
+   * @param path the file to be parsed.
+   * @return the JsonTape if the file is complete, null otherwise.
+   * @throws InvalidJsonException if the file is invalid json.
+   * @throws IOException if the file cannot be read.
+   */
+  public static JsonTape parse(Path path) throws InvalidJsonException, IOException {
+    return new JsonTapeBuilder().input(path).output();
+  }
+
+  /**
+   * This method brings the builder back to the Empty state, see
+   * AbstractJsonParser.reset(). The arrays are kept, and a tape that has
+   * been handed out by output() is left untouched.
+   *
+   * @return the current object
+   */
+  @Override
+  public JsonTapeBuilder reset() {
+    super.reset();
+    this.length = 0;
+    this.poolLength = 0;
+    this.depth = 0;
+    this.document = null;
+    return this;
+  }
+
+  /**
+   * This method gives the tape if parsing is complete and valid. The
+   * tape is copied out of the builder on the first call.
+   *
+   * @return the JsonTape if valid, null otherwise.
+   */
+  @Override
+  public JsonTape output() {
+    if (status() != Status.VALID) {
+      return null;
+    }
+    if (document == null) {
+      document = new JsonTape(Arrays.copyOf(tape, length), Arrays.copyOf(pool, poolLength));
+    }
+    return document;
+  }
+
+  /**
+   * This method appends the entry opening an object.
+   */
+  @Override
+  protected void objectOpened() {
+    open(JsonTape.OBJECT);
+  }
+
+  /**
+   * This method appends the entry closing an object.
+   */
+  @Override
+  protected void objectClosed() {
+    close();
+  }
+
+  /**
+   * This method appends the entry opening an array.
+   */
+  @Override
+  protected void arrayOpened() {
+    open(JsonTape.ARRAY);
+  }
+
+  /**
+   * This method appends the entry closing an array.
+   */
+  @Override
+  protected void arrayClosed() {
+    close();
+  }
+
+  /**
+   * This method appends the key that has been read.
+   */
+  @Override
+  protected void keyRead() {
+    append(text(JsonTape.KEY));
+  }
+
+  /**
+   * This method appends the value string that has been read.
+   */
+  @Override
+  protected void valueRead() {
+    append(text(JsonTape.STRING));
+    counted();
+  }
+
+  /**
+   * This method appends a number that fits, as a NUMBER entry with the
+   * scale followed by the unscaled value.
+   *
+   * @param unscaled the digits of the number, with its sign.
+   * @param scale    the number of digits after the decimal point.
+   */
+  @Override
+  protected void numberRead(long unscaled, int scale) {
+    append(JsonTape.entry(JsonTape.NUMBER, 0, scale));
+    append(unscaled);
+    counted();
+  }
+
+  /**
+   * This method appends a number that does not fit, from its text
+   * in capture.
+   */
+  @Override
+  protected void numberRead() {
+    append(text(JsonTape.BIG_NUMBER));
+    counted();
+  }
+
+  /**
+   * This method appends true or false.
+   *
+   * @param value the value of the literal.
+   */
+  @Override
+  protected void booleanRead(boolean value) {
+    append((value ? JsonTape.TRUE : JsonTape.FALSE) << 60);
+    counted();
+  }
+
+  /**
+   * This method appends null.
+   */
+  @Override
+  protected void nullRead() {
+    append(JsonTape.NULL << 60);
+    counted();
+  }
+
+  /**
+   * This method opens a container. Its entry is completed by close().
+   *
+   * @param tag OBJECT or ARRAY.
+   */
+  private void open(long tag) {
+    if (depth == opens.length) {
+      opens = Arrays.copyOf(opens, depth * 2);
+      counts = Arrays.copyOf(counts, depth * 2);
+    }
+    opens[depth] = length;
+    counts[depth] = 0;
+    depth++;
+    append(tag << 60);
+  }
+
+  /**
+   * This method closes the innermost container.
+   */
+  private void close() {
+    depth--;
+    int start = opens[depth];
+    tape[start] = JsonTape.entry(tape[start] >>> 60, checked(counts[depth]), length + 1);
+    append(JsonTape.entry(JsonTape.END, 0, start));
+    counted();
+  }
+
+  /**
+   * This method counts a value in the innermost container, if any.
+   */
+  private void counted() {
+    if (depth > 0) {
+      counts[depth - 1]++;
+    }
+  }
+
+  /**
+   * This method copies the captured text into the pool.
+   *
+   * @param tag KEY, STRING or BIG_NUMBER.
+   * @return the entry for the text.
+   */
+  private long text(long tag) {
+    int size = checked(capture.length());
+    if (pool.length - poolLength < size) {
+      pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolLength + size));
+    }
+    capture.getChars(0, size, pool, poolLength);
+    long entry = JsonTape.entry(tag, size, poolLength);
+    poolLength += size;
+    return entry;
+  }
+
+  /**
+   * This method appends an entry to the tape.
+   *
+   * @param entry the entry.
+   */
+  private void append(long entry) {
+    if (length == tape.length) {
+      tape = Arrays.copyOf(tape, length * 2);
+    }
+    tape[length++] = entry;
+  }
+
+  /**
+   * This method checks that a count or length fits in an entry.
+   *
+   * @param value the count or length.
+   * @return the value.
+   * @throws IllegalStateException if it is over JsonTape.MAX_FIELD.
+   */
+  private static int checked(int value) {
+    if (value > JsonTape.MAX_FIELD) {
+      throw new IllegalStateException("Too large for a tape entry: " + value);
+    }
+    return value;
+  }
+}
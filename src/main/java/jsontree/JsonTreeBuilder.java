@@ -1,8 +1,13 @@
 package jsontree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Stack;
 
 import parser.AbstractJsonParser;
+import parser.InvalidJsonException;
+import parser.Status;
 
 
 /**
@@ -10,41 +15,109 @@ import parser.AbstractJsonParser;
  * It builds a tree representation of the input JSON data.
  *
  * <p>We have a JsonNode representing the root of the JsonNode object,
- * and 'json' as a string that stores the characters that have been sent
- * into the input method.
+ * and the 'capture' buffer that holds the key or value string currently
+ * being read from the input method.
  *
- * <p>The json String can be in one of the 4 status i.e. "Empty", "Valid",
- * "Incomplete", "Invalid".
- *
- * <p>This class implements the input() method in a way that the input is taken
- * character by character and the function returns the same object after
- * validation.
+ * <p>The input is not kept as a String. It is run through the state
+ * machine of AbstractJsonParser, whose states come from the table in
+ * TransitionTable, as single characters, character sequences or UTF-8
+ * bytes. The status of what has been sent in so far is one of the 4 of
+ * Status i.e. Empty, Valid, Incomplete, Invalid, see status(). The tree is
+ * built as the state machine reports the objects, arrays, keys and values
+ * it reads.
  *
  * <p>The output function just returns the root JsonNode of the parsed tree
  * if parsing is complete and valid, and null if parsing is incomplete or invalid.
  *
+ * <p>Numbers, true, false and null are added as JsonNumber, JsonBoolean
+ * and JsonNull. Numbers are read straight from their digits, see
+ * AbstractJsonParser.numberRead(long, int).
+ *
+ * <p>A builder may be given a KeyDictionary, in which case the keys of the
+ * trees it builds are the canonical Strings kept there.
+ *
+ * <p>Arrays are built with their strings packed, see PackedStrings, and
+ * the values read into them are copied there straight from capture or
+ * from the input. Arrays holding anything but strings are unpacked as
+ * soon as the first other node is added.
+ *
+ * <p>A builder with lazy values does not copy the values it can read
+ * straight from the input, see AbstractJsonParser.slices. Their JsonString
+ * nodes refer to the input until they are read or detached, so the input
+ * must not change until then, and is kept in memory as long as any of
+ * them refers to it. JsonNode.detach releases it for a whole tree.
+ *
  */
 public class JsonTreeBuilder extends AbstractJsonParser<JsonNode> {
   private JsonNode root;
   private Stack<JsonNode> nodes;
   private Stack<String> keyStack;
-  private int valueStartIndex; // Track start of current value
-  private int keyStartIndex;   // Track start of current key
-
+  private final KeyDictionary keys;
 
   /**
    * This is a constructor for the JsonTreeBuilder class.
-   * It initializes the root attribute with a JsonObject object.
-   * json attribute to empty string and the 'currentStatus'  as 'Empty'
-   * and the other private variables.
+   * It initializes the root attribute with a JsonObject object,
+   * the stacks used while building and the capture buffer.
    */
   public JsonTreeBuilder() {
+    this(null);
+  }
+
+  /**
+   * This is a constructor for the JsonTreeBuilder class that looks the
+   * keys up in a KeyDictionary, which may be shared with other builders.
+   *
+   * @param keys the dictionary to be used, or null for none.
+   */
+  public JsonTreeBuilder(KeyDictionary keys) {
+    this(keys, false);
+  }
+
+  /**
+   * This is a constructor for the JsonTreeBuilder class that may keep
+   * the values as ranges of the input instead of copying them.
+   *
+   * @param keys       the dictionary to be used, or null for none.
+   * @param lazyValues whether values are to refer to the input.
+   */
+  public JsonTreeBuilder(KeyDictionary keys, boolean lazyValues) {
     super();
     this.root = new JsonObject();
     this.nodes = new Stack<>();
     this.keyStack = new Stack<>();
-    this.valueStartIndex = -1;
-    this.keyStartIndex = -1;
+    this.capture = new StringBuilder();
+    this.keys = keys;
+    this.slices = lazyValues;
+  }
+
+  /**
+   * This method builds the tree of a UTF-8 json file. The file is
+   * memory-mapped, see AbstractJsonParser.input(Path), and only the
+   * keys and values are copied out of it.
+   *
+   * @param path the file to be parsed.
+   * @return the root JsonNode if the file is complete, null otherwise.
+   * @throws InvalidJsonException if the file is invalid json.
+   * @throws IOException if the file cannot be read.
+   */
+  public static JsonNode parse(Path path) throws InvalidJsonException, IOException {
+    return new JsonTreeBuilder().input(path).output();
+  }
+
+  /**
+   * This method brings the builder back to the Empty state, see
+   * AbstractJsonParser.reset(). The stacks are emptied but kept, and a
+   * tree that has been handed out by output() is left untouched.
+   *
+   * @return the current object
+   */
+  @Override
+  public JsonTreeBuilder reset() {
+    super.reset();
+    this.root = new JsonObject();
+    this.nodes.clear();
+    this.keyStack.clear();
+    return this;
   }
 
   /**
@@ -56,319 +129,178 @@ public class JsonTreeBuilder extends AbstractJsonParser<JsonNode> {
    */
   @Override
   public JsonNode output() {
-    if (this.currentStatus.equals(status[1])) {
-      buildTree();
+    if (status() == Status.VALID) {
       return this.root;
     }
     return null;
   }
 
   /**
-   * This method constructs the final JSON tree by processing the stack of nodes
-   * along with the keyStack.
-   *
-   * <p>Iteratively pops nodes from the stack and adds them to their parent nodes.
-   * For array parents, adds the value directly to the array. For object parents,
-   * pairs the value with a key from keyStack
-   * This is repeated until only the root node remains.
+   * This method pushes a new JsonObject in the nodes stack
+   * to be filled until its closing brace.
    */
-  private void buildTree() {
-    while (nodes.size() > 1) {
-      buildObjects();
-    }
-    this.root = nodes.peek();
+  @Override
+  protected void objectOpened() {
+    nodes.push(new JsonObject());
   }
 
   /**
    * This method handles a closing brace '}'.
-   *
-   * <p>Gather key-value pair or the object and add to the next
-   * node in the nodes stack depending on it being a
-   * JsonArray instance or a JsonObject Instance.
+   * The object on top of the nodes stack is complete and is
+   * added to its parent.
    */
-  private void buildObjects() {
-    JsonNode value = nodes.pop();
-    JsonNode parent = nodes.peek();
-    if (parent instanceof JsonArray) {
-      ((IJsonArray) parent).add(value);
-    } else if (!keyStack.isEmpty()) {
-      String key = keyStack.pop();
-      ((IJsonObject) parent).add(key, value);
-    }
+  @Override
+  protected void objectClosed() {
+    addToJsonNode(nodes.pop());
   }
 
   /**
-   * This method handles a closing bracket ']'.
-   * Add the top node to the JsonObject parent
-   * that is next in the stack.
+   * This method pushes a new JsonArray in the nodes stack
+   * to be filled until its closing bracket.
    */
-  private void closeBracket() {
-    JsonNode array = nodes.pop();
-    JsonNode parent = nodes.peek();
-    if (!keyStack.isEmpty()) {
-      String key = keyStack.pop();
-      ((IJsonObject) parent).add(key, array);
-    }
+  @Override
+  protected void arrayOpened() {
+    nodes.push(JsonArray.packed());
   }
 
   /**
-   * This method adds a new JSON node to the tree being built
-   * in the nodes stack.
-   *
-   * <p>Handles different cases based on the current parent node,
-   * If stack is empty, pushes node as potential root. For array parents,
-   * adds node as next array element. For object parents, If key is available,
-   * it adds the node with the key and if no key, it pushes the node to stack
-   *
-   * @param node The JsonNode to be added to the nodes stack.
+   * This method handles a closing bracket ']'.
+   * The array on top of the nodes stack is complete, is trimmed and is
+   * added to its parent.
    */
-  private void addToJsonNode(JsonNode node) {
-    if (nodes.isEmpty()) {
-      nodes.push(node);
-      return;
-    }
-
-    JsonNode parent = nodes.peek();
-    // parent can either be an JsonArray or an JsonObject, but not a JsonString
-    if (parent instanceof JsonArray) {
-      ((IJsonArray) parent).add(node);
-    } else if (parent instanceof JsonObject) {
-      if (!keyStack.isEmpty()) {
-        String key = keyStack.pop();
-        ((IJsonObject) parent).add(key, node);
-      } else {
-        nodes.push(node);
-      }
-    }
+  @Override
+  protected void arrayClosed() {
+    JsonArray array = (JsonArray) nodes.pop();
+    array.trim();
+    addToJsonNode(array);
   }
 
   /**
-   * This method is the entry point to check if
-   * the current object is valid or not.
-   * If an array or a value is detected, the task is then
-   * delegated to the respective methods.
-   *
-   *
-   * @param c Takes in a character to add to the json available.
-   * @return Checks with the current json present and returns
-   *         "True" if valid, and "False" if invalid.
+   * This method stores the key that has been read until
+   * its value is complete. The key is taken from the dictionary, if any.
    */
   @Override
-  protected boolean isValidJson(char c) {
-    if (inValue) {
-      inValue = checkValue(c);
-      return true;
-    } else if (inKey) {
-      return isValidKey(c);
-    }
-    return checkValidity(c);
+  protected void keyRead() {
+    keyStack.push(keys == null ? capture.toString() : keys.intern(capture));
   }
 
   /**
-   * This method checks if the value string is ending.
-   *
-   * <p>It gets string value as a JsonString value to be stored in the
-   * root's hierarchy.
-   *
-   * @param c Takes in a character to add to the json available.
-   * @return Checks with the current json present and returns
-   *         "True" if value is ending, and "False" otherwise.
+   * This method gets the value string that has been read as a
+   * JsonString value to be stored in the root's hierarchy, or packs it
+   * into the array being built.
    */
-  private boolean checkValue(char c) {
-    // Get the value as JsonString
-    if (c == '\"') {
-      String str = json.substring(valueStartIndex + 1);
-      JsonString value = new JsonString(str);
-      addToJsonNode(value);
-      valueStartIndex = -1;
+  @Override
+  protected void valueRead() {
+    JsonArray array = innerArray();
+    if (array == null || !array.addPacked(capture, 0, capture.length())) {
+      addToJsonNode(new JsonString(capture.toString()));
     }
-    return c != '\"';
   }
 
   /**
-   * This method checks if the key is valid wrt
-   * the stored json.
+   * This method adds a value that is read straight from the character
+   * input, as a JsonString that refers to it.
    *
-   * <p>It gets the String key to be stored in the root's
-   * hierarchy.
-   *
-   * @param c Takes in a character to add to the json available.
-   * @return Checks with the current json present and returns
-   *         "True" if valid, and "False" if invalid.
+   * @param source the input characters.
+   * @param start  index of the first character of the value.
+   * @param end    index after the last character of the value.
    */
-  private boolean isValidKey(char c) {
-    if ((Character.isDigit(c) && json.charAt(json.length() - 1) != '\"')
-            || Character.isLetter(c)) {
-      return true;
-    } else if (c == '\"') {
-      String key = json.substring(keyStartIndex + 1, json.length());
-      keyStack.push(key);
-      keyStartIndex = -1; // Reset start index
-      inKey = false;
-      return true;
+  @Override
+  protected void valueRead(CharSequence source, int start, int end) {
+    JsonArray array = innerArray();
+    if (array == null || !array.addPacked(source, start, end)) {
+      addToJsonNode(new JsonString(source, start, end));
     }
-    return false;
   }
 
   /**
-   * A new object is allowed in an array only if the json
-   * string is empty or
-   * '{' is preceded by ':'.
+   * This method adds a value that is read straight from the byte input,
+   * as a JsonString that refers to it.
    *
-   * @return a boolean value indicating the validity of the opening brace.
+   * @param source the buffer holding the input bytes.
+   * @param start  index of the first byte of the value.
+   * @param end    index after the last byte of the value.
    */
   @Override
-  protected boolean checkBraceOpening() {
-    boolean flag = false;
-    if (!json.isEmpty()) {
-      char lastChar = json.charAt(json.length() - 1);
-      if (lastChar == '[' || lastChar == ',' || lastChar == ':') {
-        flag = true;
-      }
+  protected void valueRead(ByteBuffer source, int start, int end) {
+    JsonArray array = innerArray();
+    if (array == null || !array.addPacked(source, start, end)) {
+      addToJsonNode(new JsonString(source, start, end));
     }
-    if (flag || json.isEmpty()) {
-      allBrackets.push('{');
-      keyValueCount += 1;
-      countBraces += 1;
-      // Push a new JsonObject node in the nodes stack to use later.
-      nodes.push(new JsonObject());
-      return true;
-    }
-    return false;
   }
 
   /**
-   * An object is allowed to be closed if all '[' and '"' are closed.
-   * This is checked before entering switch case.
-   * Should be preceded by '"' or ']'.
+   * This method adds a number that fits in a long and an int scale.
    *
-   * @return a boolean value indicating the validity of the closing brace.
+   * @param unscaled the digits of the number, with its sign.
+   * @param scale    the number of digits after the decimal point.
    */
   @Override
-  protected boolean checkBraceClosing() {
-    if (!json.isEmpty()) {
-      char lastChar = json.charAt(json.length() - 1);
-      // Check if ':' is present before '}' and after '{'
-      if (!allBrackets.isEmpty() && allBrackets.peek() == '{'
-              && (lastChar == '{' || lastChar == ']' || lastChar == '}' || (lastChar == '\"'
-              && json.lastIndexOf(':') > json.lastIndexOf('{')))) {
-        allBrackets.pop();
-        if (nodes.size() > 1) {
-          buildObjects();
-        }
-        return true;
-      }
-    }
-    return false;
+  protected void numberRead(long unscaled, int scale) {
+    addToJsonNode(new JsonNumber(unscaled, scale));
   }
 
   /**
-   * A new array is allowed only if '[' is preceded by ':' or '[' or ','
-   * and it should be inside "{}".
-   *
-   * @return a boolean value indicating the validity of the opening bracket.
+   * This method adds a number that does not fit, from its text
+   * in capture.
    */
   @Override
-  protected boolean checkArrayOpening() {
-    if (!json.isEmpty()) {
-      char lastChar = json.charAt(json.length() - 1);
-      if (countBraces >= 1 && (lastChar == '[' || lastChar == ':'
-              || (lastChar == ',' && !allBrackets.isEmpty() && allBrackets.peek() == '['))) {
-        allBrackets.push('[');
-        // Push a new JsonArray node in the nodes stack to use later.
-        nodes.push(new JsonArray());
-        return true;
-      }
-    }
-    return false;
+  protected void numberRead() {
+    addToJsonNode(new JsonNumber(capture));
   }
 
   /**
-   * An array is allowed to be closed if all the elements inside are
-   * closed and separated properly.
+   * This method adds true or false.
    *
-   * @return a boolean value indicating the validity of the closing Bracket.
+   * @param value the value of the literal.
    */
   @Override
-  protected boolean checkArrayClosing() {
-    if (!json.isEmpty()) {
-      char lastChar = json.charAt(json.length() - 1);
-      if (!allBrackets.isEmpty() && allBrackets.peek() == '['
-              && (lastChar == '\"' || lastChar == ']' || lastChar == '}')) {
-        allBrackets.pop();
-        if (nodes.size() > 1) {
-          closeBracket();
-        }
-        return true;
-      }
-    }
-    return false;
+  protected void booleanRead(boolean value) {
+    addToJsonNode(JsonBoolean.valueOf(value));
   }
 
   /**
-   * A new string is allowed only if '"' is preceded by ':', ',', '['.
-   *
-   * <p>This method also checks if the current character goes in a key or
-   * a value.
-   * Adjusts the counters and index markers accordingly
-   *
-   * @return a boolean value indicating the validity of '\"'.
+   * This method adds null.
    */
   @Override
-  protected boolean checkStringEntries() {
-    if (!json.isEmpty()) {
-      char lastChar = json.charAt(json.length() - 1);
-      if (!allBrackets.isEmpty() && allBrackets.peek() == '{'
-              && keyCount < keyValueCount && lastChar != ':') {
-        keyCount += 1;
-        inKey = true;
-        keyStartIndex = json.length(); // Mark start of key
-        return true;
-      } else if (countBraces >= 1 && (lastChar == '['
-              || lastChar == ':' || lastChar == ',')) {
-        inValue = true;
-        valueStartIndex = json.length(); // Mark start of value
-        return true;
-      }
-    }
-    return false;
+  protected void nullRead() {
+    addToJsonNode(JsonNull.INSTANCE);
   }
 
   /**
-   * This method checks if the separation character is placed
-   * correctly at the current position.
+   * This method gives the container being built if it is an array.
    *
-   * @return a boolean value indicating the validity of the ',' separation.
+   * @return the JsonArray on top of the nodes stack, or null.
    */
-  @Override
-  protected boolean checkSeparation() {
-    if (!json.isEmpty()) {
-      char lastChar = json.charAt(json.length() - 1);
-      if (separatedCount == keyCount && (lastChar == '}'
-              || lastChar == ']' || lastChar == '\"')) {
-        if (!allBrackets.isEmpty() && allBrackets.peek() == '{') {
-          keyValueCount += 1;
-        }
-        return true;
-      }
+  private JsonArray innerArray() {
+    if (nodes.isEmpty() || !(nodes.peek() instanceof JsonArray)) {
+      return null;
     }
-    return false;
+    return (JsonArray) nodes.peek();
   }
 
   /**
-   * This method checks is the colons placed at the correct spot
-   * in the json.
-   * It should separate a key-value pair, if not in value string.
+   * This method adds a complete JSON node to the tree being built.
+   *
+   * <p>If the nodes stack is empty, the node is the root of the tree.
+   * For array parents, the node is added as the next array element.
+   * For object parents, the node is added with the key that was read
+   * last.
    *
-   * @return a boolean value indicating the validity of the ':' separation.
+   * @param node The JsonNode to be added to the tree.
    */
-  @Override
-  protected boolean checkColon() {
-    if (!allBrackets.isEmpty() && allBrackets.peek() == '{'
-            && json.charAt(json.length() - 1) == '\"') {
-      separatedCount += 1;
-      return true;
+  private void addToJsonNode(JsonNode node) {
+    if (nodes.isEmpty()) {
+      root = node;
+      return;
+    }
+
+    JsonNode parent = nodes.peek();
+    // parent can either be an JsonArray or an JsonObject, but not a JsonString
+    if (parent instanceof JsonArray) {
+      ((IJsonArray) parent).add(node);
+    } else {
+      ((IJsonObject) parent).add(keyStack.pop(), node);
     }
-    return false;
   }
 }
@@ -0,0 +1,143 @@
+package jsontree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is a class that keeps one canonical String per key, so that the
+ * trees built by JsonTreeBuilder share their keys instead of holding a
+ * copy per pair.
+ *
+ * <p>Documents with the same schema use the same few keys again and
+ * again. A JsonTreeBuilder given a KeyDictionary looks each key up here
+ * straight from its capture buffer, and only makes a new String the first
+ * time a key is seen.
+ *
+ * <p>The dictionary is bounded. Once it holds capacity keys, new keys are
+ * still returned as new Strings but are not added, so a document with
+ * unusual keys cannot make it grow without limit.
+ *
+ * <p>It is safe to share between threads, and is meant to be shared by
+ * all the builders of a corpus. The keys are kept in an open-addressed
+ * table with room for twice the capacity, whose empty slots are filled
+ * with compareAndSet, so lookups never lock. If several threads add keys
+ * at the same time the capacity can be passed by at most one key per
+ * thread, and with a small capacity the table can fill up. A key that is
+ * not found in a full table is returned as a new String.
+ */
+public final class KeyDictionary {
+  /**
+   * The capacity used by the no-argument constructor.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private final int capacity;
+  private final AtomicReferenceArray<String> table;
+  private final int mask;
+  private final AtomicInteger size;
+  private final LongAdder hits;
+  private final LongAdder misses;
+
+  /**
+   * This is the constructor for the KeyDictionary class.
+   * It holds up to DEFAULT_CAPACITY keys.
+   */
+  public KeyDictionary() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * This is the constructor for the KeyDictionary class.
+   *
+   * @param capacity the number of keys kept.
+   * @throws IllegalArgumentException if capacity is not positive or is
+   *                                  over 2^29.
+   */
+  public KeyDictionary(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 29) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.capacity = capacity;
+    this.table = new AtomicReferenceArray<>(Integer.highestOneBit(capacity * 2 - 1) * 2);
+    this.mask = table.length() - 1;
+    this.size = new AtomicInteger();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+  }
+
+  /**
+   * This method gives the canonical String for a key.
+   *
+   * <p>The table is probed from the slot given by the hash code of the
+   * key, which is the same as String.hashCode, until the key or an empty
+   * slot is found. Either way no String is made for a key already there.
+   * The probe stops after every slot has been looked at, which only
+   * happens once threads racing past the capacity have filled the table.
+   *
+   * @param key the characters of the key.
+   * @return the String kept for the key, or a new String if the key is
+   *         not there and the dictionary is full.
+   */
+  public String intern(CharSequence key) {
+    int h = 0;
+    for (int idx = 0; idx < key.length(); idx++) {
+      h = 31 * h + key.charAt(idx);
+    }
+
+    int slot = (h ^ (h >>> 16)) & mask;
+    for (int probes = 0; probes <= mask; probes++) {
+      String s = table.get(slot);
+      if (s == null) {
+        String fresh = key.toString();
+        misses.increment();
+        if (size.get() >= capacity) {
+          return fresh;
+        }
+        if (table.compareAndSet(slot, null, fresh)) {
+          size.incrementAndGet();
+          return fresh;
+        }
+        // Another thread took the slot, it may have added the same key.
+        misses.decrement();
+        s = table.get(slot);
+      }
+      if (s.hashCode() == h && s.contentEquals(key)) {
+        hits.increment();
+        return s;
+      }
+      slot = (slot + 1) & mask;
+    }
+    // Racing threads filled every slot, see the class comment.
+    misses.increment();
+    return key.toString();
+  }
+
+  /**
+   * This method gives the number of keys kept.
+   *
+   * @return the size of the dictionary.
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * This method gives the number of lookups that found their key.
+   *
+   * @return the number of hits so far.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * This method gives the number of lookups that had to make a new
+   * String, whether or not it was then added.
+   *
+   * @return the number of misses so far.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+}
@@ -0,0 +1,170 @@
+package jsontree;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This is a package private class that holds the elements of a JsonArray
+ * made of strings only, packed together.
+ *
+ * <p>The characters of all the strings are kept one after the other in a
+ * single char[], and the offsets of the strings in an int[], so a string
+ * costs its characters and one int rather than a JsonString, a String and
+ * its array. get gives a JsonString that refers to the packed characters,
+ * made on each call.
+ *
+ * <p>It can be read as a List, which then gives the same hash code and
+ * equality as a list of the JsonString nodes. Strings can only be added
+ * at the end, through append.
+ */
+final class PackedStrings extends AbstractList<JsonNode> {
+  private char[] chars;
+  private int length;
+  private int[] offsets;
+  private int size;
+  private CharBuffer view;
+
+  /**
+   * This is the constructor for the PackedStrings class.
+   * It starts with no strings.
+   */
+  PackedStrings() {
+    this.chars = new char[64];
+    this.length = 0;
+    this.offsets = new int[9];
+    this.size = 0;
+    this.view = null;
+  }
+
+  /**
+   * This method gives the number of strings.
+   *
+   * @return the size of the list.
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * This method gives a string as a JsonString that refers to the packed
+   * characters.
+   *
+   * @param index the index of the string.
+   * @return the JsonString.
+   * @throws IndexOutOfBoundsException if the index is outside the list.
+   */
+  @Override
+  public JsonNode get(int index) {
+    Objects.checkIndex(index, size);
+    if (view == null) {
+      view = CharBuffer.wrap(chars);
+    }
+    return new JsonString(view, offsets[index], offsets[index + 1]);
+  }
+
+  /**
+   * This method adds a string made of a range of characters.
+   *
+   * @param source the characters.
+   * @param start  index of the first character.
+   * @param end    index after the last character.
+   */
+  void append(CharSequence source, int start, int end) {
+    int from = reserve(end - start);
+    if (source instanceof StringBuilder) {
+      ((StringBuilder) source).getChars(start, end, chars, from);
+    } else {
+      for (int idx = start; idx < end; idx++) {
+        chars[from++] = source.charAt(idx);
+      }
+    }
+  }
+
+  /**
+   * This method adds a string made of a range of ASCII bytes.
+   *
+   * @param source the buffer holding the bytes.
+   * @param start  index of the first byte.
+   * @param end    index after the last byte.
+   */
+  void append(ByteBuffer source, int start, int end) {
+    int from = reserve(end - start);
+    for (int idx = start; idx < end; idx++) {
+      chars[from++] = (char) source.get(idx);
+    }
+  }
+
+  /**
+   * This method makes room for a string at the end.
+   *
+   * @param count the number of characters of the string.
+   * @return the index its first character goes to.
+   */
+  private int reserve(int count) {
+    if (chars.length - length < count) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + count));
+      view = null;
+    }
+    if (size + 1 == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    int from = length;
+    length += count;
+    offsets[++size] = length;
+    return from;
+  }
+
+  /**
+   * This method drops the room left at the end of the arrays.
+   */
+  void trim() {
+    if (chars.length != length) {
+      chars = Arrays.copyOf(chars, length);
+      view = null;
+    }
+    if (offsets.length != size + 1) {
+      offsets = Arrays.copyOf(offsets, size + 1);
+    }
+  }
+
+  /**
+   * This method gives the hash code of the list of JsonString nodes,
+   * worked out from the packed characters.
+   *
+   * @return the hash code.
+   */
+  @Override
+  public int hashCode() {
+    int h = 1;
+    for (int idx = 0; idx < size; idx++) {
+      int stringHash = 0;
+      for (int c = offsets[idx]; c < offsets[idx + 1]; c++) {
+        stringHash = 31 * stringHash + chars[c];
+      }
+      h = 31 * h + stringHash;
+    }
+    return h;
+  }
+
+  /**
+   * This method compares with another list. Two PackedStrings are
+   * compared through their arrays.
+   *
+   * @param o the object to be compared with.
+   * @return true if both hold equal elements in the same order.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof PackedStrings)) {
+      return super.equals(o);
+    }
+    PackedStrings other = (PackedStrings) o;
+    return size == other.size
+            && Arrays.equals(offsets, 0, size + 1, other.offsets, 0, size + 1)
+            && Arrays.equals(chars, 0, length, other.chars, 0, length);
+  }
+}
@@ -0,0 +1,195 @@
+package jsontree;
+
+import java.util.List;
+
+/**
+ * This is a concrete class that represents an immutable Json array.
+ * It extends JsonNode and is the frozen counterpart of JsonArray.
+ *
+ * <p>Like PersistentJsonObject it is never changed once built. with
+ * gives a new array instead, that shares all of its elements but one
+ * with this array. The elements are kept in a PersistentVector.
+ *
+ * <p>equals and hashCode follow JsonArray, but a PersistentJsonArray is
+ * never equal to a JsonArray. JsonArray.freeze and thaw convert between
+ * the two.
+ */
+public final class PersistentJsonArray extends JsonNode {
+  private static final PersistentJsonArray EMPTY =
+          new PersistentJsonArray(PersistentVector.empty());
+
+  private final PersistentVector<JsonNode> elements;
+  private int hash;
+
+  /**
+   * This is the constructor for the PersistentJsonArray class.
+   *
+   * @param elements the elements.
+   */
+  private PersistentJsonArray(PersistentVector<JsonNode> elements) {
+    this.elements = elements;
+  }
+
+  /**
+   * This method gives the empty array.
+   *
+   * @return the PersistentJsonArray with no elements.
+   */
+  public static PersistentJsonArray empty() {
+    return EMPTY;
+  }
+
+  /**
+   * This method gives an array with an element added at the end.
+   * The element is frozen first, see JsonNode.freeze.
+   *
+   * @param value the element to be added.
+   * @return the new array. This array is left as it is.
+   * @throws IllegalArgumentException if the value is null.
+   */
+  public PersistentJsonArray with(JsonNode value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Value can not be null");
+    }
+    return new PersistentJsonArray(elements.append(value.freeze()));
+  }
+
+  /**
+   * This method gives an array with an element replaced.
+   * The element is frozen first, see JsonNode.freeze.
+   *
+   * @param index the index of the element.
+   * @param value the new element.
+   * @return the new array. This array is left as it is.
+   * @throws IllegalArgumentException  if the value is null.
+   * @throws IndexOutOfBoundsException if the index is outside the array.
+   */
+  public PersistentJsonArray with(int index, JsonNode value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Value can not be null");
+    }
+    return new PersistentJsonArray(elements.update(index, value.freeze()));
+  }
+
+  /**
+   * This method gives an element.
+   *
+   * @param index the index of the element.
+   * @return the element.
+   * @throws IndexOutOfBoundsException if the index is outside the array.
+   */
+  public JsonNode get(int index) {
+    return elements.get(index);
+  }
+
+  /**
+   * This method gives the number of elements.
+   *
+   * @return the size of this array.
+   */
+  public int size() {
+    return elements.size();
+  }
+
+  /**
+   * This method gives a mutable copy of this array, with the objects and
+   * arrays below it thawed as well.
+   *
+   * @return the JsonArray holding the elements.
+   */
+  public JsonArray thaw() {
+    JsonArray array = new JsonArray();
+    for (JsonNode element : elements) {
+      array.add(PersistentJsonObject.thaw(element));
+    }
+    return array;
+  }
+
+  /**
+   * This method detaches the elements of this array and everything below
+   * them, see JsonString.detach. The elements themselves are unchanged.
+   *
+   * @return this array.
+   */
+  @Override
+  public PersistentJsonArray detach() {
+    for (JsonNode element : elements) {
+      element.detach();
+    }
+    return this;
+  }
+
+  /**
+   * This method gives this array, which is immutable already.
+   *
+   * @return this array.
+   */
+  @Override
+  public PersistentJsonArray freeze() {
+    return this;
+  }
+
+  /**
+   * This method converts the array into a string with correct
+   * formatting, the same as for a JsonArray with the same elements.
+   *
+   * @return A String object representing the pretty formatted array.
+   */
+  @Override
+  public String prettyPrint() {
+    return PrettyWriter.print(this);
+  }
+
+  /**
+   * This method gives the elements, for PrettyWriter.
+   *
+   * @return the elements, in order.
+   */
+  List<JsonNode> elements() {
+    return elements;
+  }
+
+  /**
+   * This method overrides the default equals method of object Class.
+   *
+   * @param o Takes in the object to be compared with.
+   * @return a boolean value indicating the sameness.
+   */
+  @Override
+  public boolean equals(Object o) {
+    // Fast pointer equality.
+    if (this == o) {
+      return true;
+    }
+    // If o isn't the right class then it can't be equal.
+    if (!(o instanceof PersistentJsonArray)) {
+      return false;
+    }
+    PersistentJsonArray other = (PersistentJsonArray) o;
+
+    if (this.size() != other.size() || this.hashCode() != other.hashCode()) {
+      return false;
+    }
+    return this.elements.equals(other.elements);
+  }
+
+  /**
+   * Hashcode method has to be replaced as well to work
+   * properly with Hashing.
+   *
+   * <p>It is the hash code of the list of elements, the same as for a
+   * JsonArray with the same elements. It is worked out on first use and
+   * kept, as the array never changes.
+   *
+   * @return An int denoting the hashcode.
+   */
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      h = elements.hashCode();
+      hash = h;
+    }
+    return h;
+  }
+}
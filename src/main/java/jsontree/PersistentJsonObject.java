@@ -0,0 +1,265 @@
+package jsontree;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This is a concrete class that represents an immutable Json object.
+ * It extends JsonNode and is the frozen counterpart of JsonObject.
+ *
+ * <p>It is never changed once built. with gives a new object instead,
+ * that shares all of its pairs but one with this object, so a change
+ * costs a few small array copies whatever the size of the object. A
+ * change deep in a tree only copies the objects and arrays on the way
+ * down to it, and the new root shares every other subtree with the old
+ * one. A tree made of PersistentJsonObject, PersistentJsonArray and
+ * JsonString can therefore be handed to other threads as it is, and
+ * readers holding an old root keep seeing the old tree.
+ *
+ * <p>The pairs are kept in insertion order in a PersistentVector, and the
+ * position of the first pair of each key in a PersistentMap. Repeated
+ * keys only come from freezing a JsonObject that has them, with itself
+ * replaces the first pair of a key.
+ *
+ * <p>equals and hashCode follow JsonObject, but a PersistentJsonObject is
+ * never equal to a JsonObject. JsonObject.freeze and thaw convert between
+ * the two.
+ */
+public final class PersistentJsonObject extends JsonNode {
+  private static final PersistentJsonObject EMPTY =
+          new PersistentJsonObject(PersistentVector.empty(), PersistentMap.empty());
+
+  private final PersistentVector<Pair> pairs;
+  private final PersistentMap<String, Integer> positions;
+  private int hash;
+
+  /**
+   * This is the constructor for the PersistentJsonObject class.
+   *
+   * @param pairs     the pairs, in insertion order.
+   * @param positions the position of the first pair of each key.
+   */
+  private PersistentJsonObject(PersistentVector<Pair> pairs,
+                               PersistentMap<String, Integer> positions) {
+    this.pairs = pairs;
+    this.positions = positions;
+  }
+
+  /**
+   * This method gives the empty object.
+   *
+   * @return the PersistentJsonObject with no pairs.
+   */
+  public static PersistentJsonObject empty() {
+    return EMPTY;
+  }
+
+  /**
+   * This method gives an object with a key set to a value. If the key is
+   * already there its first pair gets the new value and keeps its
+   * position, otherwise the pair is added at the end.
+   *
+   * <p>The value is frozen first, see JsonNode.freeze, so a JsonObject or
+   * JsonArray given here is copied and may be changed afterwards.
+   *
+   * @param key   the key.
+   * @param value the value.
+   * @return the new object. This object is left as it is.
+   * @throws IllegalArgumentException if the key is invalid or the value
+   *                                  is null.
+   */
+  public PersistentJsonObject with(String key, JsonNode value) {
+    if (!JsonObject.isValidKey(key)) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+    if (value == null) {
+      throw new IllegalArgumentException("Value can not be null");
+    }
+    Integer position = positions.get(key);
+    if (position == null) {
+      return append(key, value.freeze());
+    }
+    return new PersistentJsonObject(pairs.update(position, new Pair(key, value.freeze())),
+            positions);
+  }
+
+  /**
+   * This method adds a pair at the end, even if the key is already there.
+   * It is used by JsonObject.freeze, which has checked the key and frozen
+   * the value already.
+   *
+   * @param key   the key.
+   * @param value the frozen value.
+   * @return the new object.
+   */
+  PersistentJsonObject append(String key, JsonNode value) {
+    PersistentMap<String, Integer> newPositions = positions;
+    if (positions.get(key) == null) {
+      newPositions = positions.put(key, pairs.size());
+    }
+    return new PersistentJsonObject(pairs.append(new Pair(key, value)), newPositions);
+  }
+
+  /**
+   * This method gives the value of the first pair with the given key.
+   *
+   * @param key the key to look up.
+   * @return the value, or null if the key is not in this object.
+   */
+  public JsonNode get(String key) {
+    Integer position = positions.get(key);
+    return position == null ? null : pairs.get(position).getValue();
+  }
+
+  /**
+   * This method tells if this object has a pair with the given key.
+   *
+   * @param key the key to look up.
+   * @return true if the key is in this object.
+   */
+  public boolean containsKey(String key) {
+    return positions.get(key) != null;
+  }
+
+  /**
+   * This method gives the number of pairs.
+   *
+   * @return the size of this object.
+   */
+  public int size() {
+    return pairs.size();
+  }
+
+  /**
+   * This method gives a mutable copy of this object, with the objects and
+   * arrays below it thawed as well.
+   *
+   * @return the JsonObject holding the pairs.
+   */
+  public JsonObject thaw() {
+    JsonObject object = new JsonObject();
+    for (Pair pair : pairs) {
+      object.add(pair.getKey(), thaw(pair.getValue()));
+    }
+    return object;
+  }
+
+  /**
+   * This method gives a mutable copy of a frozen node.
+   *
+   * @param node the node.
+   * @return the copy, or the node itself if it is not a container.
+   */
+  static JsonNode thaw(JsonNode node) {
+    if (node instanceof PersistentJsonObject) {
+      return ((PersistentJsonObject) node).thaw();
+    }
+    if (node instanceof PersistentJsonArray) {
+      return ((PersistentJsonArray) node).thaw();
+    }
+    return node;
+  }
+
+  /**
+   * This method detaches the values of this object and of everything
+   * below it, see JsonString.detach. The pairs themselves are unchanged.
+   *
+   * @return this object.
+   */
+  @Override
+  public PersistentJsonObject detach() {
+    for (Pair pair : pairs) {
+      pair.getValue().detach();
+    }
+    return this;
+  }
+
+  /**
+   * This method gives this object, which is immutable already.
+   *
+   * @return this object.
+   */
+  @Override
+  public PersistentJsonObject freeze() {
+    return this;
+  }
+
+  /**
+   * This method overrides the prettyPrint method in the JsonNode.
+   * The output is the same as for a JsonObject with the same pairs.
+   *
+   * @return A formatted JSON string with proper indentation and newlines
+   */
+  @Override
+  public String prettyPrint() {
+    return PrettyWriter.print(this);
+  }
+
+  /**
+   * This method gives the pairs, for PrettyWriter.
+   *
+   * @return the pairs, in order.
+   */
+  List<Pair> pairs() {
+    return pairs;
+  }
+
+  /**
+   * This method overrides the default equals method of JsonNode Class.
+   *
+   * <p>Objects are equal if they have the same pairs, regardless of
+   * order, like JsonObject. When neither object has repeated keys every
+   * pair is looked up by its key in the other object. Otherwise both are
+   * thawed and compared as JsonObjects.
+   *
+   * @param o Takes in the object to be compared with.
+   * @return a boolean value indicating the sameness.
+   */
+  @Override
+  public boolean equals(Object o) {
+    // Fast pointer equality.
+    if (this == o) {
+      return true;
+    }
+    // If o isn't the right class then it can't be equal.
+    if (!(o instanceof PersistentJsonObject)) {
+      return false;
+    }
+    PersistentJsonObject other = (PersistentJsonObject) o;
+
+    if (this.size() != other.size() || this.hashCode() != other.hashCode()) {
+      return false;
+    }
+    if (this.positions.size() != this.size() || other.positions.size() != other.size()) {
+      return this.thaw().equals(other.thaw());
+    }
+    for (Pair pair : pairs) {
+      if (!Objects.equals(pair.getValue(), other.get(pair.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Overriding hashcode method has as well to work
+   * properly with Hashing.
+   *
+   * <p>It is the sum of the mixed hash codes of the pairs, the same as for
+   * a JsonObject with the same pairs. It is worked out on first use and
+   * kept, as the object never changes.
+   *
+   * @return An int denoting the hashcode.
+   */
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      for (Pair pair : pairs) {
+        h += JsonObject.pairHash(pair);
+      }
+      hash = h;
+    }
+    return h;
+  }
+}
@@ -0,0 +1,268 @@
+package jsontree;
+
+import java.util.Arrays;
+
+/**
+ * This is a package private class that represents an immutable hash map,
+ * used by PersistentJsonObject to find the pairs of a key.
+ *
+ * <p>It is a hash array mapped trie. Each node takes 5 bits of the hash
+ * code and keeps a bitmap of the slots in use, so that its array only
+ * holds the entries that are there. put copies the path from the root
+ * down to the changed entry and shares everything else with the map it
+ * was called on. Keys whose hash codes are the same are kept together in
+ * a collision node.
+ *
+ * @param <K> Type of the keys.
+ * @param <V> Type of the values, which may not be null.
+ */
+final class PersistentMap<K, V> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(new BitmapNode(0, new Object[0]), 0);
+
+  private final Node root;
+  private final int size;
+
+  /**
+   * This is the constructor for the PersistentMap class.
+   *
+   * @param root the root node.
+   * @param size the number of keys.
+   */
+  private PersistentMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * This method gives the empty map.
+   *
+   * @param <K> Type of the keys.
+   * @param <V> Type of the values.
+   * @return the empty map.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentMap<K, V> empty() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  /**
+   * This method gives the number of keys.
+   *
+   * @return the size of the map.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * This method gives the value of a key.
+   *
+   * @param key the key.
+   * @return the value, or null if the key is not in the map.
+   */
+  @SuppressWarnings("unchecked")
+  V get(Object key) {
+    return (V) root.find(0, hash(key), key);
+  }
+
+  /**
+   * This method gives a map with a key set to a value.
+   *
+   * @param key   the key.
+   * @param value the value.
+   * @return the new map, or this map if the key already had the value.
+   */
+  PersistentMap<K, V> put(K key, V value) {
+    Node newRoot = root.put(0, hash(key), key, value);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentMap<>(newRoot, get(key) == null ? size + 1 : size);
+  }
+
+  /**
+   * This method spreads the high bits of a hash code over the low bits,
+   * which are the ones the root uses.
+   *
+   * @param key the key.
+   * @return the spread hash code.
+   */
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * This is a node of the trie.
+   */
+  private abstract static class Node {
+    /**
+     * This method finds the value of a key below this node.
+     *
+     * @param shift the bits of the hash code used above this node.
+     * @param hash  the hash code of the key.
+     * @param key   the key.
+     * @return the value, or null if the key is not there.
+     */
+    abstract Object find(int shift, int hash, Object key);
+
+    /**
+     * This method sets the value of a key below this node.
+     *
+     * @param shift the bits of the hash code used above this node.
+     * @param hash  the hash code of the key.
+     * @param key   the key.
+     * @param value the value.
+     * @return the new node, or this node if nothing changed.
+     */
+    abstract Node put(int shift, int hash, Object key, Object value);
+  }
+
+  /**
+   * This is a node with up to 32 entries. An entry is a key and its
+   * value, or null and a node one level down.
+   */
+  private static final class BitmapNode extends Node {
+    private final int bitmap;
+    private final Object[] array;
+
+    /**
+     * This is the constructor for the BitmapNode class.
+     *
+     * @param bitmap the slots in use.
+     * @param array  the entries of the slots in use, two items each.
+     */
+    BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      int idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+      Object k = array[idx];
+      if (k == null) {
+        return ((Node) array[idx + 1]).find(shift + BITS, hash, key);
+      }
+      return key.equals(k) ? array[idx + 1] : null;
+    }
+
+    @Override
+    Node put(int shift, int hash, Object key, Object value) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+      if ((bitmap & bit) == 0) {
+        Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, idx);
+        copy[idx] = key;
+        copy[idx + 1] = value;
+        System.arraycopy(array, idx, copy, idx + 2, array.length - idx);
+        return new BitmapNode(bitmap | bit, copy);
+      }
+
+      Object k = array[idx];
+      Object v = array[idx + 1];
+      Object[] copy;
+      if (k == null) {
+        Node child = ((Node) v).put(shift + BITS, hash, key, value);
+        if (child == v) {
+          return this;
+        }
+        copy = array.clone();
+        copy[idx + 1] = child;
+      } else if (key.equals(k)) {
+        if (value.equals(v)) {
+          return this;
+        }
+        copy = array.clone();
+        copy[idx + 1] = value;
+      } else {
+        // Two keys in one slot, they move one level down.
+        copy = array.clone();
+        copy[idx] = null;
+        copy[idx + 1] = pair(shift + BITS, k, v, hash, key, value);
+      }
+      return new BitmapNode(bitmap, copy);
+    }
+
+    /**
+     * This method builds the node holding two keys that share a slot.
+     *
+     * @param shift  the bits of the hash codes used above the new node.
+     * @param key1   the key already there.
+     * @param value1 its value.
+     * @param hash2  the hash code of the new key.
+     * @param key2   the new key.
+     * @param value2 its value.
+     * @return the new node.
+     */
+    private static Node pair(int shift, Object key1, Object value1,
+                             int hash2, Object key2, Object value2) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+      }
+      return new BitmapNode(0, new Object[0])
+              .put(shift, hash1, key1, value1)
+              .put(shift, hash2, key2, value2);
+    }
+  }
+
+  /**
+   * This is a node holding keys that all have the same hash code.
+   */
+  private static final class CollisionNode extends Node {
+    private final int hash;
+    private final Object[] array;
+
+    /**
+     * This is the constructor for the CollisionNode class.
+     *
+     * @param hash  the hash code of the keys.
+     * @param array the keys and their values, two items each.
+     */
+    CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      for (int idx = 0; idx < array.length; idx += 2) {
+        if (key.equals(array[idx])) {
+          return array[idx + 1];
+        }
+      }
+      return null;
+    }
+
+    @Override
+    Node put(int shift, int hash, Object key, Object value) {
+      if (hash != this.hash) {
+        // The new key goes next to this node, one level down.
+        int bit = 1 << ((this.hash >>> shift) & MASK);
+        return new BitmapNode(bit, new Object[] {null, this}).put(shift, hash, key, value);
+      }
+      for (int idx = 0; idx < array.length; idx += 2) {
+        if (key.equals(array[idx])) {
+          if (value.equals(array[idx + 1])) {
+            return this;
+          }
+          Object[] copy = array.clone();
+          copy[idx + 1] = value;
+          return new CollisionNode(hash, copy);
+        }
+      }
+      Object[] copy = Arrays.copyOf(array, array.length + 2);
+      copy[array.length] = key;
+      copy[array.length + 1] = value;
+      return new CollisionNode(hash, copy);
+    }
+  }
+}
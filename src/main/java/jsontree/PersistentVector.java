@@ -0,0 +1,222 @@
+package jsontree;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * This is a package private class that represents an immutable list,
+ * used by PersistentJsonArray and PersistentJsonObject.
+ *
+ * <p>The elements are kept in a tree of arrays of 32, with the last few
+ * elements in a separate tail array. append and set copy the tail, or the
+ * path from the root down to the changed element, and share everything
+ * else with the list they were called on. Both take a few array copies
+ * even for very long lists, as the tree is at most 7 levels deep.
+ *
+ * <p>It can be read as a List, which then gives the same hash code and
+ * equality as any other list. The methods of List that change the list
+ * are not supported.
+ *
+ * @param <E> Type of the elements.
+ */
+final class PersistentVector<E> extends AbstractList<E> {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  private static final PersistentVector<?> EMPTY =
+          new PersistentVector<>(0, BITS, new Object[WIDTH], new Object[0]);
+
+  private final int size;
+  private final int shift;
+  private final Object[] root;
+  private final Object[] tail;
+
+  /**
+   * This is the constructor for the PersistentVector class.
+   *
+   * @param size  the number of elements.
+   * @param shift the number of bits of an index used below the root.
+   * @param root  the root of the tree.
+   * @param tail  the last elements.
+   */
+  private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+    this.size = size;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  /**
+   * This method gives the empty list.
+   *
+   * @param <E> Type of the elements.
+   * @return the empty list.
+   */
+  @SuppressWarnings("unchecked")
+  static <E> PersistentVector<E> empty() {
+    return (PersistentVector<E>) EMPTY;
+  }
+
+  /**
+   * This method gives the number of elements.
+   *
+   * @return the size of the list.
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * This method gives an element.
+   *
+   * @param index the index of the element.
+   * @return the element.
+   * @throws IndexOutOfBoundsException if the index is outside the list.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    return (E) leaf(index)[index & MASK];
+  }
+
+  /**
+   * This method gives a list with an element added at the end.
+   *
+   * @param element the element to be added.
+   * @return the new list.
+   */
+  PersistentVector<E> append(E element) {
+    if (size - tailOffset() < WIDTH) {
+      Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = element;
+      return new PersistentVector<>(size + 1, shift, root, newTail);
+    }
+
+    // The tail is full, it goes into the tree.
+    Object[] newRoot;
+    int newShift = shift;
+    if ((size >>> BITS) > (1 << shift)) {
+      newRoot = new Object[WIDTH];
+      newRoot[0] = root;
+      newRoot[1] = path(shift, tail);
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(shift, root);
+    }
+    return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] {element});
+  }
+
+  /**
+   * This method gives a list with an element replaced.
+   *
+   * @param index   the index of the element.
+   * @param element the new element.
+   * @return the new list.
+   * @throws IndexOutOfBoundsException if the index is outside the list.
+   */
+  PersistentVector<E> update(int index, E element) {
+    checkIndex(index);
+    if (index >= tailOffset()) {
+      Object[] newTail = tail.clone();
+      newTail[index & MASK] = element;
+      return new PersistentVector<>(size, shift, root, newTail);
+    }
+    return new PersistentVector<>(size, shift, set(shift, root, index, element), tail);
+  }
+
+  /**
+   * This method copies the path down to an element and replaces it.
+   *
+   * @param level   the shift of the node.
+   * @param node    the node.
+   * @param index   the index of the element.
+   * @param element the new element.
+   * @return the copy of the node.
+   */
+  private static Object[] set(int level, Object[] node, int index, Object element) {
+    Object[] copy = node.clone();
+    if (level == 0) {
+      copy[index & MASK] = element;
+    } else {
+      int slot = (index >>> level) & MASK;
+      copy[slot] = set(level - BITS, (Object[]) node[slot], index, element);
+    }
+    return copy;
+  }
+
+  /**
+   * This method gives the index of the first element of the tail.
+   *
+   * @return the number of elements in the tree.
+   */
+  private int tailOffset() {
+    return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+  }
+
+  /**
+   * This method finds the array holding an element.
+   *
+   * @param index the index of the element.
+   * @return the tail or a leaf of the tree.
+   */
+  private Object[] leaf(int index) {
+    checkIndex(index);
+    if (index >= tailOffset()) {
+      return tail;
+    }
+    Object[] node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(index >>> level) & MASK];
+    }
+    return node;
+  }
+
+  /**
+   * This method checks that an index is inside the list.
+   *
+   * @param index the index.
+   * @throws IndexOutOfBoundsException if the index is outside the list.
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+  }
+
+  /**
+   * This method copies the path from a node down to where the full tail
+   * goes, and puts the tail there.
+   *
+   * @param level the shift of the node.
+   * @param node  the node.
+   * @return the copy of the node.
+   */
+  private Object[] pushTail(int level, Object[] node) {
+    Object[] copy = node.clone();
+    int slot = ((size - 1) >>> level) & MASK;
+    if (level == BITS) {
+      copy[slot] = tail;
+    } else {
+      Object[] child = (Object[]) node[slot];
+      copy[slot] = child != null ? pushTail(level - BITS, child) : path(level - BITS, tail);
+    }
+    return copy;
+  }
+
+  /**
+   * This method builds a path of new nodes down to a leaf.
+   *
+   * @param level the shift of the top node.
+   * @param leaf  the leaf.
+   * @return the top node.
+   */
+  private static Object[] path(int level, Object[] leaf) {
+    if (level == 0) {
+      return leaf;
+    }
+    Object[] node = new Object[WIDTH];
+    node[0] = path(level - BITS, leaf);
+    return node;
+  }
+}
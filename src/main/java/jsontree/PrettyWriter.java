@@ -0,0 +1,329 @@
+package jsontree;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is a package private class that writes the pretty form of a tree,
+ * for JsonNode.writePretty and the prettyPrint methods of the containers.
+ *
+ * <p>The tree is walked with a stack of the open containers instead of
+ * recursion, so deep trees cannot overflow the stack, and every character
+ * is written once, straight to the output. The output is the one the
+ * containers used to build by printing each child to a String and
+ * indenting every line of it: a line break written inside a container at
+ * depth d is followed by d indents, wherever it comes from, including the
+ * keys and strings themselves.
+ *
+ * <p>The text of a container with cachePretty set is appended in one piece
+ * instead of walking the container, see JsonNode.prettyPrintAt. The text
+ * is kept for the depth it is printed at, with the indents of that depth
+ * already after each line break, so it is neither scanned nor indented
+ * again. It is made by a writer of its own, which starts at that depth and
+ * marks every container it walks as printed, so that adding to any of
+ * them drops it. Printing a tree again still copies all of its text, but
+ * only walks the containers that changed.
+ */
+final class PrettyWriter {
+  private static final String SPACES = "                                                                ";
+
+  private final Appendable out;
+  private final int indent;
+  private final boolean caching;
+  private final int base;
+  private List<?>[] lists;
+  private boolean[] objects;
+  private int[] positions;
+  private int depth;
+
+  /**
+   * This is the constructor for the PrettyWriter class.
+   *
+   * @param out     where the characters are written.
+   * @param indent  the number of spaces for each level.
+   * @param caching true if the text is to be cached, see cache.
+   * @param base    the depth the tree is printed at.
+   */
+  private PrettyWriter(Appendable out, int indent, boolean caching, int base) {
+    this.out = out;
+    this.indent = indent;
+    this.caching = caching;
+    this.base = base;
+    this.lists = new List<?>[16];
+    this.objects = new boolean[16];
+    this.positions = new int[16];
+    this.depth = 0;
+  }
+
+  /**
+   * This method gives the pretty form of a tree with 2 spaces for each
+   * level, as prettyPrint does.
+   *
+   * @param node the root of the tree.
+   * @return the formatted json.
+   */
+  static String print(JsonNode node) {
+    return print(node, false, 0);
+  }
+
+  /**
+   * This method gives the pretty form of a tree as it is printed inside
+   * containers, with 2 spaces for each level.
+   *
+   * @param node  the root of the tree.
+   * @param depth the number of containers around it.
+   * @return the formatted json, with the indents of depth after each line
+   *         break.
+   */
+  static String print(JsonNode node, int depth) {
+    return print(node, false, depth);
+  }
+
+  /**
+   * This method gives the pretty form of a container that keeps it, see
+   * JsonObject.cachePretty. The container and all the containers below it
+   * are marked as printed.
+   *
+   * @param node  the container.
+   * @param depth the number of containers around it.
+   * @return the formatted json, with the indents of depth after each line
+   *         break.
+   */
+  static String cache(JsonNode node, int depth) {
+    return print(node, true, depth);
+  }
+
+  /**
+   * This method gives the pretty form of a tree with 2 spaces for each
+   * level.
+   *
+   * @param node    the root of the tree.
+   * @param caching true to mark the containers as printed.
+   * @param depth   the number of containers around it.
+   * @return the formatted json.
+   */
+  private static String print(JsonNode node, boolean caching, int depth) {
+    StringBuilder text = new StringBuilder();
+    try {
+      new PrettyWriter(text, 2, caching, depth).write(node);
+    } catch (IOException e) {
+      // A StringBuilder does not throw.
+      throw new IllegalStateException(e);
+    }
+    return text.toString();
+  }
+
+  /**
+   * This method writes the pretty form of a tree.
+   *
+   * @param node   the root of the tree.
+   * @param out    where the characters are written.
+   * @param indent the number of spaces for each level.
+   * @throws IOException if the output throws.
+   * @throws IllegalArgumentException if indent is negative.
+   */
+  static void write(JsonNode node, Appendable out, int indent) throws IOException {
+    if (indent < 0) {
+      throw new IllegalArgumentException("The indent cannot be negative");
+    }
+    new PrettyWriter(out, indent, false, 0).write(node);
+  }
+
+  /**
+   * This method writes a tree, copying the text of the root as well if
+   * it keeps it.
+   *
+   * @param node the root of the tree.
+   * @throws IOException if the output throws.
+   */
+  private void write(JsonNode node) throws IOException {
+    if (node.isScalar()) {
+      scalar(node);
+    } else if (!caching && node.cachesPretty() && indent == 2) {
+      out.append(node.prettyPrint());
+    } else {
+      open(node);
+      run();
+    }
+  }
+
+  /**
+   * This method writes the containers on the stack until the last one
+   * is closed.
+   *
+   * @throws IOException if the output throws.
+   */
+  private void run() throws IOException {
+    while (depth > 0) {
+      int top = depth - 1;
+      List<?> list = lists[top];
+      int position = positions[top];
+      if (position == list.size()) {
+        out.append(objects[top] ? '}' : ']');
+        lists[top] = null;
+        depth--;
+        if (depth > 0) {
+          separator();
+        }
+        continue;
+      }
+      spaces(indent);
+      JsonNode value;
+      if (objects[top]) {
+        Pair pair = (Pair) list.get(position);
+        out.append('"');
+        text(pair.getKey());
+        out.append("\":");
+        value = pair.getValue();
+        if (!value.isScalar()) {
+          newLine();
+          spaces(indent);
+        }
+      } else {
+        value = (JsonNode) list.get(position);
+      }
+      if (value.isScalar()) {
+        scalar(value);
+        separator();
+      } else if (value.cachesPretty() && indent == 2) {
+        // The kept text has the indents of this container after its line breaks.
+        out.append(value.prettyPrintAt(base + depth));
+        separator();
+      } else {
+        open(value);
+      }
+    }
+  }
+
+  /**
+   * This method writes the start of a container and pushes it, or the
+   * whole of an empty one.
+   *
+   * @param node an object or an array.
+   * @throws IOException if the output throws.
+   */
+  private void open(JsonNode node) throws IOException {
+    List<?> list = children(node);
+    boolean object = isObject(node);
+    if (caching) {
+      node.printed();
+    }
+    out.append(object ? '{' : '[');
+    if (depth == lists.length) {
+      lists = Arrays.copyOf(lists, depth * 2);
+      objects = Arrays.copyOf(objects, depth * 2);
+      positions = Arrays.copyOf(positions, depth * 2);
+    }
+    lists[depth] = list;
+    objects[depth] = object;
+    positions[depth] = 0;
+    depth++;
+    newLine();
+  }
+
+  /**
+   * This method writes what follows a value of the innermost container,
+   * and moves on to the next one.
+   *
+   * @throws IOException if the output throws.
+   */
+  private void separator() throws IOException {
+    int top = depth - 1;
+    positions[top]++;
+    if (positions[top] < lists[top].size()) {
+      out.append(',');
+    }
+    newLine();
+  }
+
+  /**
+   * This method writes a string, number or literal.
+   *
+   * @param node the scalar node.
+   * @throws IOException if the output throws.
+   */
+  private void scalar(JsonNode node) throws IOException {
+    if (node instanceof JsonString) {
+      out.append('"');
+      text(((JsonString) node).chars());
+      out.append('"');
+    } else {
+      text(node.prettyPrint());
+    }
+  }
+
+  /**
+   * This method writes characters as they are, with the indents after
+   * any line break in them.
+   *
+   * @param text the characters.
+   * @throws IOException if the output throws.
+   */
+  private void text(CharSequence text) throws IOException {
+    int start = 0;
+    for (int idx = 0; idx < text.length(); idx++) {
+      if (text.charAt(idx) == '\n') {
+        out.append(text, start, idx);
+        newLine();
+        start = idx + 1;
+      }
+    }
+    out.append(text, start, text.length());
+  }
+
+  /**
+   * This method writes a line break and the indents of the innermost
+   * open container.
+   *
+   * @throws IOException if the output throws.
+   */
+  private void newLine() throws IOException {
+    out.append('\n');
+    spaces((long) (base + depth - 1) * indent);
+  }
+
+  /**
+   * This method writes spaces from the table, a slice at a time.
+   *
+   * @param count the number of spaces.
+   * @throws IOException if the output throws.
+   */
+  private void spaces(long count) throws IOException {
+    while (count > 0) {
+      int chunk = (int) Math.min(count, SPACES.length());
+      out.append(SPACES, 0, chunk);
+      count -= chunk;
+    }
+  }
+
+  /**
+   * This method gives the pairs of an object or the elements of an array.
+   * It is shared with CompactWriter.
+   *
+   * @param node the container.
+   * @return the list of Pair or JsonNode.
+   */
+  static List<?> children(JsonNode node) {
+    if (node instanceof JsonObject) {
+      return ((JsonObject) node).jsonObject;
+    }
+    if (node instanceof JsonArray) {
+      return ((JsonArray) node).jsonArray;
+    }
+    if (node instanceof PersistentJsonObject) {
+      return ((PersistentJsonObject) node).pairs();
+    }
+    return ((PersistentJsonArray) node).elements();
+  }
+
+  /**
+   * This method tells if a container is an object rather than an array.
+   *
+   * @param node the container.
+   * @return true for a JsonObject or a PersistentJsonObject.
+   */
+  static boolean isObject(JsonNode node) {
+    return node instanceof JsonObject || node instanceof PersistentJsonObject;
+  }
+}
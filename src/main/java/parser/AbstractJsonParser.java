@@ -1,7 +1,48 @@
 package parser;
 
+import static parser.TransitionTable.ACTION_BITS;
+import static parser.TransitionTable.ACTION_MASK;
+import static parser.TransitionTable.ARRAY_AFTER;
+import static parser.TransitionTable.ARRAY_FRAME;
+import static parser.TransitionTable.ARRAY_STRING;
+import static parser.TransitionTable.CHAR;
+import static parser.TransitionTable.CLOSE_ARRAY;
+import static parser.TransitionTable.CLOSE_OBJECT;
+import static parser.TransitionTable.DONE;
+import static parser.TransitionTable.EMPTY;
+import static parser.TransitionTable.END_KEY;
+import static parser.TransitionTable.END_SCALAR;
+import static parser.TransitionTable.END_VALUE;
+import static parser.TransitionTable.ERROR;
+import static parser.TransitionTable.FAIL;
+import static parser.TransitionTable.KEY;
+import static parser.TransitionTable.KEY_START;
+import static parser.TransitionTable.LINE;
+import static parser.TransitionTable.LITERAL;
+import static parser.TransitionTable.LITERAL_CHAR;
+import static parser.TransitionTable.NUMBER_CHAR;
+import static parser.TransitionTable.NUMBER_E_SIGN;
+import static parser.TransitionTable.NUMBER_EXPONENT;
+import static parser.TransitionTable.NUMBER_FRACTION;
+import static parser.TransitionTable.NUMBER_INT;
+import static parser.TransitionTable.NUMBER_MINUS;
+import static parser.TransitionTable.NUMBER_ZERO;
+import static parser.TransitionTable.OBJECT_AFTER;
+import static parser.TransitionTable.OBJECT_FRAME;
+import static parser.TransitionTable.OBJECT_STRING;
+import static parser.TransitionTable.OPEN_ARRAY;
+import static parser.TransitionTable.OPEN_OBJECT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.Stack;
 
 /**
  * This is an Abstract class that implements JsonParser< T > with
@@ -9,53 +50,239 @@ import java.util.Stack;
  * All the necessary variables are declared and initialized in the
  * constructor.
  *
- * <p>input method and the checkValidity method can be used by the
- * sub classes directly.
- * output() method and other helper functions are to be defined in the
- * concrete classes.
+ * <p>The json is checked by a state machine that is shared by all the
+ * sub classes. Each character is mapped to a character class and looked
+ * up in a transition table together with the current state, see
+ * TransitionTable. The frames array holds the kind of every open
+ * container, so the state is proportional to the nesting depth and the
+ * parsing linear in the size of the input.
+ *
+ * <p>UTF-8 bytes can be sent in directly. All the characters that make up
+ * the structure are ASCII, so they are looked up in the same table as the
+ * raw byte. Bytes outside ASCII are only decoded inside keys, to check
+ * that they are letters or digits, and inside values when the sub class
+ * captures them. They are never decoded in the other values.
+ *
+ * <p>The parser counts the characters or bytes and the lines it is sent,
+ * so it can tell where the json turned invalid. Only the '\n' count is
+ * kept up to date as the input is read. The column is worked out from the
+ * input at hand once an error is found, and the error itself is only
+ * described when asked for, see error().
+ *
+ * <p>Sub classes that set slices are not sent the values through capture
+ * when they can be read straight from the input. A value that lies within
+ * a single input and holds nothing but printable ASCII, or any character
+ * but '\t', '\r', '\f' and '\n' for character input, is handed over as a
+ * range of the input instead, see valueRead(CharSequence, int, int). The
+ * other values are captured as usual.
+ *
+ * <p>Numbers are converted as their characters are read, into an unscaled
+ * long and a scale, without going through a String. Only the numbers whose
+ * digits do not fit in a long are handed over as text, through capture.
+ *
+ * <p>Sub classes do not check anything themselves. They are told about
+ * the structure being read through the objectOpened, objectClosed,
+ * arrayOpened, arrayClosed, keyRead, valueRead, numberRead, booleanRead
+ * and nullRead methods.
+ * output() method is to be defined in the concrete classes.
  *
  * @param <T> Type of Object that the concrete class will be dealing with.
  */
 public abstract class AbstractJsonParser<T> implements JsonParser<T> {
-  protected String json;
-  protected final String[] status;
-  protected String currentStatus;
-  protected int countBraces;
-  protected Stack<Character> allBrackets;
-  protected boolean inValue;
-  protected boolean inKey;
-  protected int separatedCount;
-  protected int keyCount;
-  protected int keyValueCount;
-
-  /**
-   * This is a constructor for the JsonTreeBuilder class.
-   * It initializes the root attribute with a JsonObject object.
-   * json attribute to empty string and the 'currentStatus'  as 'Empty'
-   * and the other private variables.
+  protected StringBuilder capture;
+  protected boolean slices;
+  private int state;
+  private byte[] frames;
+  private int depth;
+  private final Utf8Decoder decoder;
+  private long offset;
+  private long base;
+  private int first;
+  private long lines;
+  private long lineStart;
+  private int errorState;
+  private long errorOffset;
+  private long errorLine;
+  private long errorColumn;
+  private CharSequence sliceChars;
+  private ByteBuffer sliceBytes;
+  private int sliceStart;
+  private int sliceEnd;
+  private String literal;
+  private int literalLength;
+  private boolean negative;
+  private boolean big;
+  private long unscaled;
+  private long zeros;
+  private long fraction;
+  private long exponent;
+  private boolean exponentNegative;
+
+  /**
+   * The largest value an unscaled number may have before a digit is
+   * added to it, so that it still fits in a long.
+   */
+  private static final long UNSCALED_LIMIT = (Long.MAX_VALUE - 9) / 10;
+
+  /**
+   * Exponents are not read past this, which is far outside the range
+   * of an int scale already.
+   */
+  private static final long EXPONENT_LIMIT = 1L << 40;
+
+  /**
+   * The default size of the windows a file is mapped in.
+   */
+  public static final int DEFAULT_WINDOW = 1 << 30;
+
+  /**
+   * This is a constructor for the AbstractJsonParser class.
+   * It initializes the state as empty and the frames stack.
+   *
+   * <p>capture is left null. Subclasses that need the text of keys and
+   * values set it to a StringBuilder, which then holds the characters
+   * of the key or value being read (without the quotes). slices is left
+   * false, and may only be set together with capture.
    */
   public AbstractJsonParser() {
-    this.status = new String[]{"Empty", "Valid", "Incomplete", "Invalid"};
-    this.json = "";
-    this.currentStatus = status[0];
-    this.countBraces = 0;
-    this.allBrackets = new Stack<>();
-    this.inValue = false;
-    this.inKey = false;
-    this.separatedCount = 0;
-    this.keyCount = 0;
-    this.keyValueCount = 0;
+    this.capture = null;
+    this.slices = false;
+    this.state = EMPTY;
+    this.frames = new byte[16];
+    this.depth = 0;
+    this.decoder = new Utf8Decoder();
+    this.offset = 0;
+    this.base = 0;
+    this.first = 0;
+    this.lines = 0;
+    this.lineStart = 0;
+    this.errorState = EMPTY;
+    this.errorOffset = -1;
+    this.errorLine = 0;
+    this.errorColumn = 0;
+    this.sliceChars = null;
+    this.sliceBytes = null;
+    this.sliceStart = -1;
+    this.sliceEnd = -1;
+    clearNumber();
+  }
+
+  /**
+   * This method brings the parser back to the Empty state, as if it had
+   * just been created, so it can be used for another json. The buffers
+   * it has grown so far are kept.
+   *
+   * <p>Sub classes that keep state of their own override this method and
+   * call super.reset().
+   *
+   * @return the current object
+   */
+  public AbstractJsonParser<T> reset() {
+    state = EMPTY;
+    depth = 0;
+    decoder.reset();
+    clearCapture();
+    offset = 0;
+    base = 0;
+    first = 0;
+    lines = 0;
+    lineStart = 0;
+    errorState = EMPTY;
+    errorOffset = -1;
+    errorLine = 0;
+    errorColumn = 0;
+    sliceStart = -1;
+    literal = null;
+    clearNumber();
+    return this;
+  }
+
+  /**
+   * This method puts the parser in the middle of a document, in a given
+   * state, for ParallelValidation.
+   *
+   * @param state     the state to go on from.
+   * @param frames    the kinds of the open containers, innermost last.
+   * @param offset    the offset of the next input in the document.
+   * @param lines     the number of '\n' before the next input.
+   * @param lineStart the offset of the start of the current line.
+   */
+  void resume(int state, byte[] frames, long offset, long lines, long lineStart) {
+    reset();
+    this.state = state;
+    this.frames = Arrays.copyOf(frames, Math.max(16, frames.length * 2));
+    this.depth = frames.length;
+    this.offset = offset;
+    this.lines = lines;
+    this.lineStart = lineStart;
+  }
+
+  /**
+   * This method tells if the byte input ended inside a multi-byte sequence.
+   *
+   * @return true if the decoder waits for more bytes.
+   */
+  boolean pendingBytes() {
+    return decoder.pending();
+  }
+
+  /**
+   * This method gives the status of the json that has been
+   * sent in so far.
+   *
+   * @return the current Status.
+   */
+  public Status status() {
+    switch (state) {
+      case EMPTY:
+        return Status.EMPTY;
+      case DONE:
+        return Status.VALID;
+      case ERROR:
+        return Status.INVALID;
+      default:
+        return Status.INCOMPLETE;
+    }
+  }
+
+  /**
+   * This method gives the position of the character or byte that made
+   * the json invalid, counting all the characters and bytes sent in
+   * since the parser was created.
+   *
+   * @return the offset of the rejected input, or -1 if the json is
+   *         not invalid.
+   */
+  public long errorOffset() {
+    return errorOffset;
   }
 
   /**
-   * Check if the json is already valid, if so no need to check validity.
-   * Just check if the current character is ' ' or not.
-   * ' ' -> allowed but anything else not allowed except escape characters.
+   * This method describes why and where the json turned invalid.
    *
-   * <p>We are checking for invalid states to save on runtime.
+   * @return the JsonError, or null if the json is not invalid.
+   */
+  public JsonError error() {
+    if (state != ERROR) {
+      return null;
+    }
+    JsonError.Kind kind;
+    if (errorState == KEY_START || errorState == KEY) {
+      kind = JsonError.Kind.INVALID_KEY;
+    } else if (errorState == DONE) {
+      kind = JsonError.Kind.TRAILING_INPUT;
+    } else {
+      kind = JsonError.Kind.UNEXPECTED_CHARACTER;
+    }
+    return new JsonError(kind, errorOffset, errorLine, errorColumn,
+            TransitionTable.expected(errorState));
+  }
+
+  /**
+   * Runs a single character through the state machine.
    *
-   * <p>The character c is then sent to another method -> buildTree to
-   * be built with correct hierarchy.
+   * <p>Once the json is valid only ' ' is allowed. Once it is invalid
+   * any further input is ignored.
    *
    * @param c the input character
    * @return the current object
@@ -63,158 +290,1058 @@ public abstract class AbstractJsonParser<T> implements JsonParser<T> {
    */
   @Override
   public AbstractJsonParser<T> input(char c) throws InvalidJsonException {
-    // Check if the json is already valid, if so no need to check validity.
-    // Just check if the current character is ' ' or not.
-    // ' ' -> allowed but anything else not allowed.
-    if (Objects.equals(currentStatus, status[1]) && c != ' ') {
-      currentStatus = status[3];
-      throw new InvalidJsonException("Invalid input making the JSON invalid");
+    base = offset++;
+    try {
+      state = step(flushBytes(state), TransitionTable.classOf(c), c);
+    } catch (InvalidJsonException e) {
+      failed(base, lineStart);
+      throw e;
+    }
+    if (c == '\n' && state != ERROR) {
+      lineStart = offset;
+    }
+    return this;
+  }
+
+  /**
+   * Feeds every character of the sequence through the parser. If slices
+   * is set the values may be handed over as ranges of the sequence, so it
+   * must not change while they are in use.
+   *
+   * @param chars the input characters
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   */
+  @Override
+  public AbstractJsonParser<T> input(CharSequence chars) throws InvalidJsonException {
+    feed(chars, 0, chars.length());
+    return this;
+  }
+
+  /**
+   * Feeds a range of the array through the parser.
+   *
+   * @param chars  the array holding the input characters
+   * @param offset index of the first character to be used
+   * @param length number of characters to be used
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   */
+  @Override
+  public AbstractJsonParser<T> input(char[] chars, int offset, int length)
+          throws InvalidJsonException {
+    Objects.checkFromIndexSize(offset, length, chars.length);
+    feed(CharBuffer.wrap(chars, offset, length), 0, length);
+    return this;
+  }
+
+  /**
+   * Feeds the remaining characters of the buffer through the parser
+   * and drains the buffer.
+   *
+   * @param chars the buffer holding the input characters
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   */
+  @Override
+  public AbstractJsonParser<T> input(CharBuffer chars) throws InvalidJsonException {
+    try {
+      // The ranges handed over for slices are relative to the position.
+      feed(slices ? chars.duplicate() : chars, 0, chars.remaining());
+    } finally {
+      chars.position(chars.limit());
+    }
+    return this;
+  }
+
+  /**
+   * Feeds a range of UTF-8 bytes through the parser.
+   *
+   * @param bytes  the array holding the input bytes
+   * @param offset index of the first byte to be used
+   * @param length number of bytes to be used
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   * @throws IndexOutOfBoundsException if the range is outside the array
+   */
+  public AbstractJsonParser<T> input(byte[] bytes, int offset, int length)
+          throws InvalidJsonException {
+    Objects.checkFromIndexSize(offset, length, bytes.length);
+    feed(ByteBuffer.wrap(bytes), offset, offset + length);
+    return this;
+  }
+
+  /**
+   * Feeds the remaining UTF-8 bytes of the buffer through the parser
+   * and drains the buffer. A multi-byte sequence may be split between
+   * this buffer and the next input.
+   *
+   * @param bytes the buffer holding the input bytes
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   */
+  public AbstractJsonParser<T> input(ByteBuffer bytes) throws InvalidJsonException {
+    try {
+      feed(bytes, bytes.position(), bytes.limit());
+    } finally {
+      bytes.position(bytes.limit());
+    }
+    return this;
+  }
+
+  /**
+   * Feeds every character of the sequence through the parser, without
+   * ever throwing InvalidJsonException. See offer(ByteBuffer).
+   *
+   * @param chars the input characters
+   * @return NEED_MORE_INPUT while the root object is open, DOCUMENT_COMPLETE
+   *         once it is closed, or ERROR once the json is invalid, in which
+   *         case error() tells why and where
+   */
+  public FeedResult offer(CharSequence chars) {
+    try {
+      feed(chars, 0, chars.length());
+    } catch (InvalidJsonException e) {
+      // Reported through the result.
+    }
+    return result();
+  }
+
+  /**
+   * Feeds the remaining UTF-8 bytes of the buffer through the parser
+   * and drains the buffer, without ever throwing InvalidJsonException.
+   *
+   * <p>This is meant for bytes read from non-blocking channels, which come
+   * in chunks of any size. Everything the parser needs to go on, including
+   * a multi-byte sequence split between two chunks, is kept in the parser,
+   * so a single thread can drive any number of parsers, handing each one
+   * the chunks of its own channel as they arrive.
+   *
+   * @param bytes the buffer holding the input bytes
+   * @return NEED_MORE_INPUT while the root object is open, DOCUMENT_COMPLETE
+   *         once it is closed, or ERROR once the json is invalid, in which
+   *         case error() tells why and where
+   */
+  public FeedResult offer(ByteBuffer bytes) {
+    try {
+      input(bytes);
+    } catch (InvalidJsonException e) {
+      // Reported through the result.
+    }
+    return result();
+  }
+
+  /**
+   * This method gives the result of an offer, based on the current state.
+   *
+   * @return the FeedResult.
+   */
+  private FeedResult result() {
+    switch (state) {
+      case DONE:
+        return FeedResult.DOCUMENT_COMPLETE;
+      case ERROR:
+        return FeedResult.ERROR;
+      default:
+        return FeedResult.NEED_MORE_INPUT;
+    }
+  }
+
+  /**
+   * Feeds UTF-8 bytes from the stream through the parser until the
+   * end of the stream. The stream is not closed. The bytes are read into
+   * a single reused array, so no value is handed over as a slice of it.
+   *
+   * @param in the stream to read the input bytes from
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   * @throws IOException if reading from the stream fails
+   */
+  public AbstractJsonParser<T> input(InputStream in) throws InvalidJsonException, IOException {
+    byte[] chunk = new byte[8192];
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    int read;
+    boolean sliced = slices;
+    slices = false;
+    try {
+      while ((read = in.read(chunk)) != -1) {
+        feed(buffer, 0, read);
+      }
+    } finally {
+      slices = sliced;
     }
+    return this;
+  }
 
-    if (c == '\n' || c == '\t' || c == '\r' || c == '\f') {
-      return this;
+  /**
+   * Feeds the UTF-8 content of a file through the parser.
+   * See input(Path, int).
+   *
+   * @param path the file to be read
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   * @throws IOException if mapping the file fails
+   */
+  public AbstractJsonParser<T> input(Path path) throws InvalidJsonException, IOException {
+    return input(path, DEFAULT_WINDOW);
+  }
+
+  /**
+   * Feeds the UTF-8 content of a file through the parser.
+   *
+   * <p>The file is memory-mapped one window at a time and the parser runs
+   * directly over the mapped bytes, so the file is never copied to the
+   * heap as a whole. A window is dropped as soon as the next one is mapped.
+   * Files larger than 2 GB are fine, as only the windows need to fit in
+   * a buffer.
+   *
+   * @param path   the file to be read
+   * @param window the size of each mapped window in bytes
+   * @return the current object
+   * @throws InvalidJsonException defined in the parser package
+   * @throws IOException if mapping the file fails
+   * @throws IllegalArgumentException if window is not positive
+   */
+  public AbstractJsonParser<T> input(Path path, int window)
+          throws InvalidJsonException, IOException {
+    if (window <= 0) {
+      throw new IllegalArgumentException("The window size has to be positive");
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      for (long position = 0; position < size; position += window) {
+        int length = (int) Math.min(window, size - position);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        feed(mapped, 0, length);
+      }
     }
+    return this;
+  }
 
-    boolean validity = isValidJson(c);
+  /**
+   * This is the entry point of the bulk character input methods.
+   *
+   * <p>Strings and buffers over a char[], such as the ones input(char[],
+   * int, int) wraps its array in, are run through loops of their own that
+   * read the String or the array directly. Any other sequence is read
+   * through charAt.
+   *
+   * @param chars the input characters
+   * @param start index of the first character to be used
+   * @param end   index after the last character to be used
+   * @throws InvalidJsonException defined in the parser package
+   */
+  private void feed(CharSequence chars, int start, int end) throws InvalidJsonException {
+    base = offset - start;
+    offset += end - start;
+    long before = lines;
+    if (slices) {
+      sliceChars = chars;
+    }
+    try {
+      int s;
+      try {
+        s = flushBytes(state);
+      } catch (InvalidJsonException e) {
+        failed(base + start - 1, lineStart);
+        throw e;
+      }
+      if (chars instanceof String) {
+        state = scanString((String) chars, s, start, end);
+      } else if (chars instanceof CharBuffer && ((CharBuffer) chars).hasArray()) {
+        state = scanArray((CharBuffer) chars, s, start, end);
+      } else {
+        state = scanChars(chars, s, start, end);
+      }
+    } finally {
+      endSlices(end);
+    }
+    if (lines != before) {
+      lineStart = lineStart(chars, start, end);
+    }
+  }
 
-    if (!Objects.equals(currentStatus, status[3])) {
-      if (validity && (c != ' ' || (inKey || inValue))) {
-        this.json += c;
+  /**
+   * This is the loop behind the bulk input of a String.
+   *
+   * <p>The state is kept in a local. Characters inside a value string
+   * are always accepted until the closing '"', so a whole run of them
+   * is skipped over (and captured) in one go.
+   *
+   * @param chars the input characters
+   * @param s     the state before the first character
+   * @param start index of the first character to be used
+   * @param end   index after the last character to be used
+   * @return the state after the last character.
+   * @throws InvalidJsonException defined in the parser package
+   */
+  private int scanString(String chars, int s, int start, int end) throws InvalidJsonException {
+    int i = start;
+    try {
+      while (i < end) {
+        char c = chars.charAt(i++);
+        int previous = s;
+        s = step(s, TransitionTable.classOf(c), c);
+        if (s == OBJECT_STRING || s == ARRAY_STRING) {
+          if (slices && previous != s) {
+            sliceStart = i;
+          }
+          int from = i;
+          while (i < end && (c = chars.charAt(i)) != '\"' && c >= ' ') {
+            i++;
+          }
+          if (sliceStart >= 0) {
+            if (i < end && c == '\"') {
+              sliceEnd = i;
+            } else {
+              unslice(i);
+            }
+          } else if (capture != null) {
+            capture.append(chars, from, i);
+          }
+        }
+      }
+      return s;
+    } catch (InvalidJsonException e) {
+      failed(base + i - 1, lineStart(chars, start, i - 1));
+      throw e;
+    }
+  }
 
-        if (allBrackets.empty() && !Objects.equals(currentStatus, status[1])) {
-          this.currentStatus = status[1];
+  /**
+   * This is the loop behind the bulk input of a buffer over a char[],
+   * which reads the array directly. See scanString.
+   *
+   * @param chars the buffer, whose position is index 0
+   * @param s     the state before the first character
+   * @param start index of the first character to be used
+   * @param end   index after the last character to be used
+   * @return the state after the last character.
+   * @throws InvalidJsonException defined in the parser package
+   */
+  private int scanArray(CharBuffer chars, int s, int start, int end) throws InvalidJsonException {
+    char[] array = chars.array();
+    int shift = chars.arrayOffset() + chars.position();
+    int i = start;
+    try {
+      while (i < end) {
+        char c = array[shift + i++];
+        int previous = s;
+        s = step(s, TransitionTable.classOf(c), c);
+        if (s == OBJECT_STRING || s == ARRAY_STRING) {
+          if (slices && previous != s) {
+            sliceStart = i;
+          }
+          int from = i;
+          while (i < end && (c = array[shift + i]) != '\"' && c >= ' ') {
+            i++;
+          }
+          if (sliceStart >= 0) {
+            if (i < end && c == '\"') {
+              sliceEnd = i;
+            } else {
+              unslice(i);
+            }
+          } else if (capture != null) {
+            capture.append(array, shift + from, i - from);
+          }
         }
-        else {
-          this.currentStatus = status[2];
+      }
+      return s;
+    } catch (InvalidJsonException e) {
+      failed(base + i - 1, lineStart(chars, start, i - 1));
+      throw e;
+    }
+  }
+
+  /**
+   * This is the loop behind the bulk input of any other sequence, which
+   * reads it through charAt. See scanString.
+   *
+   * @param chars the input characters
+   * @param s     the state before the first character
+   * @param start index of the first character to be used
+   * @param end   index after the last character to be used
+   * @return the state after the last character.
+   * @throws InvalidJsonException defined in the parser package
+   */
+  private int scanChars(CharSequence chars, int s, int start, int end)
+          throws InvalidJsonException {
+    int i = start;
+    try {
+      while (i < end) {
+        char c = chars.charAt(i++);
+        int previous = s;
+        s = step(s, TransitionTable.classOf(c), c);
+        if (s == OBJECT_STRING || s == ARRAY_STRING) {
+          if (slices && previous != s) {
+            sliceStart = i;
+          }
+          int from = i;
+          while (i < end && (c = chars.charAt(i)) != '\"' && c >= ' ') {
+            i++;
+          }
+          if (sliceStart >= 0) {
+            if (i < end && c == '\"') {
+              sliceEnd = i;
+            } else {
+              unslice(i);
+            }
+          } else if (capture != null) {
+            capture.append(chars, from, i);
+          }
         }
-      } else if (!validity) {
-        this.currentStatus = status[3];
-        throw new InvalidJsonException("Invalid input making the JSON invalid");
       }
+      return s;
+    } catch (InvalidJsonException e) {
+      failed(base + i - 1, lineStart(chars, start, i - 1));
+      throw e;
+    }
+  }
+
+  /**
+   * This is the entry point of the byte input methods. It works on absolute
+   * indexes so it never moves the position of the buffer.
+   *
+   * <p>The bytes are scanned one at a time, see scan.
+   *
+   * @param bytes the buffer holding the input bytes
+   * @param start index of the first byte to be used
+   * @param end   index after the last byte to be used
+   * @throws InvalidJsonException defined in the parser package
+   */
+  void feed(ByteBuffer bytes, int start, int end) throws InvalidJsonException {
+    base = offset - start;
+    offset += end - start;
+    first = start;
+    long before = lines;
+    if (slices) {
+      sliceBytes = bytes;
+    }
+    try {
+      scan(bytes, start, end);
+    } finally {
+      endSlices(end);
+    }
+    if (lines != before) {
+      lineStart = lineStart(bytes, end);
     }
-    return this;
   }
 
   /**
-   * This method checks the validity of the current character
-   * wrt the stored json string if it is not inside a key or value string.
-   * Call closeBraces method on encountering a '}' to handle it on the spot.
-   * Call closeBracket method on encountering a ']' to handle it on the spot.
-   *
-   * @param c Takes in a character to add to the json available.
-   * @return Checks with the current json present and returns
-   *         "True" if valid, and "False" if invalid.
-   */
-  protected boolean checkValidity(char c) {
-    switch (c) {
-      case '{' :
-        return checkBraceOpening();
-      case '}' :
-        return checkBraceClosing();
-      case '[' :
-        return checkArrayOpening();
-      case ']' :
-        return checkArrayClosing();
-      case '\"' :
-        return checkStringEntries();
-      case ',' :
-        return checkSeparation();
-      case ':' :
-        return checkColon();
-      case ' ':
-        return true;
+   * This is the byte by byte loop behind the byte input methods.
+   *
+   * <p>ASCII bytes take the same path as characters. Inside a value string
+   * a whole run of bytes is skipped over in one go. The run is only looked
+   * at byte by byte when the value is captured, or may be handed over as a
+   * slice.
+   *
+   * @param bytes the buffer holding the input bytes
+   * @param start index of the first byte to be used
+   * @param end   index after the last byte to be used
+   * @throws InvalidJsonException defined in the parser package
+   */
+  private void scan(ByteBuffer bytes, int start, int end) throws InvalidJsonException {
+    int s = state;
+    int i = start;
+    try {
+      while (i < end) {
+        if (sliceStart >= 0) {
+          i = skipSlice(bytes, i, end);
+          if (i == end) {
+            break;
+          }
+        }
+        byte b = bytes.get(i++);
+        int previous = s;
+        s = stepByte(s, b);
+        if (s != OBJECT_STRING && s != ARRAY_STRING) {
+          continue;
+        }
+        if (capture == null) {
+          // Nothing is kept, every byte but '"' and '\n' can be skipped.
+          while (i < end && (b = bytes.get(i)) != '\"' && b != '\n') {
+            i++;
+          }
+        } else if (slices && previous != s) {
+          sliceStart = i;
+        } else if (!decoder.pending()) {
+          while (i < end && (b = bytes.get(i)) >= ' ' && b != '\"') {
+            capture.append((char) b);
+            i++;
+          }
+        }
+      }
+    } catch (InvalidJsonException e) {
+      failed(base + i - 1, lineStart(bytes, i - 1));
+      throw e;
+    }
+    state = s;
+  }
+
+  /**
+   * This method skips the bytes of a value that may still be handed over
+   * as a slice. It stops at the closing '"', or gives up the slice at the
+   * first byte that is not printable ASCII.
+   *
+   * @param bytes the buffer holding the input bytes
+   * @param start index of the first byte to be used
+   * @param end   index after the last byte to be used
+   * @return the index of the byte it stopped at, or end.
+   */
+  private int skipSlice(ByteBuffer bytes, int start, int end) {
+    int i = start;
+    byte b = 0;
+    while (i < end && (b = bytes.get(i)) >= ' ' && b != '\"') {
+      i++;
+    }
+    if (i < end) {
+      if (b == '\"') {
+        sliceEnd = i;
+      } else {
+        unslice(i);
+      }
+    }
+    return i;
+  }
+
+  /**
+   * This method gives up the slice of the value being read, and copies
+   * the part read so far to capture. The rest of the value is captured.
+   *
+   * @param at index of the first character or byte not read yet.
+   */
+  private void unslice(int at) {
+    if (sliceChars != null) {
+      capture.append(sliceChars, sliceStart, at);
+    } else {
+      for (int i = sliceStart; i < at; i++) {
+        capture.append((char) sliceBytes.get(i));
+      }
+    }
+    sliceStart = -1;
+  }
+
+  /**
+   * This method gives up the slice of a value that goes on past the end
+   * of the input, and drops the input.
+   *
+   * @param end index after the last character or byte of the input.
+   */
+  private void endSlices(int end) {
+    if (sliceStart >= 0) {
+      unslice(end);
+    }
+    sliceChars = null;
+    sliceBytes = null;
+  }
+
+  /**
+   * This method runs a single input byte through the state machine.
+   *
+   * @param s the current state.
+   * @param b the input byte.
+   * @return the next state.
+   * @throws InvalidJsonException if the byte is not allowed in the current state.
+   */
+  private int stepByte(int s, byte b) throws InvalidJsonException {
+    if (b >= 0 && !decoder.pending()) {
+      return step(s, TransitionTable.CLASSES[b], b);
+    }
+    return stepWide(s, b);
+  }
+
+  /**
+   * This method handles a byte that is either outside ASCII or
+   * follows an incomplete multi-byte sequence.
+   *
+   * @param s the current state.
+   * @param b the input byte.
+   * @return the next state.
+   * @throws InvalidJsonException if the byte is not allowed in the current state.
+   */
+  private int stepWide(int s, byte b) throws InvalidJsonException {
+    boolean inString = s == OBJECT_STRING || s == ARRAY_STRING;
+    if (inString && capture == null) {
+      // The value is not kept, there is nothing to decode.
+      return s;
+    }
+    if (!inString && s != KEY_START && s != KEY) {
+      return step(s, TransitionTable.OTHER, b);
+    }
+
+    int cp = decoder.accept(b);
+    if (cp == Utf8Decoder.MALFORMED) {
+      s = codePoint(s, Utf8Decoder.REPLACEMENT);
+      if (b >= 0) {
+        return step(s, TransitionTable.CLASSES[b], b);
+      }
+      cp = decoder.accept(b);
+    }
+    return cp == Utf8Decoder.NEED_MORE ? s : codePoint(s, cp);
+  }
+
+  /**
+   * This method runs a decoded code point from a key or a
+   * value string through the state machine.
+   *
+   * @param s  the current state.
+   * @param cp the decoded code point.
+   * @return the next state.
+   * @throws InvalidJsonException if the code point is not allowed in the current state.
+   */
+  private int codePoint(int s, int cp) throws InvalidJsonException {
+    return step(s, TransitionTable.classOf(cp), cp);
+  }
+
+  /**
+   * This method drops an incomplete multi-byte sequence left by the
+   * byte input when characters are sent in next.
+   *
+   * @param s the current state.
+   * @return the state after the sequence is dropped.
+   * @throws InvalidJsonException if the sequence was inside a key.
+   */
+  private int flushBytes(int s) throws InvalidJsonException {
+    if (!decoder.pending()) {
+      return s;
+    }
+    decoder.reset();
+    return codePoint(s, Utf8Decoder.REPLACEMENT);
+  }
+
+  /**
+   * This method looks up the transition for a character and
+   * takes the action that comes with it.
+   *
+   * @param s   the current state.
+   * @param cls the class of the input character.
+   * @param c   the input character or code point.
+   * @return the next state.
+   * @throws InvalidJsonException if the character is not allowed in the current state.
+   */
+  private int step(int s, int cls, int c) throws InvalidJsonException {
+    int entry = TransitionTable.entry(s, cls);
+    switch (entry & ACTION_MASK) {
+      case FAIL:
+        throw fail(s);
+      case CHAR:
+        if (capture != null) {
+          capture.appendCodePoint(c);
+        }
+        break;
+      case OPEN_OBJECT:
+        push(OBJECT_FRAME);
+        objectOpened();
+        break;
+      case CLOSE_OBJECT:
+        if (depth == 0) {
+          // Only a parser resumed after an invalid prefix gets here.
+          throw fail(s);
+        }
+        depth--;
+        objectClosed();
+        return afterClose();
+      case OPEN_ARRAY:
+        push(ARRAY_FRAME);
+        arrayOpened();
+        break;
+      case CLOSE_ARRAY:
+        if (depth == 0) {
+          throw fail(s);
+        }
+        depth--;
+        arrayClosed();
+        return afterClose();
+      case END_KEY:
+        keyRead();
+        clearCapture();
+        break;
+      case END_VALUE:
+        if (sliceStart >= 0) {
+          int from = sliceStart;
+          sliceStart = -1;
+          if (sliceChars != null) {
+            valueRead(sliceChars, from, sliceEnd);
+          } else {
+            valueRead(sliceBytes, from, sliceEnd);
+          }
+        } else {
+          valueRead();
+        }
+        clearCapture();
+        break;
+      case LINE:
+        lines++;
+        break;
+      case LITERAL_CHAR:
+        literalChar(s, c);
+        break;
+      case NUMBER_CHAR:
+        return numberChar(s, entry >>> ACTION_BITS, c);
+      case END_SCALAR:
+        if (s == LITERAL) {
+          endLiteral(s);
+        } else {
+          endNumber();
+        }
+        // The character after the scalar belongs to the container.
+        return step(afterClose(), cls, c);
       default:
         break;
     }
-    return false;
+    return entry >>> ACTION_BITS;
   }
 
   /**
-   * To be implemented in the subclasses as needed.
+   * This method makes the json invalid.
    *
-   * @return T type representing the output of the operations.
+   * @param s the state that did not allow the input.
+   * @return the exception to be thrown.
    */
-  @Override
-  public abstract T output();
+  private InvalidJsonException fail(int s) {
+    state = ERROR;
+    errorState = s;
+    return new InvalidJsonException("Invalid input making the JSON invalid", false);
+  }
 
   /**
-   * This method is the entry point to check if
-   * the current object is valid or not.
-   * If an array or a value is detected, the task is then
-   * delegated to the respective methods.
-   * The exact implementation is to be done in the concrete class.
+   * This method checks a letter of true, false or null. The first
+   * letter picks the literal.
    *
-   * @param c Takes in a character to add to the json available.
-   * @return Checks with the current json present and returns
-   *         "True" if valid, and "False" if invalid.
+   * @param s the current state.
+   * @param c the input character or code point.
+   * @throws InvalidJsonException if the letter does not spell a literal.
    */
-  protected abstract boolean isValidJson(char c);
+  private void literalChar(int s, int c) throws InvalidJsonException {
+    if (s != LITERAL) {
+      literal = c == 't' ? "true" : c == 'f' ? "false" : c == 'n' ? "null" : null;
+      literalLength = 0;
+    }
+    if (literal == null || literalLength == literal.length()
+            || literal.charAt(literalLength) != c) {
+      throw fail(s);
+    }
+    literalLength++;
+  }
 
   /**
-   * A new object is allowed only if the json
-   * string is empty or '{' is preceded by ':'.
-   * The exact implementation is to be done in the concrete class.
+   * This method hands over a literal once the character after it is read.
    *
-   * @return a boolean value indicating the validity of the opening brace.
+   * @param s the current state.
+   * @throws InvalidJsonException if the literal is not complete.
    */
-  protected abstract boolean checkBraceOpening();
+  private void endLiteral(int s) throws InvalidJsonException {
+    if (literalLength != literal.length()) {
+      throw fail(s);
+    }
+    if (literal.charAt(0) == 'n') {
+      nullRead();
+    } else {
+      booleanRead(literal.charAt(0) == 't');
+    }
+    literal = null;
+  }
 
   /**
-   * An object is allowed to be closed if all '[' and '"' are closed.
-   * This is checked before entering switch case.
-   * Should be preceded by '"' or ']'.
-   * The exact implementation is to be done in the concrete class.
+   * This method adds a character to the number being read.
+   *
+   * <p>The digits are kept as an unscaled long, with the zeros at the end
+   * counted apart, so a number such as 1e-7 written as 0.00000010 still
+   * fits. The fraction digits and the exponent make up the scale. Once the
+   * digits do not fit in a long the number is only kept as text.
    *
-   * @return a boolean value indicating the validity of the closing brace.
+   * @param s    the current state.
+   * @param next the next state, from the table.
+   * @param c    the input character or code point.
+   * @return the next state.
+   * @throws InvalidJsonException if the character is a digit outside ASCII,
+   *                              or follows a leading zero.
    */
-  protected abstract boolean checkBraceClosing();
+  private int numberChar(int s, int next, int c) throws InvalidJsonException {
+    if (c >= 128) {
+      throw fail(s);
+    }
+    if (capture != null) {
+      capture.append((char) c);
+    }
+    switch (next) {
+      case NUMBER_MINUS:
+        negative = true;
+        break;
+      case NUMBER_INT:
+        if (c == '0' && s != NUMBER_INT) {
+          return NUMBER_ZERO;
+        }
+        digit(c);
+        break;
+      case NUMBER_FRACTION:
+        fraction++;
+        digit(c);
+        break;
+      case NUMBER_E_SIGN:
+        exponentNegative = c == '-';
+        break;
+      case NUMBER_EXPONENT:
+        if (exponent < EXPONENT_LIMIT) {
+          exponent = exponent * 10 + (c - '0');
+        }
+        break;
+      default:
+        break;
+    }
+    return next;
+  }
+
+  /**
+   * This method adds a digit of the integer part or the fraction to the
+   * unscaled value.
+   *
+   * @param c the digit.
+   */
+  private void digit(int c) {
+    if (c == '0') {
+      zeros++;
+      return;
+    }
+    for (; zeros >= 0 && !big; zeros--) {
+      if (unscaled > UNSCALED_LIMIT) {
+        big = true;
+      } else {
+        unscaled *= 10;
+      }
+    }
+    unscaled += c - '0';
+    zeros = 0;
+  }
+
+  /**
+   * This method hands over a number once the character after it is read.
+   * A number whose digits or scale are out of range is handed over as text.
+   */
+  private void endNumber() {
+    long scale = fraction - zeros - (exponentNegative ? -exponent : exponent);
+    if (unscaled == 0 && !big) {
+      numberRead(0, 0);
+    } else if (big || scale < Integer.MIN_VALUE || scale > Integer.MAX_VALUE) {
+      numberRead();
+    } else {
+      numberRead(negative ? -unscaled : unscaled, (int) scale);
+    }
+    clearNumber();
+    clearCapture();
+  }
+
+  /**
+   * This method forgets the number being read.
+   */
+  private void clearNumber() {
+    negative = false;
+    big = false;
+    unscaled = 0;
+    zeros = 0;
+    fraction = 0;
+    exponent = 0;
+    exponentNegative = false;
+  }
 
   /**
-   * A new array is allowed only if '[' is preceded by ':' or '[' or ','
-   * and it should be inside "{}".
-   * The exact implementation is to be done in the concrete class.
+   * This method keeps the position of the input that made the json invalid.
    *
-   * @return a boolean value indicating the validity of the opening bracket.
+   * @param at   the offset of the rejected input.
+   * @param from the offset of the start of its line.
    */
-  protected abstract boolean checkArrayOpening();
+  private void failed(long at, long from) {
+    errorOffset = at;
+    errorLine = lines + 1;
+    errorColumn = at - from + 1;
+  }
 
   /**
-   * An array is allowed to be closed if all the elements inside are
-   * closed and separated properly.
-   * The exact implementation is to be done in the concrete class.
+   * This method finds the start of the line holding a character of the
+   * current input, looking back no further than the start of the input.
    *
-   * @return a boolean value indicating the validity of the closing Bracket.
+   * @param chars the input characters
+   * @param start index of the first character of the input
+   * @param at    index of the character
+   * @return the offset of the start of the line.
    */
-  protected abstract boolean checkArrayClosing();
+  private long lineStart(CharSequence chars, int start, int at) {
+    for (int i = at; i > start; i--) {
+      if (chars.charAt(i - 1) == '\n') {
+        return base + i;
+      }
+    }
+    return lineStart;
+  }
 
   /**
-   * A new string is allowed only if '"' is preceded by ':', ',', '['.
+   * This method finds the start of the line holding a byte of the
+   * current input, looking back no further than the start of the input.
    *
-   * <p>This method also checks if the current character goes in a key or
-   * a value.
-   * Adjusts the counters and index markers accordingly.
-   * The exact implementation is to be done in the concrete class.
+   * @param bytes the buffer holding the input bytes
+   * @param at    index of the byte
+   * @return the offset of the start of the line.
+   */
+  private long lineStart(ByteBuffer bytes, int at) {
+    for (int i = at; i > first; i--) {
+      if (bytes.get(i - 1) == '\n') {
+        return base + i;
+      }
+    }
+    return lineStart;
+  }
+
+  /**
+   * This method pushes a new frame for an opened container.
    *
-   * @return a boolean value indicating the validity of '\"'.
+   * @param frame the kind of the container.
    */
-  protected abstract boolean checkStringEntries();
+  private void push(byte frame) {
+    if (depth == frames.length) {
+      frames = Arrays.copyOf(frames, depth * 2);
+    }
+    frames[depth++] = frame;
+  }
 
   /**
-   * This method checks if the separation character is placed
-   * correctly at the current position.
-   * The exact implementation is to be done in the concrete class.
+   * This method gives the state after a container is closed,
+   * which depends on the container that encloses it.
    *
-   * @return a boolean value indicating the validity of the ',' separation.
+   * @return the next state.
+   */
+  private int afterClose() {
+    if (depth == 0) {
+      return DONE;
+    }
+    return frames[depth - 1] == OBJECT_FRAME ? OBJECT_AFTER : ARRAY_AFTER;
+  }
+
+  /**
+   * This method empties the capture buffer, if any.
    */
-  protected abstract boolean checkSeparation();
+  private void clearCapture() {
+    if (capture != null) {
+      capture.setLength(0);
+    }
+  }
 
   /**
-   * This method checks is the colon s placed at the correct spot
-   * in the json.
-   * It should separate a key-value pair, if not in value string.
+   * To be implemented in the subclasses as needed.
    *
-   * @return a boolean value indicating the validity of the ':' separation.
+   * @return T type representing the output of the operations.
+   */
+  @Override
+  public abstract T output();
+
+  /**
+   * This method is called when a '{' opens an object.
+   * Does nothing unless overridden.
    */
-  protected abstract boolean checkColon();
+  protected void objectOpened() {
+  }
 
+  /**
+   * This method is called when a '}' closes an object.
+   * Does nothing unless overridden.
+   */
+  protected void objectClosed() {
+  }
+
+  /**
+   * This method is called when a '[' opens an array.
+   * Does nothing unless overridden.
+   */
+  protected void arrayOpened() {
+  }
+
+  /**
+   * This method is called when a ']' closes an array.
+   * Does nothing unless overridden.
+   */
+  protected void arrayClosed() {
+  }
+
+  /**
+   * This method is called when the '"' closing a key is read.
+   * The key is in capture, if set. Does nothing unless overridden.
+   */
+  protected void keyRead() {
+  }
+
+  /**
+   * This method is called when the '"' closing a value string is read.
+   * The value is in capture, if set. Does nothing unless overridden.
+   */
+  protected void valueRead() {
+  }
+
+  /**
+   * This method is called instead of valueRead() when slices is set and
+   * the value can be read straight from the character input. The input
+   * must not be kept past the call unless it is known not to change.
+   * Copies the value to capture and calls valueRead() unless overridden.
+   *
+   * @param source the input characters.
+   * @param start  index of the first character of the value.
+   * @param end    index after the last character of the value.
+   */
+  protected void valueRead(CharSequence source, int start, int end) {
+    capture.append(source, start, end);
+    valueRead();
+  }
+
+  /**
+   * This method is called instead of valueRead() when slices is set and
+   * the value can be read straight from the byte input. All of its bytes
+   * are printable ASCII. Copies the value to capture and calls valueRead()
+   * unless overridden.
+   *
+   * @param source the buffer holding the input bytes.
+   * @param start  index of the first byte of the value.
+   * @param end    index after the last byte of the value.
+   */
+  protected void valueRead(ByteBuffer source, int start, int end) {
+    for (int i = start; i < end; i++) {
+      capture.append((char) source.get(i));
+    }
+    valueRead();
+  }
+
+  /**
+   * This method is called when the character after a number is read.
+   * The value of the number is unscaled * 10^-scale, with no zeros at the
+   * end of unscaled, and zero is always given as 0 and 0. Does nothing
+   * unless overridden.
+   *
+   * @param unscaled the digits of the number, with its sign.
+   * @param scale    the number of digits after the decimal point,
+   *                 negative for a power of ten.
+   */
+  protected void numberRead(long unscaled, int scale) {
+  }
+
+  /**
+   * This method is called instead of numberRead(long, int) for a number
+   * that does not fit in an unscaled long and an int scale. The number is
+   * in capture, as written, if set. Does nothing unless overridden.
+   */
+  protected void numberRead() {
+  }
+
+  /**
+   * This method is called when the character after true or false is read.
+   * Does nothing unless overridden.
+   *
+   * @param value the value of the literal.
+   */
+  protected void booleanRead(boolean value) {
+  }
+
+  /**
+   * This method is called when the character after null is read.
+   * Does nothing unless overridden.
+   */
+  protected void nullRead() {
+  }
 }
@@ -0,0 +1,22 @@
+package parser;
+
+/**
+ * This enum represents the outcome of handing a chunk of input to
+ * AbstractJsonParser.offer(ByteBuffer).
+ */
+public enum FeedResult {
+  /**
+   * The json is correct so far but the root object has not been closed.
+   */
+  NEED_MORE_INPUT,
+
+  /**
+   * The root object has been closed. Only spaces may follow.
+   */
+  DOCUMENT_COMPLETE,
+
+  /**
+   * A byte has been rejected, see AbstractJsonParser.errorOffset().
+   */
+  ERROR
+}
@@ -9,4 +9,17 @@ public class InvalidJsonException extends Exception {
   public InvalidJsonException(String message) {
     super(message);
   }
+
+  /**
+   * This constructor can skip filling in the stack trace, which is
+   * most of the cost of creating the exception. The parsers use it, as
+   * the position of the error is what matters, not where it was found in
+   * the parser, see AbstractJsonParser.error().
+   *
+   * @param message            the detail message.
+   * @param writableStackTrace whether the stack trace should be filled in.
+   */
+  public InvalidJsonException(String message, boolean writableStackTrace) {
+    super(message, null, false, writableStackTrace);
+  }
 }
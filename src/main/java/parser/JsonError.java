@@ -0,0 +1,113 @@
+package parser;
+
+/**
+ * This class describes why and where a parser found its input to be
+ * invalid. It is only created when asked for, through
+ * AbstractJsonParser.error().
+ *
+ * <p>The offset counts the characters or bytes sent in since the parser
+ * was created, starting from 0. Lines and columns start from 1, and a
+ * column counts characters or bytes the same way as the offset.
+ */
+public final class JsonError {
+  /**
+   * This enum represents the kinds of errors.
+   */
+  public enum Kind {
+    /**
+     * A character that does not fit the structure of the json.
+     */
+    UNEXPECTED_CHARACTER,
+
+    /**
+     * A key character that is neither a letter nor a digit, or a key
+     * that does not start with a letter.
+     */
+    INVALID_KEY,
+
+    /**
+     * Anything but ' ' after the root object is closed.
+     */
+    TRAILING_INPUT
+  }
+
+  private final Kind kind;
+  private final long offset;
+  private final long line;
+  private final long column;
+  private final String expected;
+
+  /**
+   * This is the constructor for the JsonError class.
+   *
+   * @param kind     the kind of error.
+   * @param offset   the offset of the rejected input.
+   * @param line     the line of the rejected input.
+   * @param column   the column of the rejected input.
+   * @param expected a description of the input that was allowed instead.
+   */
+  public JsonError(Kind kind, long offset, long line, long column, String expected) {
+    this.kind = kind;
+    this.offset = offset;
+    this.line = line;
+    this.column = column;
+    this.expected = expected;
+  }
+
+  /**
+   * This method gives the kind of error.
+   *
+   * @return the Kind.
+   */
+  public Kind kind() {
+    return kind;
+  }
+
+  /**
+   * This method gives the offset of the rejected input.
+   *
+   * @return the offset, starting from 0.
+   */
+  public long offset() {
+    return offset;
+  }
+
+  /**
+   * This method gives the line of the rejected input.
+   *
+   * @return the line, starting from 1.
+   */
+  public long line() {
+    return line;
+  }
+
+  /**
+   * This method gives the column of the rejected input.
+   *
+   * @return the column, starting from 1.
+   */
+  public long column() {
+    return column;
+  }
+
+  /**
+   * This method describes the input that was allowed instead.
+   *
+   * @return a String such as "',' or '}'".
+   */
+  public String expected() {
+    return expected;
+  }
+
+  /**
+   * This method gives the String form of the error.
+   *
+   * @return a String such as "UNEXPECTED_CHARACTER at 12 (line 2, column 3),
+   *         expected ',' or '}'".
+   */
+  @Override
+  public String toString() {
+    return kind + " at " + offset + " (line " + line + ", column " + column
+            + "), expected " + expected;
+  }
+}
@@ -1,8 +1,16 @@
 package parser;
 
+import java.nio.CharBuffer;
+import java.util.Objects;
+
 /**
  * This interface represents a simple JSON parser that accepts input one
  * character at a time.
+ *
+ * <p>Whole buffers can be handed over with the bulk input methods. They
+ * behave exactly as if every character had been passed to
+ * {@link #input(char)} in order, and implementations are free to
+ * process them faster than that.
  */
 public interface JsonParser<T> {
   /**
@@ -15,6 +23,59 @@ public interface JsonParser<T> {
    */
   JsonParser<T> input(char c) throws InvalidJsonException;
 
+  /**
+   * Accept every character of a sequence as input, in order.
+   *
+   * @param chars the input characters
+   * @return the parser after handling all the provided characters
+   * @throws InvalidJsonException if the input causes the JSON to be invalid
+   */
+  default JsonParser<T> input(CharSequence chars) throws InvalidJsonException {
+    for (int i = 0; i < chars.length(); i++) {
+      input(chars.charAt(i));
+    }
+    return this;
+  }
+
+  /**
+   * Accept a range of a character array as input, in order.
+   *
+   * @param chars  the array holding the input characters
+   * @param offset index of the first character to be used
+   * @param length number of characters to be used
+   * @return the parser after handling all the provided characters
+   * @throws InvalidJsonException if the input causes the JSON to be invalid
+   * @throws IndexOutOfBoundsException if the range is outside the array
+   */
+  default JsonParser<T> input(char[] chars, int offset, int length)
+          throws InvalidJsonException {
+    Objects.checkFromIndexSize(offset, length, chars.length);
+    for (int i = offset; i < offset + length; i++) {
+      input(chars[i]);
+    }
+    return this;
+  }
+
+  /**
+   * Accept the remaining characters of a buffer as input, in order.
+   * The buffer is always drained, i.e. its position is moved to its limit
+   * even when the input turns out to be invalid.
+   *
+   * @param chars the buffer holding the input characters
+   * @return the parser after handling all the provided characters
+   * @throws InvalidJsonException if the input causes the JSON to be invalid
+   */
+  default JsonParser<T> input(CharBuffer chars) throws InvalidJsonException {
+    try {
+      while (chars.hasRemaining()) {
+        input(chars.get());
+      }
+    } finally {
+      chars.position(chars.limit());
+    }
+    return this;
+  }
+
   /**
    * Provide the output of the parser, given all the inputs it has been provided
    * so far. The content and format of this output is defined by individual
@@ -0,0 +1,582 @@
+package parser;
+
+import static parser.TransitionTable.ARRAY_AFTER;
+import static parser.TransitionTable.ARRAY_FRAME;
+import static parser.TransitionTable.ARRAY_STRING;
+import static parser.TransitionTable.ARRAY_VALUE;
+import static parser.TransitionTable.DONE;
+import static parser.TransitionTable.EMPTY;
+import static parser.TransitionTable.KEY;
+import static parser.TransitionTable.KEY_END;
+import static parser.TransitionTable.KEY_START;
+import static parser.TransitionTable.OBJECT_AFTER;
+import static parser.TransitionTable.OBJECT_COMMA;
+import static parser.TransitionTable.OBJECT_FRAME;
+import static parser.TransitionTable.OBJECT_OPEN;
+import static parser.TransitionTable.OBJECT_STRING;
+import static parser.TransitionTable.OBJECT_VALUE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * This class validates a large UTF-8 json document on several threads.
+ *
+ * <p>The document is split into chunks that are handled on a ForkJoinPool
+ * in two passes, with a short sequential merge in between.
+ *
+ * <p>The first pass summarizes every chunk on its own. As strings have no
+ * escapes, the only thing a chunk cannot tell by itself is whether it
+ * starts inside a string, so it is summarized both ways. Each summary holds
+ * the number of closing brackets that match opening brackets of earlier
+ * chunks, the kinds of the brackets it leaves open, and the last tokens
+ * that tell the state of the parser after the chunk.
+ *
+ * <p>The merge then works out, chunk after chunk, whether it starts inside
+ * a string from the number of quotes before it, and so the state the parser
+ * is in at its start, together with the containers it may close. A chunk
+ * may also start in the middle of a number or a literal. Their states are
+ * not told by the last token, so the characters of the number or literal
+ * read so far are run again before the chunk, from the state before it.
+ *
+ * <p>The second pass runs a parser from that state over every chunk. The
+ * parsers are the same as for sequential input, so the status, the error
+ * offset and the error of the result are those of a single parser that was
+ * sent the whole document. The result is the parser of the chunk holding
+ * the first error, or the parser of the last chunk.
+ *
+ * <p>Only parsers that do not build anything out of the input, such as
+ * JsonValidator, can be used, as every parser only sees its own chunk.
+ *
+ * @param <P> Type of the parsers that validate the chunks.
+ */
+public final class ParallelValidation<P extends AbstractJsonParser<?>> {
+  /**
+   * The default size of the chunks in bytes.
+   */
+  public static final int DEFAULT_CHUNK = 1 << 20;
+
+  // Tokens of a summary, besides the bytes themselves.
+  private static final int NONE = -1;
+  private static final int OPEN_QUOTE = 256;
+  private static final int SCALAR = 257;
+
+  private final Supplier<P> factory;
+  private final ForkJoinPool pool;
+  private final int chunk;
+
+  /**
+   * This is the constructor for the ParallelValidation class.
+   *
+   * @param factory creates the parsers, e.g. JsonValidator::new.
+   * @param pool    the pool the chunks are handled on.
+   * @param chunk   the size of the chunks in bytes.
+   * @throws IllegalArgumentException if chunk is not positive.
+   */
+  public ParallelValidation(Supplier<P> factory, ForkJoinPool pool, int chunk) {
+    if (chunk <= 0) {
+      throw new IllegalArgumentException("The chunk size has to be positive");
+    }
+    this.factory = factory;
+    this.pool = pool;
+    this.chunk = chunk;
+  }
+
+  /**
+   * This method validates the remaining bytes of the buffer. The position
+   * of the buffer is not moved.
+   *
+   * @param bytes the buffer holding the document.
+   * @return the parser telling the status of the document.
+   */
+  public P validate(ByteBuffer bytes) {
+    return window(new Prefix(), bytes, bytes.position(), bytes.limit(), 0, true);
+  }
+
+  /**
+   * This method validates the content of a file.
+   * See validate(Path, int).
+   *
+   * @param path the file to be validated.
+   * @return the parser telling the status of the document.
+   * @throws IOException if mapping the file fails.
+   */
+  public P validate(Path path) throws IOException {
+    return validate(path, AbstractJsonParser.DEFAULT_WINDOW);
+  }
+
+  /**
+   * This method validates the content of a file. The file is memory-mapped
+   * one window at a time, and the chunks of each window are validated in
+   * parallel before the next window is mapped.
+   *
+   * @param path   the file to be validated.
+   * @param window the size of each mapped window in bytes.
+   * @return the parser telling the status of the document.
+   * @throws IOException if mapping the file fails.
+   * @throws IllegalArgumentException if window is not positive.
+   */
+  public P validate(Path path, int window) throws IOException {
+    if (window <= 0) {
+      throw new IllegalArgumentException("The window size has to be positive");
+    }
+    Prefix prefix = new Prefix();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      P parser;
+      do {
+        // A window reaches a few bytes further, so that its end can be
+        // moved past a multi-byte sequence and the byte after it be seen.
+        int length = (int) Math.min(window, size - position);
+        int mapped = (int) Math.min((long) length + 4, size - position);
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+        boolean last = position + length == size;
+        int end = last ? length : boundary(bytes, length, mapped);
+        parser = window(prefix, bytes, 0, end, position, position + end == size);
+        position += end;
+      } while (position < size && parser.status() != Status.INVALID);
+      return parser;
+    }
+  }
+
+  /**
+   * This method validates a window of the document.
+   *
+   * @param prefix what is known about the document before the window.
+   * @param bytes  the buffer holding the window.
+   * @param from   index of the first byte of the window.
+   * @param to     index after the last byte of the window.
+   * @param offset the offset of the first byte in the document.
+   * @param last   whether the window ends the document.
+   * @return the parser of the first invalid chunk, or of the last chunk.
+   */
+  private P window(Prefix prefix, ByteBuffer bytes, int from, int to, long offset, boolean last) {
+    List<Chunk> chunks = new ArrayList<>();
+    int start = from;
+    do {
+      int end = to - start <= chunk ? to : boundary(bytes, start + chunk, to);
+      chunks.add(new Chunk(bytes, start, end, offset + start - from));
+      start = end;
+    } while (start < to);
+    chunks.get(chunks.size() - 1).last = last;
+
+    run(chunks, Chunk::summarize);
+    for (Chunk c : chunks) {
+      prefix.enter(c);
+    }
+    run(chunks, Chunk::validate);
+
+    for (Chunk c : chunks) {
+      if (c.parser.status() == Status.INVALID) {
+        return c.parser;
+      }
+    }
+    return chunks.get(chunks.size() - 1).parser;
+  }
+
+  /**
+   * This method moves a chunk boundary past the continuation bytes of a
+   * multi-byte sequence, so that no sequence is split between two chunks.
+   * A sequence has at most 3 continuation bytes.
+   *
+   * @param bytes the buffer holding the document.
+   * @param at    the index the boundary would be at.
+   * @param limit the index the boundary may not go past.
+   * @return the index of the boundary.
+   */
+  private static int boundary(ByteBuffer bytes, int at, int limit) {
+    for (int moved = 0; moved < 3 && at < limit && (bytes.get(at) & 0xC0) == 0x80; moved++) {
+      at++;
+    }
+    return at;
+  }
+
+  /**
+   * This method handles every chunk on the pool and waits for all of them.
+   *
+   * @param chunks the chunks.
+   * @param action what is done with each chunk.
+   */
+  private void run(List<Chunk> chunks, Consumer<Chunk> action) {
+    pool.invoke(new Task(chunks, 0, chunks.size(), action));
+  }
+
+  /**
+   * This class splits a range of chunks in halves until a single chunk
+   * is left.
+   */
+  private final class Task extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Chunk> chunks;
+    private final int from;
+    private final int to;
+    private final Consumer<Chunk> action;
+
+    /**
+     * This is the constructor for the Task class.
+     *
+     * @param chunks the chunks.
+     * @param from   index of the first chunk of the range.
+     * @param to     index after the last chunk of the range.
+     * @param action what is done with each chunk.
+     */
+    Task(List<Chunk> chunks, int from, int to, Consumer<Chunk> action) {
+      this.chunks = chunks;
+      this.from = from;
+      this.to = to;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        action.accept(chunks.get(from));
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Task(chunks, from, middle, action), new Task(chunks, middle, to, action));
+    }
+  }
+
+  /**
+   * This class holds a chunk of the document, its summary and the parser
+   * that validates it.
+   *
+   * <p>The summary has two sides. Side 0 assumes the chunk starts outside
+   * a string and side 1 that it starts inside one, so a byte is outside a
+   * string on the side equal to the parity of the quotes before it.
+   */
+  private final class Chunk {
+    private final ByteBuffer bytes;
+    private final int start;
+    private final int end;
+    private final long offset;
+    private boolean last;
+
+    // The summary, see summarize().
+    private int quotes;
+    private long newLines;
+    private long lastNewLine = NONE;
+    private final int[] closes = new int[2];
+    private final byte[][] opens = {new byte[8], new byte[8]};
+    private final int[] openCount = new int[2];
+    private final int[] lastToken = {NONE, NONE};
+    private final boolean[] opened = new boolean[2];
+    private final int[] openBefore = {NONE, NONE};
+    private final boolean[] keyChars = new boolean[2];
+    private final int[] scalarStart = {NONE, NONE};
+    private final int[] scalarBefore = {NONE, NONE};
+
+    // Set by the merge.
+    private int side;
+    private int state;
+    private byte[] replay;
+    private byte[] frames;
+    private long lines;
+    private long lineStart;
+
+    private P parser;
+
+    /**
+     * This is the constructor for the Chunk class.
+     *
+     * @param bytes  the buffer holding the chunk.
+     * @param start  index of the first byte of the chunk.
+     * @param end    index after the last byte of the chunk.
+     * @param offset the offset of the first byte in the document.
+     */
+    Chunk(ByteBuffer bytes, int start, int end, long offset) {
+      this.bytes = bytes;
+      this.start = start;
+      this.end = end;
+      this.offset = offset;
+      this.last = false;
+    }
+
+    /**
+     * This method builds both sides of the summary in a single pass.
+     *
+     * <p>Per side, '{' and '[' outside strings are pushed on the opens
+     * stack, and '}' and ']' pop it or, if it is empty, count as closes.
+     * lastToken is the last byte outside strings that is not whitespace,
+     * with opening quotes told apart from closing ones. openBefore is the
+     * token before the last opening quote, which tells a key from a value,
+     * and keyChars tells if anything but '\n', '\t', '\r' and '\f' followed
+     * that quote. The letters, digits and '-', '+' and '.' of numbers and
+     * literals all count as a single SCALAR token. scalarStart is the index
+     * of the number or literal the chunk ends with, if any, and
+     * scalarBefore the token before it.
+     */
+    void summarize() {
+      int parity = 0;
+      for (int i = start; i < end; i++) {
+        byte b = bytes.get(i);
+        int inside = parity ^ 1;
+        if (isScalar(b)) {
+          if (scalarStart[parity] == NONE) {
+            scalarStart[parity] = i;
+            scalarBefore[parity] = lastToken[parity];
+          }
+          lastToken[parity] = SCALAR;
+          keyChars[inside] = true;
+          continue;
+        }
+        scalarStart[parity] = NONE;
+        switch (b) {
+          case '"':
+            openBefore[parity] = lastToken[parity];
+            opened[parity] = true;
+            keyChars[parity] = false;
+            lastToken[parity] = OPEN_QUOTE;
+            lastToken[inside] = '"';
+            parity = inside;
+            quotes++;
+            break;
+          case '\n':
+            newLines++;
+            lastNewLine = offset + i - start;
+            break;
+          case '\t':
+          case '\r':
+          case '\f':
+            break;
+          case ' ':
+            keyChars[inside] = true;
+            break;
+          case '{':
+            push(parity, OBJECT_FRAME);
+            lastToken[parity] = b;
+            keyChars[inside] = true;
+            break;
+          case '[':
+            push(parity, ARRAY_FRAME);
+            lastToken[parity] = b;
+            keyChars[inside] = true;
+            break;
+          case '}':
+          case ']':
+            if (openCount[parity] > 0) {
+              openCount[parity]--;
+            } else {
+              closes[parity]++;
+            }
+            lastToken[parity] = b;
+            keyChars[inside] = true;
+            break;
+          default:
+            lastToken[parity] = b;
+            keyChars[inside] = true;
+            break;
+        }
+      }
+    }
+
+    /**
+     * This method tells if a byte may be part of a number or a literal.
+     *
+     * @param b the byte.
+     * @return true for ASCII letters, digits, '-', '+' and '.'.
+     */
+    private boolean isScalar(byte b) {
+      return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+              || b == '-' || b == '+' || b == '.';
+    }
+
+    /**
+     * This method pushes an opening bracket on a side of the summary.
+     *
+     * @param side  the side of the summary.
+     * @param frame the kind of the container.
+     */
+    private void push(int side, byte frame) {
+      if (openCount[side] == opens[side].length) {
+        opens[side] = Arrays.copyOf(opens[side], openCount[side] * 2);
+      }
+      opens[side][openCount[side]++] = frame;
+    }
+
+    /**
+     * This method runs a parser over the chunk from the state found by
+     * the merge.
+     *
+     * <p>A key may end with an incomplete multi-byte sequence. The parser
+     * of a single document would reject it on the next byte, so the next
+     * byte is sent in as well.
+     */
+    void validate() {
+      P p = factory.get();
+      int before = replay == null ? 0 : replay.length;
+      p.resume(state, frames, offset - before, lines, lineStart);
+      try {
+        if (replay != null) {
+          p.feed(ByteBuffer.wrap(replay), 0, before);
+        }
+        p.feed(bytes, start, end);
+        if (!last && p.pendingBytes()) {
+          p.feed(bytes, end, end + 1);
+        }
+      } catch (InvalidJsonException e) {
+        // Kept in the parser.
+      }
+      parser = p;
+    }
+  }
+
+  /**
+   * This class holds what the merge knows about the document before
+   * the current chunk.
+   */
+  private static final class Prefix {
+    private boolean inString;
+    private int lastToken = NONE;
+    private int openBefore = NONE;
+    private boolean keyChars;
+    private byte[] frames = new byte[16];
+    private int depth;
+    private long lines;
+    private long lineStart;
+    private byte[] scalar = new byte[MAX_SCALAR];
+    private int scalarLength = NONE;
+    private int scalarBefore;
+
+    /**
+     * The longest number or literal that is run again. Within a part of a
+     * number a digit leads to the same state as the digit before it, so
+     * only the first digit of each part is kept, and a valid number or
+     * literal never needs more than 7 characters. Longer ones are invalid,
+     * and are rejected in the chunk they start in.
+     */
+    private static final int MAX_SCALAR = 16;
+
+    /**
+     * This method gives a chunk its start state and the containers it
+     * may close, then adds its summary to the prefix.
+     *
+     * @param c the next chunk.
+     */
+    void enter(ParallelValidation<?>.Chunk c) {
+      int side = inString ? 1 : 0;
+      c.side = side;
+      c.state = state();
+      c.replay = scalarLength == NONE ? null : Arrays.copyOf(scalar, scalarLength);
+      int count = Math.min(depth, c.closes[side] + 1);
+      c.frames = Arrays.copyOfRange(frames, depth - count, depth);
+      c.lines = lines;
+      c.lineStart = lineStart;
+
+      depth = Math.max(0, depth - c.closes[side]);
+      for (int i = 0; i < c.openCount[side]; i++) {
+        if (depth == frames.length) {
+          frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth++] = c.opens[side][i];
+      }
+      if (c.opened[side]) {
+        openBefore = c.openBefore[side] == NONE ? lastToken : c.openBefore[side];
+        keyChars = c.keyChars[side];
+      } else {
+        keyChars |= c.keyChars[side];
+      }
+      int from = c.scalarStart[side];
+      if (from == NONE) {
+        scalarLength = NONE;
+      } else {
+        if (from != c.start || scalarLength == NONE) {
+          scalarLength = 0;
+          scalarBefore = c.scalarBefore[side] == NONE ? lastToken : c.scalarBefore[side];
+        }
+        for (int i = from; i < c.end; i++) {
+          keep(c.bytes.get(i));
+        }
+      }
+      if (c.lastToken[side] != NONE) {
+        lastToken = c.lastToken[side];
+      }
+      inString ^= (c.quotes & 1) == 1;
+      lines += c.newLines;
+      if (c.lastNewLine != NONE) {
+        lineStart = c.lastNewLine + 1;
+      }
+    }
+
+    /**
+     * This method adds a byte to the number or literal the prefix ends
+     * with, unless it is a digit after a digit.
+     *
+     * @param b the byte.
+     */
+    private void keep(byte b) {
+      if (scalarLength == MAX_SCALAR || (isDigit(b) && scalarLength > 0
+              && isDigit(scalar[scalarLength - 1]))) {
+        return;
+      }
+      scalar[scalarLength++] = b;
+    }
+
+    /**
+     * This method tells if a byte is an ASCII digit.
+     *
+     * @param b the byte.
+     * @return true for '0' to '9'.
+     */
+    private static boolean isDigit(byte b) {
+      return b >= '0' && b <= '9';
+    }
+
+    /**
+     * This method gives the state of the parser after the prefix. It is
+     * only correct as long as the prefix is valid. After an invalid prefix
+     * the state and the frames of a chunk may not match, e.g. the chunk may
+     * close more containers than it is given. Its parser then turns invalid
+     * at some point, and its result is dropped, as the chunk holding the
+     * first error comes before it.
+     *
+     * @return the state.
+     */
+    private int state() {
+      int top = depth > 0 ? frames[depth - 1] : NONE;
+      if (inString) {
+        if (top == ARRAY_FRAME) {
+          return ARRAY_STRING;
+        }
+        if (openBefore == ':') {
+          return OBJECT_STRING;
+        }
+        return keyChars ? KEY : KEY_START;
+      }
+      if (depth == 0) {
+        return lastToken == NONE ? EMPTY : DONE;
+      }
+      // Inside a number or literal, the state before it.
+      switch (scalarLength == NONE ? lastToken : scalarBefore) {
+        case '{':
+          return OBJECT_OPEN;
+        case '[':
+          return ARRAY_VALUE;
+        case ':':
+          return OBJECT_VALUE;
+        case ',':
+          return top == OBJECT_FRAME ? OBJECT_COMMA : ARRAY_VALUE;
+        case '"':
+          if (top == ARRAY_FRAME) {
+            return ARRAY_AFTER;
+          }
+          return openBefore == ':' ? OBJECT_AFTER : KEY_END;
+        default:
+          return top == OBJECT_FRAME ? OBJECT_AFTER : ARRAY_AFTER;
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package parser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * This class represents a bounded pool of parsers that can be shared
+ * between threads.
+ *
+ * <p>acquire() hands out an idle parser, or a new one if there is none,
+ * and never waits. release() resets the parser and keeps it for the next
+ * acquire(), unless the pool already holds as many idle parsers as its
+ * capacity, in which case the parser is dropped.
+ *
+ * <p>Servers that handle each request on a single thread can use
+ * perThread() instead, which keeps one parser per thread and needs no
+ * release() at all.
+ *
+ * @param <P> Type of the parsers in the pool.
+ */
+public class ParserPool<P extends AbstractJsonParser<?>> {
+  private final Supplier<P> factory;
+  private final BlockingQueue<P> idle;
+
+  /**
+   * This is the constructor for the ParserPool class.
+   *
+   * @param factory  creates the parsers, e.g. JsonValidator::new.
+   * @param capacity the largest number of idle parsers kept.
+   * @throws IllegalArgumentException if capacity is not positive.
+   */
+  public ParserPool(Supplier<P> factory, int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity has to be positive");
+    }
+    this.factory = factory;
+    this.idle = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * This method hands out a parser in the Empty state.
+   *
+   * @return an idle parser, or a new one if there is none.
+   */
+  public P acquire() {
+    P parser = idle.poll();
+    return parser != null ? parser : factory.get();
+  }
+
+  /**
+   * This method gives a parser back to the pool. The parser must not
+   * be used by the caller any more.
+   *
+   * @param parser the parser to be given back.
+   */
+  public void release(P parser) {
+    parser.reset();
+    idle.offer(parser);
+  }
+
+  /**
+   * This method gives the number of idle parsers in the pool.
+   *
+   * @return the number of idle parsers.
+   */
+  public int idle() {
+    return idle.size();
+  }
+
+  /**
+   * This method gives a Supplier that keeps one parser per thread.
+   * Each call resets and returns the parser of the calling thread.
+   *
+   * @param factory creates the parsers, e.g. JsonValidator::new.
+   * @param <P>     Type of the parsers.
+   * @return the Supplier of the parser of the calling thread.
+   */
+  public static <P extends AbstractJsonParser<?>> Supplier<P> perThread(Supplier<P> factory) {
+    ThreadLocal<P> local = ThreadLocal.withInitial(factory);
+    return () -> {
+      P parser = local.get();
+      parser.reset();
+      return parser;
+    };
+  }
+}
@@ -0,0 +1,51 @@
+package parser;
+
+/**
+ * This enum represents the status of the json that has been sent
+ * into a parser so far.
+ *
+ * <p>Its String form is the one used in the parsers' output
+ * i.e. "Empty", "Valid", "Incomplete" or "Invalid".
+ */
+public enum Status {
+  /**
+   * Nothing but whitespace has been sent in yet.
+   */
+  EMPTY("Empty"),
+
+  /**
+   * The root object has been closed. Only spaces may follow.
+   */
+  VALID("Valid"),
+
+  /**
+   * The json is correct so far but the root object is still open.
+   */
+  INCOMPLETE("Incomplete"),
+
+  /**
+   * A character has been rejected. Further input is ignored.
+   */
+  INVALID("Invalid");
+
+  private final String label;
+
+  /**
+   * This is the constructor for the Status enum.
+   *
+   * @param label the String form of the status.
+   */
+  Status(String label) {
+    this.label = label;
+  }
+
+  /**
+   * Returns the String form of the status.
+   *
+   * @return a String denoting the status.
+   */
+  @Override
+  public String toString() {
+    return label;
+  }
+}
@@ -0,0 +1,333 @@
+package parser;
+
+/**
+ * This class holds the transition table of the state machine behind
+ * AbstractJsonParser.
+ *
+ * <p>Every character is first mapped to one of a few character classes
+ * through the CLASSES array. The state and the class then give a single
+ * entry of the TABLE array, that packs the next state together with the
+ * action the parser has to take, if any.
+ *
+ * <p>The states stand for the last significant token that was read.
+ * States inside an object or an array are kept apart, so that only
+ * closing a container has to look at the frames stack to find out what
+ * the enclosing container is. The next state in the entries for closing
+ * a container is replaced by the parser accordingly.
+ *
+ * <p>Numbers and the literals true, false and null have no closing
+ * character, so their states are shared by objects and arrays. They end
+ * with the character that follows them, which the parser then runs again
+ * from the state after a value of the enclosing container. The table only
+ * knows letters, so the parser checks that a literal is spelled right, and
+ * that a number has no leading zero.
+ */
+final class TransitionTable {
+  // Character classes.
+  static final int OTHER = 0;
+  static final int SPACE = 1;
+  static final int CONTROL = 2;
+  static final int OPEN_BRACE = 3;
+  static final int CLOSE_BRACE = 4;
+  static final int OPEN_BRACKET = 5;
+  static final int CLOSE_BRACKET = 6;
+  static final int QUOTE = 7;
+  static final int COLON = 8;
+  static final int COMMA = 9;
+  static final int LETTER = 10;
+  static final int DIGIT = 11;
+  static final int NEW_LINE = 12;
+  static final int MINUS = 13;
+  static final int PLUS = 14;
+  static final int DOT = 15;
+  static final int EXPONENT = 16;       // 'e' and 'E'
+  static final int CLASS_COUNT = 17;
+
+  // States.
+  static final int EMPTY = 0;          // nothing but whitespace yet
+  static final int OBJECT_OPEN = 1;    // after '{'
+  static final int OBJECT_COMMA = 2;   // after ',' in an object
+  static final int KEY_START = 3;      // after the '"' opening a key
+  static final int KEY = 4;            // inside a key
+  static final int KEY_END = 5;        // after the '"' closing a key
+  static final int OBJECT_VALUE = 6;   // after ':'
+  static final int OBJECT_STRING = 7;  // inside a value string of an object
+  static final int OBJECT_AFTER = 8;   // after a value of an object
+  static final int ARRAY_VALUE = 9;    // after '[' or ',' in an array
+  static final int ARRAY_STRING = 10;  // inside a value string of an array
+  static final int ARRAY_AFTER = 11;   // after a value of an array
+  static final int DONE = 12;          // after the root object is closed
+  static final int ERROR = 13;         // after an invalid character
+  // The states of numbers and literals come last, from LITERAL on.
+  static final int LITERAL = 14;       // inside true, false or null
+  static final int NUMBER_MINUS = 15;  // after the '-' of a number
+  static final int NUMBER_ZERO = 16;   // after a leading '0'
+  static final int NUMBER_INT = 17;    // inside the integer part
+  static final int NUMBER_DOT = 18;    // after the '.'
+  static final int NUMBER_FRACTION = 19; // inside the fraction
+  static final int NUMBER_E = 20;      // after the 'e'
+  static final int NUMBER_E_SIGN = 21; // after the sign of the exponent
+  static final int NUMBER_EXPONENT = 22; // inside the exponent
+  static final int STATE_COUNT = 23;
+
+  // Actions, kept in the low bits of a table entry.
+  static final int NONE = 0;
+  static final int FAIL = 1;
+  static final int CHAR = 2;
+  static final int OPEN_OBJECT = 3;
+  static final int CLOSE_OBJECT = 4;
+  static final int OPEN_ARRAY = 5;
+  static final int CLOSE_ARRAY = 6;
+  static final int END_KEY = 7;
+  static final int END_VALUE = 8;
+  static final int LINE = 9;
+  static final int LITERAL_CHAR = 10;
+  static final int NUMBER_CHAR = 11;
+  static final int END_SCALAR = 12;
+  static final int ACTION_BITS = 4;
+  static final int ACTION_MASK = (1 << ACTION_BITS) - 1;
+
+  // Frames, i.e. the kind of an open container.
+  static final byte OBJECT_FRAME = 0;
+  static final byte ARRAY_FRAME = 1;
+
+  static final byte[] CLASSES = new byte[128];
+  static final int[] TABLE = new int[STATE_COUNT * CLASS_COUNT];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) {
+      CLASSES[c] = LETTER;
+      CLASSES[c - 'a' + 'A'] = LETTER;
+    }
+    CLASSES['e'] = EXPONENT;
+    CLASSES['E'] = EXPONENT;
+    for (char c = '0'; c <= '9'; c++) {
+      CLASSES[c] = DIGIT;
+    }
+    CLASSES[' '] = SPACE;
+    CLASSES['\n'] = NEW_LINE;
+    CLASSES['\t'] = CONTROL;
+    CLASSES['\r'] = CONTROL;
+    CLASSES['\f'] = CONTROL;
+    CLASSES['{'] = OPEN_BRACE;
+    CLASSES['}'] = CLOSE_BRACE;
+    CLASSES['['] = OPEN_BRACKET;
+    CLASSES[']'] = CLOSE_BRACKET;
+    CLASSES['"'] = QUOTE;
+    CLASSES[':'] = COLON;
+    CLASSES[','] = COMMA;
+    CLASSES['-'] = MINUS;
+    CLASSES['+'] = PLUS;
+    CLASSES['.'] = DOT;
+
+    for (int state = 0; state < STATE_COUNT; state++) {
+      for (int cls = 0; cls < CLASS_COUNT; cls++) {
+        if (state == ERROR) {
+          on(state, cls, ERROR, NONE);
+        } else {
+          on(state, cls, ERROR, FAIL);
+        }
+      }
+    }
+
+    // '\n', '\t', '\r' and '\f' are skipped everywhere but after the root
+    // object, and ' ' is skipped everywhere outside keys and values.
+    // '\n' is only counted, for the position of errors.
+    for (int state = EMPTY; state < DONE; state++) {
+      on(state, CONTROL, state, NONE);
+      on(state, NEW_LINE, state, LINE);
+      if (state != KEY_START && state != KEY
+              && state != OBJECT_STRING && state != ARRAY_STRING) {
+        on(state, SPACE, state, NONE);
+      }
+    }
+    on(DONE, SPACE, DONE, NONE);
+
+    on(EMPTY, OPEN_BRACE, OBJECT_OPEN, OPEN_OBJECT);
+
+    on(OBJECT_OPEN, QUOTE, KEY_START, NONE);
+    on(OBJECT_OPEN, CLOSE_BRACE, OBJECT_AFTER, CLOSE_OBJECT);
+    on(OBJECT_COMMA, QUOTE, KEY_START, NONE);
+
+    on(KEY_START, LETTER, KEY, CHAR);
+    on(KEY_START, EXPONENT, KEY, CHAR);
+    on(KEY, LETTER, KEY, CHAR);
+    on(KEY, EXPONENT, KEY, CHAR);
+    on(KEY, DIGIT, KEY, CHAR);
+    on(KEY, QUOTE, KEY_END, END_KEY);
+    on(KEY_END, COLON, OBJECT_VALUE, NONE);
+
+    valueStart(OBJECT_VALUE, OBJECT_STRING);
+    string(OBJECT_STRING, OBJECT_AFTER);
+    on(OBJECT_AFTER, COMMA, OBJECT_COMMA, NONE);
+    on(OBJECT_AFTER, CLOSE_BRACE, OBJECT_AFTER, CLOSE_OBJECT);
+
+    valueStart(ARRAY_VALUE, ARRAY_STRING);
+    string(ARRAY_STRING, ARRAY_AFTER);
+    on(ARRAY_AFTER, COMMA, ARRAY_VALUE, NONE);
+    on(ARRAY_AFTER, CLOSE_BRACKET, ARRAY_AFTER, CLOSE_ARRAY);
+
+    on(LITERAL, LETTER, LITERAL, LITERAL_CHAR);
+    on(LITERAL, EXPONENT, LITERAL, LITERAL_CHAR);
+    scalarEnd(LITERAL);
+
+    on(NUMBER_MINUS, DIGIT, NUMBER_INT, NUMBER_CHAR);
+    on(NUMBER_ZERO, DOT, NUMBER_DOT, NUMBER_CHAR);
+    on(NUMBER_ZERO, EXPONENT, NUMBER_E, NUMBER_CHAR);
+    scalarEnd(NUMBER_ZERO);
+    on(NUMBER_INT, DIGIT, NUMBER_INT, NUMBER_CHAR);
+    on(NUMBER_INT, DOT, NUMBER_DOT, NUMBER_CHAR);
+    on(NUMBER_INT, EXPONENT, NUMBER_E, NUMBER_CHAR);
+    scalarEnd(NUMBER_INT);
+    on(NUMBER_DOT, DIGIT, NUMBER_FRACTION, NUMBER_CHAR);
+    on(NUMBER_FRACTION, DIGIT, NUMBER_FRACTION, NUMBER_CHAR);
+    on(NUMBER_FRACTION, EXPONENT, NUMBER_E, NUMBER_CHAR);
+    scalarEnd(NUMBER_FRACTION);
+    on(NUMBER_E, PLUS, NUMBER_E_SIGN, NUMBER_CHAR);
+    on(NUMBER_E, MINUS, NUMBER_E_SIGN, NUMBER_CHAR);
+    on(NUMBER_E, DIGIT, NUMBER_EXPONENT, NUMBER_CHAR);
+    on(NUMBER_E_SIGN, DIGIT, NUMBER_EXPONENT, NUMBER_CHAR);
+    on(NUMBER_EXPONENT, DIGIT, NUMBER_EXPONENT, NUMBER_CHAR);
+    scalarEnd(NUMBER_EXPONENT);
+  }
+
+  /**
+   * The input that is allowed in each state, for the error messages.
+   * Value strings take any input, so they never fail.
+   */
+  private static final String[] EXPECTED = {
+      "'{'",                      // EMPTY
+      "'\"' or '}'",              // OBJECT_OPEN
+      "'\"'",                     // OBJECT_COMMA
+      "a letter",                 // KEY_START
+      "a letter, a digit or '\"'", // KEY
+      "':'",                      // KEY_END
+      "'\"', '{', '[', a number, true, false or null", // OBJECT_VALUE
+      "any character",            // OBJECT_STRING
+      "',' or '}'",               // OBJECT_AFTER
+      "'\"', '{', '[', a number, true, false or null", // ARRAY_VALUE
+      "any character",            // ARRAY_STRING
+      "',' or ']'",               // ARRAY_AFTER
+      "' '",                      // DONE
+      "nothing",                  // ERROR
+      "true, false or null",      // LITERAL
+      "a digit",                  // NUMBER_MINUS
+      "'.', 'e', ',', '}' or ']'", // NUMBER_ZERO
+      "a digit, '.', 'e', ',', '}' or ']'", // NUMBER_INT
+      "a digit",                  // NUMBER_DOT
+      "a digit, 'e', ',', '}' or ']'", // NUMBER_FRACTION
+      "a digit, '+' or '-'",      // NUMBER_E
+      "a digit",                  // NUMBER_E_SIGN
+      "a digit, ',', '}' or ']'", // NUMBER_EXPONENT
+  };
+
+  /**
+   * This is a private constructor as the class only holds constants.
+   */
+  private TransitionTable() {
+  }
+
+  /**
+   * This method gives the character class of a character or code point.
+   * Characters outside ASCII can only be letters, digits or others.
+   *
+   * <p>Code points outside the Basic Multilingual Plane are others, as
+   * the two surrogates they are made of in a char input are, so a key is
+   * read the same way from chars and from UTF-8 bytes. This is also how
+   * JsonObject checks keys, a char at a time.
+   *
+   * @param c the character or code point to be classified.
+   * @return an int denoting the character class.
+   */
+  static int classOf(int c) {
+    if (c < 128) {
+      return CLASSES[c];
+    }
+    if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      return OTHER;
+    }
+    if (Character.isLetter(c)) {
+      return LETTER;
+    }
+    return Character.isDigit(c) ? DIGIT : OTHER;
+  }
+
+  /**
+   * This method gives the table entry for a state and a character class.
+   *
+   * @param state the current state.
+   * @param cls   the class of the current character.
+   * @return the next state and the action packed in an int.
+   */
+  static int entry(int state, int cls) {
+    return TABLE[state * CLASS_COUNT + cls];
+  }
+
+  /**
+   * This method describes the input that is allowed in a state.
+   *
+   * @param state the state.
+   * @return a String such as "',' or '}'".
+   */
+  static String expected(int state) {
+    return EXPECTED[state];
+  }
+
+  /**
+   * This method sets a single entry of the table.
+   *
+   * @param state  the state the entry is for.
+   * @param cls    the character class the entry is for.
+   * @param next   the state to move to.
+   * @param action the action to be taken.
+   */
+  private static void on(int state, int cls, int next, int action) {
+    TABLE[state * CLASS_COUNT + cls] = (next << ACTION_BITS) | action;
+  }
+
+  /**
+   * This method sets the entries of a state where a value is expected.
+   * A value is a string, an object, an array, a number or a literal.
+   * Arrays may not be empty, so a value is expected right after '[' as well.
+   *
+   * @param state  the state expecting a value.
+   * @param string the state for a string value read from there.
+   */
+  private static void valueStart(int state, int string) {
+    on(state, QUOTE, string, NONE);
+    on(state, OPEN_BRACE, OBJECT_OPEN, OPEN_OBJECT);
+    on(state, OPEN_BRACKET, ARRAY_VALUE, OPEN_ARRAY);
+    on(state, LETTER, LITERAL, LITERAL_CHAR);
+    on(state, MINUS, NUMBER_MINUS, NUMBER_CHAR);
+    on(state, DIGIT, NUMBER_INT, NUMBER_CHAR);
+  }
+
+  /**
+   * This method sets the entries that end a number or a literal. Only
+   * whitespace, ',', '}' and ']' may follow one. The next state in these
+   * entries is replaced by the parser.
+   *
+   * @param state the state inside the number or literal.
+   */
+  private static void scalarEnd(int state) {
+    for (int cls : new int[] {SPACE, CONTROL, NEW_LINE, COMMA, CLOSE_BRACE, CLOSE_BRACKET}) {
+      on(state, cls, state, END_SCALAR);
+    }
+  }
+
+  /**
+   * This method sets the entries of a state inside a value string.
+   * Any character but '"' belongs to the value.
+   *
+   * @param state the state inside the value string.
+   * @param after the state to move to once the value is closed.
+   */
+  private static void string(int state, int after) {
+    for (int cls = 0; cls < CLASS_COUNT; cls++) {
+      if (cls != CONTROL && cls != NEW_LINE) {
+        on(state, cls, state, CHAR);
+      }
+    }
+    on(state, QUOTE, after, END_VALUE);
+  }
+}
@@ -0,0 +1,100 @@
+package parser;
+
+/**
+ * This class decodes UTF-8 one byte at a time.
+ *
+ * <p>It is used by AbstractJsonParser for the bytes outside ASCII, which
+ * may only appear inside keys and values. The state of a partly read
+ * sequence is kept between calls, so a sequence may be split across
+ * several inputs.
+ *
+ * <p>Malformed sequences, overlong forms, surrogates and code points
+ * past U+10FFFF decode to U+FFFD.
+ */
+final class Utf8Decoder {
+  static final int NEED_MORE = -1;
+  static final int MALFORMED = -2;
+  static final int REPLACEMENT = 0xFFFD;
+
+  private int remaining;
+  private int codePoint;
+  private int minimum;
+
+  /**
+   * This is the constructor for the Utf8Decoder class.
+   * It starts with no partly read sequence.
+   */
+  Utf8Decoder() {
+    reset();
+  }
+
+  /**
+   * This method tells if a sequence has been started but not completed.
+   *
+   * @return true if more continuation bytes are expected.
+   */
+  boolean pending() {
+    return remaining > 0;
+  }
+
+  /**
+   * This method drops any partly read sequence.
+   */
+  void reset() {
+    this.remaining = 0;
+    this.codePoint = 0;
+    this.minimum = 0;
+  }
+
+  /**
+   * This method takes the next byte of the input, which must not be
+   * an ASCII byte unless a sequence is pending.
+   *
+   * <p>MALFORMED means a pending sequence was cut short by this byte. The
+   * sequence is dropped and the byte has to be given again on its own.
+   *
+   * @param b the next byte.
+   * @return the decoded code point, NEED_MORE or MALFORMED.
+   */
+  int accept(byte b) {
+    if (remaining > 0) {
+      if ((b & 0xC0) != 0x80) {
+        reset();
+        return MALFORMED;
+      }
+      codePoint = (codePoint << 6) | (b & 0x3F);
+      if (--remaining > 0) {
+        return NEED_MORE;
+      }
+      int cp = codePoint;
+      boolean valid = cp >= minimum && cp <= Character.MAX_CODE_POINT
+              && (cp < Character.MIN_SURROGATE || cp > Character.MAX_SURROGATE);
+      reset();
+      return valid ? cp : REPLACEMENT;
+    }
+
+    if ((b & 0xE0) == 0xC0) {
+      start(1, b & 0x1F, 0x80);
+    } else if ((b & 0xF0) == 0xE0) {
+      start(2, b & 0x0F, 0x800);
+    } else if ((b & 0xF8) == 0xF0) {
+      start(3, b & 0x07, 0x10000);
+    } else {
+      return REPLACEMENT;
+    }
+    return NEED_MORE;
+  }
+
+  /**
+   * This method starts a new sequence from its leading byte.
+   *
+   * @param count   the number of continuation bytes to follow.
+   * @param bits    the code point bits of the leading byte.
+   * @param minimum the smallest code point that needs this many bytes.
+   */
+  private void start(int count, int bits, int minimum) {
+    this.remaining = count;
+    this.codePoint = bits;
+    this.minimum = minimum;
+  }
+}
@@ -0,0 +1,592 @@
+package jsontree;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import parser.InvalidJsonException;
+import validator.JsonValidator;
+
+/**
+ * This is a class that runs the benchmarks of the suite. The unit tests
+ * only check behaviour, the measurements are all made here, in a JVM of
+ * their own. It is run after the classes are compiled with
+ * mvn test-compile:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes jsontree.Benchmarks [name ...]
+ * </pre>
+ *
+ * <p>With no names every benchmark is run, each in a JVM of its own as
+ * JMH forks, so that the code compiled for one does not slow down the
+ * next ones. Named ones are run in this JVM. A timed benchmark is first
+ * run WARMUP times so that the JIT has compiled it, then RUNS times, and
+ * the best and the median of those runs are printed. The result of every
+ * run is folded into a volatile field, so that the work cannot be dropped.
+ * A memory benchmark prints the heap its result retains, measured once
+ * collections no longer free anything.
+ */
+public final class Benchmarks {
+  private static final int WARMUP = 10;
+  private static final int RUNS = 10;
+
+  private static volatile int sink;
+
+  /**
+   * This is an interface for the code that is measured.
+   */
+  private interface Body {
+    /**
+     * This method runs the code once.
+     *
+     * @return the result of the run.
+     * @throws Exception if the code throws.
+     */
+    Object run() throws Exception;
+  }
+
+  /**
+   * This is an interface for the code that is measured on an input made
+   * for each run.
+   *
+   * @param <T> Type of the input.
+   */
+  private interface Measured<T> {
+    /**
+     * This method runs the code once.
+     *
+     * @param input the input of the run.
+     * @return the result of the run.
+     * @throws Exception if the code throws.
+     */
+    Object run(T input) throws Exception;
+  }
+
+  /**
+   * This is an interface for the code that makes the input of a run.
+   *
+   * @param <T> Type of the input.
+   */
+  private interface Setup<T> {
+    /**
+     * This method makes the input of a run.
+     *
+     * @return the input.
+     * @throws Exception if the code throws.
+     */
+    T make() throws Exception;
+  }
+
+  /**
+   * This is an interface for a benchmark, which prints what it measures.
+   */
+  private interface Benchmark {
+    /**
+     * This method runs the benchmark.
+     *
+     * @throws Exception if the benchmark throws.
+     */
+    void run() throws Exception;
+  }
+
+  /**
+   * This is a private constructor as the class is only run.
+   */
+  private Benchmarks() {
+  }
+
+  /**
+   * This method runs the benchmarks.
+   *
+   * @param args the names of the benchmarks to run, or none for all.
+   * @throws Exception if a benchmark throws.
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+    benchmarks.put("charInput", Benchmarks::charInput);
+    benchmarks.put("siblingObjects", Benchmarks::siblingObjects);
+    benchmarks.put("byteInput", Benchmarks::byteInput);
+    benchmarks.put("deepHash", Benchmarks::deepHash);
+    benchmarks.put("deepEquals", Benchmarks::deepEquals);
+    benchmarks.put("keyDictionary", Benchmarks::keyDictionary);
+    benchmarks.put("tapes", Benchmarks::tapes);
+    benchmarks.put("lazyValues", Benchmarks::lazyValues);
+    benchmarks.put("packedStrings", Benchmarks::packedStrings);
+    benchmarks.put("arena", Benchmarks::arena);
+    benchmarks.put("writePretty", Benchmarks::writePretty);
+    benchmarks.put("writeCompact", Benchmarks::writeCompact);
+    benchmarks.put("binary", Benchmarks::binary);
+    benchmarks.put("cachePretty", Benchmarks::cachePretty);
+
+    if (args.length == 0) {
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      for (String name : benchmarks.keySet()) {
+        new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Benchmarks.class.getName(), name).inheritIO().start().waitFor();
+      }
+      return;
+    }
+    for (String name : args) {
+      Benchmark benchmark = benchmarks.get(name);
+      if (benchmark == null) {
+        throw new IllegalArgumentException("No benchmark named " + name
+                + ", there are " + benchmarks.keySet());
+      }
+      System.out.println(name + ":");
+      benchmark.run();
+    }
+  }
+
+  /**
+   * This method prints the heap retained by what some code makes.
+   *
+   * @param label what is measured.
+   * @param setup the code.
+   * @throws Exception if the code throws.
+   */
+  private static void retained(String label, Setup<?> setup) throws Exception {
+    long before = usedHeap();
+    Object kept = setup.make();
+    long after = usedHeap();
+    sink += System.identityHashCode(kept);
+    System.out.printf("  %-40s %8d KiB retained%n", label, (after - before) / 1024);
+  }
+
+  /**
+   * This method gives the heap in use once a few more collections do not
+   * free anything.
+   *
+   * @return the number of bytes.
+   * @throws InterruptedException if the thread is interrupted.
+   */
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 10; i++) {
+      System.gc();
+      // The references cleared by a collection are handled on another thread.
+      Thread.sleep(20);
+      long now = runtime.totalMemory() - runtime.freeMemory();
+      if (now >= used && i >= 2) {
+        break;
+      }
+      used = Math.min(used, now);
+    }
+    return used;
+  }
+
+  /**
+   * This method makes one document of 20000 event documents in an array.
+   *
+   * @return the json text.
+   */
+  private static String eventArray() {
+    StringBuilder json = new StringBuilder("{\"events\":[");
+    for (int n = 0; n < 20000; n++) {
+      json.append(n == 0 ? "" : ",").append(JsonTreeBuilderTest.eventDocument(n));
+    }
+    return json.append("]}").toString();
+  }
+
+  /**
+   * This method builds a document of 20000 strings of 270 characters,
+   * with a 2 byte character in each 27.
+   *
+   * @return the json string.
+   */
+  private static String longStrings() {
+    StringBuilder json = new StringBuilder("{\"values\":[");
+    for (int i = 0; i < 20000; i++) {
+      json.append(i > 0 ? ", " : "").append("\"");
+      for (int j = 0; j < 10; j++) {
+        json.append("a long string value with \u00e9 ");
+      }
+      json.append("\"");
+    }
+    return json.append("]}").toString();
+  }
+
+  /**
+   * This method times some code, see the class comment, and prints the
+   * best and the median time in milliseconds.
+   *
+   * @param label what is timed.
+   * @param body  the code.
+   * @throws Exception if the code throws.
+   */
+  private static void time(String label, Body body) throws Exception {
+    time(label, () -> null, input -> body.run());
+  }
+
+  /**
+   * This method times some code on an input made for each run, which is
+   * not timed, and prints the best and the median time in milliseconds.
+   *
+   * @param <T>   Type of the input.
+   * @param label what is timed.
+   * @param setup makes the input of a run.
+   * @param body  the code.
+   * @throws Exception if the code throws.
+   */
+  private static <T> void time(String label, Setup<T> setup, Measured<T> body)
+          throws Exception {
+    for (int run = 0; run < WARMUP; run++) {
+      sink += System.identityHashCode(body.run(setup.make()));
+    }
+    long[] times = new long[RUNS];
+    for (int run = 0; run < RUNS; run++) {
+      T input = setup.make();
+      long start = System.nanoTime();
+      Object result = body.run(input);
+      times[run] = System.nanoTime() - start;
+      sink += System.identityHashCode(result);
+    }
+    Arrays.sort(times);
+    System.out.printf("  %-40s best %8.2f ms, median %8.2f ms%n", label,
+            times[0] / 1e6, times[RUNS / 2] / 1e6);
+  }
+
+  /**
+   * This method compares the character input methods: a char at a time,
+   * and in bulk from a String, a char[], a heap CharBuffer and a
+   * StringBuilder. The first document is 100k sibling objects, made of
+   * short tokens, the second one 20000 long strings.
+   *
+   * @throws Exception if the validation throws.
+   */
+  private static void charInput() throws Exception {
+    StringBuilder json = new StringBuilder("{\"siblings\":[");
+    for (int i = 0; i < 100000; i++) {
+      json.append(i > 0 ? "," : "").append("{\"a\":{},\"b\":\"value ").append(i)
+              .append("\",\"c\":").append(i).append("}");
+    }
+    charInput(json.append("]}"));
+    charInput(new StringBuilder(longStrings()));
+  }
+
+  /**
+   * This method compares the character input methods on a document.
+   *
+   * @param json the document.
+   * @throws Exception if the validation throws.
+   */
+  private static void charInput(StringBuilder json) throws Exception {
+    String text = json.toString();
+    char[] array = text.toCharArray();
+    System.out.println("  " + text.length() + " chars");
+
+    time("per char", () -> {
+      JsonValidator validator = new JsonValidator();
+      for (int i = 0; i < array.length; i++) {
+        validator.input(array[i]);
+      }
+      return validator.output();
+    });
+    time("String", () -> new JsonValidator().input(text).output());
+    time("char[]", () -> new JsonValidator().input(array, 0, array.length).output());
+    time("CharBuffer", () -> new JsonValidator().input(CharBuffer.wrap(array)).output());
+    time("StringBuilder", () -> new JsonValidator().input(json).output());
+  }
+
+  /**
+   * This method times building the tree of 100k sibling objects, where
+   * every close only looks at the frame of the object being closed.
+   *
+   * @throws Exception if the building throws.
+   */
+  private static void siblingObjects() throws Exception {
+    StringBuilder json = new StringBuilder("{\"siblings\":[");
+    for (int i = 0; i < 100000; i++) {
+      json.append(i > 0 ? "," : "").append("{\"a\":\"{").append(i).append("}\"}");
+    }
+    String siblings = json.append("]}").toString();
+    time("100k sibling objects", () -> new JsonTreeBuilder().input(siblings).output());
+  }
+
+  /**
+   * This method times validating and building a tree from a single byte
+   * input, on the document of 20000 events and on the document of long
+   * strings.
+   *
+   * @throws Exception if the parsing throws.
+   */
+  private static void byteInput() throws Exception {
+    for (String document : new String[] {eventArray(), longStrings()}) {
+      byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+      System.out.println("  " + bytes.length + " bytes");
+      time("validated", () -> new JsonValidator().input(bytes, 0, bytes.length).output());
+      time("built", () -> new JsonTreeBuilder().input(ByteBuffer.wrap(bytes)).output());
+    }
+  }
+
+  /**
+   * This method times hashing a 10 level deep tree with 59049 leaves the
+   * first time, and adding it to a HashSet once its hash code is cached.
+   *
+   * @throws Exception if the code throws.
+   */
+  private static void deepHash() throws Exception {
+    time("first hash of a 10 level tree", () -> JsonTest.deepTree(10, 3, "v"), JsonNode::hashCode);
+    JsonNode tree = JsonTest.deepTree(10, 3, "v");
+    time("100k HashSet adds of a hashed tree", () -> {
+      Set<JsonNode> set = new HashSet<>();
+      for (int i = 0; i < 100000; i++) {
+        set.add(tree);
+      }
+      return set;
+    });
+  }
+
+  /**
+   * This method times equals on distinct but equal 10 level deep trees
+   * the first time, and once the views of their objects are cached.
+   *
+   * @throws Exception if the code throws.
+   */
+  private static void deepEquals() throws Exception {
+    time("first equals of 10 level trees",
+            () -> new JsonNode[] {JsonTest.deepTree(10, 3, "v"), JsonTest.deepTree(10, 3, "v")},
+            trees -> trees[0].equals(trees[1]));
+    JsonNode tree = JsonTest.deepTree(10, 3, "v");
+    JsonNode same = JsonTest.deepTree(10, 3, "v");
+    tree.equals(same);
+    time("equals with cached views", () -> tree.equals(same));
+  }
+
+  /**
+   * This method prints the heap retained by 20000 repeated-schema
+   * documents built with and without a KeyDictionary.
+   *
+   * @throws Exception if the building throws.
+   */
+  private static void keyDictionary() throws Exception {
+    retained("20000 documents without dictionary", () -> eventTrees(null));
+    retained("20000 documents with dictionary", () -> eventTrees(new KeyDictionary()));
+  }
+
+  /**
+   * This method builds the trees of 20000 event documents.
+   *
+   * @param keys the dictionary of the builder, or null.
+   * @return the trees.
+   * @throws InvalidJsonException if the building throws.
+   */
+  private static List<JsonNode> eventTrees(KeyDictionary keys) throws InvalidJsonException {
+    List<JsonNode> trees = new ArrayList<>();
+    JsonTreeBuilder builder = new JsonTreeBuilder(keys);
+    for (int n = 0; n < 20000; n++) {
+      trees.add(builder.reset().input(JsonTreeBuilderTest.eventDocument(n)).output());
+    }
+    return trees;
+  }
+
+  /**
+   * This method prints the heap retained by 20000 repeated-schema
+   * documents as trees and as tapes, and the size of the arrays of the
+   * tapes.
+   *
+   * @throws Exception if the building throws.
+   */
+  private static void tapes() throws Exception {
+    retained("20000 documents as trees", () -> eventTrees(null));
+    long[] tapeBytes = new long[1];
+    retained("20000 documents as tapes", () -> {
+      List<JsonTape> tapes = new ArrayList<>();
+      JsonTapeBuilder builder = new JsonTapeBuilder();
+      for (int n = 0; n < 20000; n++) {
+        JsonTape tape = builder.reset().input(JsonTreeBuilderTest.eventDocument(n)).output();
+        tapeBytes[0] += tape.sizeInBytes();
+        tapes.add(tape);
+      }
+      return tapes;
+    });
+    System.out.println("  " + tapeBytes[0] / 1024 + " KiB of arrays in the tapes");
+  }
+
+  /**
+   * This method times building 20000 event documents from bytes with
+   * copied and with lazy values, reading one field of each.
+   *
+   * @throws Exception if the building throws.
+   */
+  private static void lazyValues() throws Exception {
+    List<byte[]> corpus = new ArrayList<>();
+    for (int n = 0; n < 20000; n++) {
+      corpus.add(JsonTreeBuilderTest.eventDocument(n).getBytes(StandardCharsets.UTF_8));
+    }
+    for (boolean lazy : new boolean[] {false, true}) {
+      JsonTreeBuilder builder = new JsonTreeBuilder(null, lazy);
+      time(lazy ? "20000 documents with lazy values" : "20000 documents with copied values", () -> {
+        int length = 0;
+        for (byte[] document : corpus) {
+          JsonObject tree = (JsonObject) builder.reset().input(ByteBuffer.wrap(document)).output();
+          length += ((JsonString) tree.get("eventField7")).value().length();
+        }
+        return length;
+      });
+    }
+  }
+
+  /**
+   * This method prints the heap retained by an array of 200000 short ids,
+   * packed as JsonTreeBuilder builds it and as JsonString nodes.
+   *
+   * @throws Exception if the building throws.
+   */
+  private static void packedStrings() throws Exception {
+    StringBuilder json = new StringBuilder("{\"ids\":[");
+    for (int n = 0; n < 200000; n++) {
+      json.append(n > 0 ? "," : "").append("\"id").append(n).append('"');
+    }
+    json.append("]}");
+    System.out.println("  " + json.length() / 1024 + " KiB of json");
+    retained("200000 ids packed", () -> new JsonTreeBuilder().input(json).output());
+    JsonObject packed = (JsonObject) new JsonTreeBuilder().input(json).output();
+    retained("200000 ids as JsonString nodes", () -> packed.freeze().thaw());
+  }
+
+  /**
+   * This method prints the heap retained by one document of 20000 events
+   * in an array, as a tree and as an arena, and the memory the arena
+   * takes outside the heap.
+   *
+   * @throws Exception if the building throws.
+   */
+  private static void arena() throws Exception {
+    String document = eventArray();
+    retained("20000 events as a tree", () -> new JsonTreeBuilder().input(document).output());
+    JsonArena[] arena = new JsonArena[1];
+    retained("20000 events as an arena", () -> {
+      arena[0] = new JsonArenaBuilder().input(document).output();
+      return arena[0];
+    });
+    System.out.println("  " + arena[0].sizeInBytes() / 1024 + " KiB outside the heap");
+    arena[0].close();
+  }
+
+  /**
+   * This method times prettyPrint and writePretty against printing each
+   * child to a String and indenting every line of it, on a 12 level deep
+   * tree.
+   *
+   * @throws Exception if the writing throws.
+   */
+  private static void writePretty() throws Exception {
+    JsonNode tree = JsonTest.deepTree(12, 3, "v");
+    System.out.println("  " + JsonTest.indentedCopies(tree).length() / 1024 + " KiB");
+    time("indented copies", () -> JsonTest.indentedCopies(tree));
+    time("prettyPrint", tree::prettyPrint);
+    time("writePretty", () -> {
+      StringBuilder out = new StringBuilder();
+      tree.writePretty(out, 2);
+      return out;
+    });
+  }
+
+  /**
+   * This method prints the size of the compact and the pretty form of
+   * 1000 event documents, and times writing them compact to a buffer and
+   * pretty printing them.
+   *
+   * @throws Exception if the writing throws.
+   */
+  private static void writeCompact() throws Exception {
+    List<JsonNode> trees = new ArrayList<>();
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    for (int n = 0; n < 1000; n++) {
+      trees.add(builder.reset().input(JsonTreeBuilderTest.eventDocument(n)).output());
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    long prettyBytes = 0;
+    long compactBytes = 0;
+    for (JsonNode tree : trees) {
+      buffer.clear();
+      tree.writeCompact(buffer);
+      compactBytes += buffer.position();
+      prettyBytes += tree.prettyPrint().getBytes(StandardCharsets.UTF_8).length;
+    }
+    System.out.println("  " + prettyBytes / 1024 + " KiB pretty printed, "
+            + compactBytes / 1024 + " KiB compact");
+    time("1000 documents written compact", () -> {
+      for (JsonNode tree : trees) {
+        buffer.clear();
+        tree.writeCompact(buffer);
+      }
+      return buffer;
+    });
+    time("1000 documents pretty printed", () -> {
+      int length = 0;
+      for (JsonNode tree : trees) {
+        length += tree.prettyPrint().length();
+      }
+      return length;
+    });
+  }
+
+  /**
+   * This method prints the size of 20000 event documents as text and as
+   * binary encodings, and times parsing them against decoding them.
+   *
+   * @throws Exception if the parsing throws.
+   */
+  private static void binary() throws Exception {
+    List<String> texts = new ArrayList<>();
+    List<ByteBuffer> encodings = new ArrayList<>();
+    long textBytes = 0;
+    long binaryBytes = 0;
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    for (int n = 0; n < 20000; n++) {
+      String json = JsonTreeBuilderTest.eventDocument(n);
+      byte[] encoding = JsonBinary.encode(builder.reset().input(json).output());
+      texts.add(json);
+      encodings.add(ByteBuffer.wrap(encoding));
+      textBytes += json.length();
+      binaryBytes += encoding.length;
+    }
+    System.out.println("  " + textBytes / 1024 + " KiB as text, "
+            + binaryBytes / 1024 + " KiB encoded");
+    time("20000 documents parsed", () -> {
+      JsonNode last = null;
+      for (String json : texts) {
+        last = builder.reset().input(json).output();
+      }
+      return last;
+    });
+    time("20000 documents decoded", () -> {
+      JsonNode last = null;
+      for (ByteBuffer encoding : encodings) {
+        encoding.clear();
+        last = JsonBinary.decode(encoding, true);
+      }
+      return last;
+    });
+  }
+
+  /**
+   * This method times printing a 12 level deep tree again after adding a
+   * pair deep down, with the containers of the top three levels cached,
+   * and from scratch.
+   *
+   * @throws Exception if the printing throws.
+   */
+  private static void cachePretty() throws Exception {
+    JsonObject root = JsonTest.cachedTree(12, 3);
+    root.prettyPrint();
+    JsonObject changed = (JsonObject) ((JsonArray) root.get("k0")).jsonArray.get(1);
+    int[] pairs = new int[1];
+    Setup<JsonObject> change = () -> {
+      changed.add("p" + pairs[0]++, new JsonString("x"));
+      return root;
+    };
+    time("printed again with cached containers", change, JsonObject::prettyPrint);
+    time("printed again from scratch", change, PrettyWriter::print);
+  }
+}
@@ -1,9 +1,32 @@
 package jsontree;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * This is a test class to test the functionalities of
@@ -399,4 +422,815 @@ public class JsonTest {
     assertNotEquals(root1, root2);
     assertNotEquals(root1.hashCode(), root2.hashCode());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testGetSmallObject() {
+    IJsonObject root = new JsonObject();
+    root.add("a", new JsonString("1"));
+    root.add("b", new JsonString("2"));
+    root.add("a", new JsonString("3"));
+
+    assertEquals(new JsonString("1"), root.get("a"));
+    assertEquals(new JsonString("2"), root.get("b"));
+    assertNull(root.get("c"));
+    assertNull(root.get(null));
+    assertEquals(Arrays.asList(new JsonString("1"), new JsonString("3")), root.getAll("a"));
+    assertEquals(Collections.emptyList(), root.getAll("c"));
+    assertTrue(root.containsKey("b"));
+    assertFalse(root.containsKey("c"));
+  }
+
+  @Test
+  public void testGetWideObject() {
+    IJsonObject root = new JsonObject();
+    for (int i = 0; i < 5000; i++) {
+      root.add("key" + i, new JsonString(String.valueOf(i)));
+      if (i % 100 == 0) {
+        // Lookups in between, so that the index is kept up to date by add.
+        assertEquals(new JsonString(String.valueOf(i)), root.get("key" + i));
+        root.add("dup", new JsonString(String.valueOf(i)));
+      }
+    }
+    String printed = root.prettyPrint();
+
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(new JsonString(String.valueOf(i)), root.get("key" + i));
+      assertTrue(root.containsKey("key" + i));
+    }
+    assertFalse(root.containsKey("key5000"));
+    List<JsonNode> dups = root.getAll("dup");
+    assertEquals(50, dups.size());
+    for (int i = 0; i < 50; i++) {
+      assertEquals(new JsonString(String.valueOf(i * 100)), dups.get(i));
+    }
+    assertEquals(new JsonString("0"), root.get("dup"));
+
+    // The order of the pairs is left as it is.
+    assertEquals(printed, root.prettyPrint());
+  }
+
+  @Test
+  public void testGetKeepsEquality() {
+    IJsonObject root1 = new JsonObject();
+    IJsonObject root2 = new JsonObject();
+    for (int i = 0; i < 20; i++) {
+      root1.add("k" + i, new JsonString("v"));
+      root2.add("k" + (19 - i), new JsonString("v"));
+    }
+    root1.get("k3");
+    assertEquals(root1, root2);
+    assertEquals(root1.hashCode(), root2.hashCode());
+  }
+
+  // This method looks keys up from several threads in objects that have
+  // no index yet, so that the threads race to build it.
+  @Test
+  public void testGetFromThreads() throws Exception {
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int round = 0; round < 200; round++) {
+      JsonObject root = new JsonObject();
+      for (int i = 0; i < 64; i++) {
+        root.add("key" + i, new JsonString(String.valueOf(i)));
+      }
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          int found = 0;
+          for (int i = 0; i < 64; i++) {
+            if (new JsonString(String.valueOf(i)).equals(root.get("key" + i))) {
+              found++;
+            }
+          }
+          return found;
+        }));
+      }
+      start.countDown();
+      for (Future<Integer> result : results) {
+        assertEquals(64, (int) result.get());
+      }
+    }
+    executor.shutdown();
+  }
+
+  // This method compares objects from several threads before their hash
+  // codes and pair views are cached, so that the threads race to cache
+  // them.
+  @Test
+  public void testEqualsFromThreads() throws Exception {
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int round = 0; round < 200; round++) {
+      JsonNode tree = deepTree(3, 4, "v");
+      JsonNode same = deepTree(3, 4, "v");
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          return tree.equals(same) && tree.hashCode() == same.hashCode();
+        }));
+      }
+      start.countDown();
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * This is a method that builds a tree of objects and arrays in turns,
+   * with the given depth and fan-out. It is shared with Benchmarks.
+   *
+   * @param depth  the number of levels below this one.
+   * @param fanOut the number of children of each container.
+   * @param salt   a string put in the leaves.
+   * @return the root of the tree.
+   */
+  static JsonNode deepTree(int depth, int fanOut, String salt) {
+    if (depth == 0) {
+      return new JsonString(salt);
+    }
+    if (depth % 2 == 0) {
+      IJsonObject object = new JsonObject();
+      for (int i = 0; i < fanOut; i++) {
+        object.add("k" + i, deepTree(depth - 1, fanOut, salt + i));
+      }
+      return object;
+    }
+    IJsonArray array = new JsonArray();
+    for (int i = 0; i < fanOut; i++) {
+      array.add(deepTree(depth - 1, fanOut, salt + i));
+    }
+    return array;
+  }
+
+  @Test
+  public void testHashCodeInvalidatedUpTheTree() {
+    IJsonObject root = new JsonObject();
+    IJsonArray list = new JsonArray();
+    IJsonObject leaf = new JsonObject();
+    leaf.add("a", new JsonString("b"));
+    list.add(leaf);
+    root.add("list", list);
+    int before = root.hashCode();
+
+    leaf.add("c", new JsonString("d"));
+    IJsonObject expected = new JsonObject();
+    IJsonArray expectedList = new JsonArray();
+    IJsonObject expectedLeaf = new JsonObject();
+    expectedLeaf.add("c", new JsonString("d"));
+    expectedLeaf.add("a", new JsonString("b"));
+    expectedList.add(expectedLeaf);
+    expected.add("list", expectedList);
+
+    assertNotEquals(before, root.hashCode());
+    assertEquals(expected, root);
+    assertEquals(expected.hashCode(), root.hashCode());
+  }
+
+  @Test
+  public void testHashCodeOfSharedNode() {
+    IJsonObject root1 = new JsonObject();
+    IJsonArray root2 = new JsonArray();
+    IJsonArray shared = new JsonArray();
+    shared.add(new JsonString("x"));
+    root1.add("s", shared);
+    root2.add(shared);
+    int hash1 = root1.hashCode();
+    int hash2 = root2.hashCode();
+
+    shared.add(new JsonString("y"));
+    assertNotEquals(hash1, root1.hashCode());
+    assertNotEquals(hash2, root2.hashCode());
+
+    IJsonArray copy = new JsonArray();
+    copy.add(new JsonString("x"));
+    copy.add(new JsonString("y"));
+    IJsonObject expected = new JsonObject();
+    expected.add("s", copy);
+    assertEquals(expected.hashCode(), root1.hashCode());
+  }
+
+  // A node added to many containers that are no longer used must not
+  // keep them alive.
+  @Test
+  public void testHashCodeContainersNotKept() throws InterruptedException {
+    IJsonArray shared = new JsonArray();
+    IJsonObject kept = new JsonObject();
+    kept.add("s", shared);
+    List<WeakReference<JsonNode>> dropped = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      IJsonArray container = new JsonArray();
+      container.add(shared);
+      container.hashCode();
+      dropped.add(new WeakReference<>(container));
+    }
+    int before = kept.hashCode();
+    for (int i = 0; i < 10 && dropped.stream().anyMatch(ref -> ref.get() != null); i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    for (WeakReference<JsonNode> ref : dropped) {
+      assertNull(ref.get());
+    }
+
+    shared.add(new JsonString("x"));
+    assertNotEquals(before, kept.hashCode());
+  }
+
+  // A change that drops the references to all the other containers of a
+  // node must leave it ready to be added to a new one.
+  @Test
+  public void testHashCodeContainersDroppedThenAdded() throws InterruptedException {
+    IJsonArray shared = new JsonArray();
+    IJsonObject kept = new JsonObject();
+    kept.add("s", shared);
+    List<WeakReference<JsonNode>> dropped = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      IJsonArray container = new JsonArray();
+      container.add(shared);
+      dropped.add(new WeakReference<>(container));
+    }
+    for (int i = 0; i < 10 && dropped.stream().anyMatch(ref -> ref.get() != null); i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    for (WeakReference<JsonNode> ref : dropped) {
+      assertNull(ref.get());
+    }
+    kept.hashCode();
+    shared.add(new JsonString("x"));
+
+    IJsonArray added = new JsonArray();
+    added.add(shared);
+    int before = added.hashCode();
+    shared.add(new JsonString("y"));
+    assertNotEquals(before, added.hashCode());
+    IJsonArray expected = new JsonArray();
+    expected.add(new JsonString("x"));
+    expected.add(new JsonString("y"));
+    assertEquals(expected, shared);
+  }
+
+  // The hash code of an empty object is 0, which must still count as
+  // cached, or a change below it would not reach the array above.
+  @Test
+  public void testHashCodeZeroInvalidated() {
+    IJsonArray root = new JsonArray();
+    IJsonObject empty = new JsonObject();
+    root.add(empty);
+    assertEquals(0, empty.hashCode());
+    int before = root.hashCode();
+
+    empty.add("a", new JsonString("b"));
+    IJsonArray expected = new JsonArray();
+    IJsonObject expectedLeaf = new JsonObject();
+    expectedLeaf.add("a", new JsonString("b"));
+    expected.add(expectedLeaf);
+    assertNotEquals(before, root.hashCode());
+    assertEquals(expected.hashCode(), root.hashCode());
+  }
+
+  // This method hashes 10 level deep trees, and uses them in a HashSet.
+  // The time it takes is measured in Benchmarks.deepHash.
+  @Test(timeout = 30000)
+  public void testHashCodeDeepTrees() {
+    JsonNode tree = deepTree(10, 3, "v");
+    JsonNode same = deepTree(10, 3, "v");
+
+    int first = tree.hashCode();
+    Set<JsonNode> set = new HashSet<>();
+    for (int i = 0; i < 100000; i++) {
+      set.add(tree);
+      assertEquals(first, tree.hashCode());
+    }
+
+    assertEquals(first, same.hashCode());
+    assertTrue(set.contains(same));
+  }
+
+  @Test
+  public void testEqualsWithCollidingPairs() {
+    // "Aa" and "BB" have the same hash code, so their pairs collide.
+    IJsonObject root1 = new JsonObject();
+    IJsonObject root2 = new JsonObject();
+    root1.add("Aa", new JsonString("x"));
+    root1.add("BB", new JsonString("y"));
+    root2.add("Aa", new JsonString("y"));
+    root2.add("BB", new JsonString("x"));
+    assertNotEquals(root1, root2);
+
+    IJsonObject root3 = new JsonObject();
+    IJsonObject root4 = new JsonObject();
+    root3.add("Aa", new JsonString("x"));
+    root3.add("BB", new JsonString("x"));
+    root3.add("Aa", new JsonString("x"));
+    root4.add("BB", new JsonString("x"));
+    root4.add("Aa", new JsonString("x"));
+    root4.add("Aa", new JsonString("x"));
+    assertEquals(root3, root4);
+
+    IJsonObject root5 = new JsonObject();
+    root5.add("BB", new JsonString("x"));
+    root5.add("BB", new JsonString("x"));
+    root5.add("Aa", new JsonString("x"));
+    assertNotEquals(root3, root5);
+  }
+
+  @Test
+  public void testEqualsAfterAdd() {
+    IJsonObject root1 = new JsonObject();
+    IJsonObject root2 = new JsonObject();
+    IJsonArray list = new JsonArray();
+    list.add(new JsonString("a"));
+    root1.add("l", list);
+    root2.add("l", new JsonArray());
+    assertNotEquals(root1, root2);
+
+    ((IJsonArray) root2.get("l")).add(new JsonString("a"));
+    assertEquals(root1, root2);
+    list.add(new JsonString("b"));
+    assertNotEquals(root1, root2);
+    assertNotEquals(root2, root1);
+  }
+
+  // This method compares distinct but equal 10 level deep trees. The time
+  // it takes is measured in Benchmarks.deepEquals.
+  @Test(timeout = 30000)
+  public void testEqualsDeepTrees() {
+    JsonNode tree = deepTree(10, 3, "v");
+    JsonNode same = deepTree(10, 3, "v");
+    JsonNode other = deepTree(10, 3, "w");
+
+    assertEquals(tree, same);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(tree, same);
+      assertNotEquals(tree, other);
+    }
+  }
+
+  @Test
+  public void testFreezeAndThaw() {
+    JsonNode tree = deepTree(4, 3, "v");
+    JsonNode frozen = tree.freeze();
+
+    assertTrue(frozen instanceof PersistentJsonObject);
+    assertEquals(tree.prettyPrint(), frozen.prettyPrint());
+    assertEquals(tree.hashCode(), frozen.hashCode());
+    assertEquals(deepTree(4, 3, "v").freeze(), frozen);
+    assertNotEquals(deepTree(4, 3, "w").freeze(), frozen);
+    assertNotEquals(tree, frozen);
+    assertEquals(tree, ((PersistentJsonObject) frozen).thaw());
+    assertTrue(frozen == frozen.freeze());
+  }
+
+  @Test
+  public void testPersistentObjectWith() {
+    PersistentJsonObject v1 = PersistentJsonObject.empty()
+            .with("a", new JsonString("1"))
+            .with("b", deepTree(3, 2, "x"))
+            .with("c", new JsonString("3"));
+    PersistentJsonObject v2 = v1.with("a", new JsonString("one"));
+    PersistentJsonObject v3 = v2.with("d", new JsonString("4"));
+
+    // Older versions are left as they were.
+    assertEquals(new JsonString("1"), v1.get("a"));
+    assertEquals(new JsonString("one"), v2.get("a"));
+    assertFalse(v2.containsKey("d"));
+    assertEquals(3, v2.size());
+    assertEquals(4, v3.size());
+
+    // Replacing keeps the position, and untouched subtrees are shared.
+    assertTrue(v2.prettyPrint().startsWith("{\n  \"a\":\"one\",\n  \"b\":"));
+    assertTrue(v1.get("b") == v3.get("b"));
+
+    // A change below the root only copies the path down to it.
+    PersistentJsonArray b = (PersistentJsonArray) v3.get("b");
+    PersistentJsonObject v4 = v3.with("b", b.with(0, new JsonString("new")));
+    assertTrue(b.get(1) == ((PersistentJsonArray) v4.get("b")).get(1));
+    assertTrue(v3.get("c") == v4.get("c"));
+    assertNotEquals(v3, v4);
+    assertEquals(v3, v4.with("b", b));
+
+    try {
+      v1.with("1a", new JsonString(""));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPersistentObjectEquality() {
+    PersistentJsonObject ab = PersistentJsonObject.empty()
+            .with("a", new JsonString("1")).with("b", new JsonString("2"));
+    PersistentJsonObject ba = PersistentJsonObject.empty()
+            .with("b", new JsonString("2")).with("a", new JsonString("1"));
+    assertEquals(ab, ba);
+    assertEquals(ab.hashCode(), ba.hashCode());
+    assertNotEquals(ab, ba.with("a", new JsonString("2")));
+
+    // Repeated keys survive freezing and count for equality.
+    JsonObject twice = new JsonObject();
+    twice.add("a", new JsonString("1"));
+    twice.add("a", new JsonString("2"));
+    JsonObject reversed = new JsonObject();
+    reversed.add("a", new JsonString("2"));
+    reversed.add("a", new JsonString("1"));
+    assertEquals(2, twice.freeze().size());
+    assertEquals(new JsonString("1"), twice.freeze().get("a"));
+    assertEquals(twice.freeze(), reversed.freeze());
+    assertNotEquals(twice.freeze(), reversed.freeze().with("a", new JsonString("3")));
+  }
+
+  @Test
+  public void testPersistentObjectCollidingKeys() {
+    // "Aa" and "BB" have the same hash code.
+    PersistentJsonObject object = PersistentJsonObject.empty();
+    for (int i = 0; i < 1000; i++) {
+      object = object.with("Aa" + i, new JsonString("a" + i)).with("BB" + i, new JsonString("b" + i));
+    }
+    object = object.with("Aa7", new JsonString("x"));
+    assertEquals(2000, object.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(new JsonString(i == 7 ? "x" : "a" + i), object.get("Aa" + i));
+      assertEquals(new JsonString("b" + i), object.get("BB" + i));
+    }
+    assertNull(object.get("AaBB"));
+  }
+
+  @Test
+  public void testPersistentArrayWith() {
+    List<JsonNode> expected = new ArrayList<>();
+    PersistentJsonArray array = PersistentJsonArray.empty();
+    List<PersistentJsonArray> versions = new ArrayList<>();
+    for (int i = 0; i < 40000; i++) {
+      array = array.with(new JsonString("" + i));
+      expected.add(new JsonString("" + i));
+      if (i % 5000 == 0) {
+        versions.add(array);
+      }
+    }
+    for (int i = 0; i < 40000; i += 7) {
+      array = array.with(i, new JsonString("r" + i));
+      expected.set(i, new JsonString("r" + i));
+    }
+
+    assertEquals(40000, array.size());
+    for (int i = 0; i < 40000; i++) {
+      assertEquals(expected.get(i), array.get(i));
+    }
+    for (int v = 0; v < versions.size(); v++) {
+      assertEquals(v * 5000 + 1, versions.get(v).size());
+      assertEquals(new JsonString("0"), versions.get(v).get(0));
+    }
+
+    JsonArray mutable = array.thaw();
+    assertEquals(expected, mutable.jsonArray);
+    assertEquals(mutable.hashCode(), array.hashCode());
+    assertEquals(mutable.prettyPrint(), array.prettyPrint());
+    assertEquals(array, mutable.freeze());
+  }
+
+  /**
+   * This is a method that formats a tree the way prettyPrint did before
+   * writePretty, by printing each child to a String and indenting every
+   * line of it. It is shared with Benchmarks.
+   *
+   * @param node the root of the tree.
+   * @return the formatted json.
+   */
+  static String indentedCopies(JsonNode node) {
+    boolean object = node instanceof JsonObject || node instanceof PersistentJsonObject;
+    if (!object && !(node instanceof JsonArray) && !(node instanceof PersistentJsonArray)) {
+      return node.prettyPrint();
+    }
+    List<?> children = node instanceof JsonObject ? ((JsonObject) node).jsonObject
+            : node instanceof JsonArray ? ((JsonArray) node).jsonArray
+            : node instanceof PersistentJsonObject ? ((PersistentJsonObject) node).pairs()
+            : ((PersistentJsonArray) node).elements();
+    StringBuilder pretty = new StringBuilder(object ? "{\n" : "[\n");
+    for (int idx = 0; idx < children.size(); idx++) {
+      JsonNode value;
+      pretty.append("  ");
+      if (object) {
+        Pair pair = (Pair) children.get(idx);
+        pretty.append('"').append(pair.getKey()).append("\":");
+        value = pair.getValue();
+        if (!value.isScalar()) {
+          pretty.append("\n  ");
+        }
+      } else {
+        value = (JsonNode) children.get(idx);
+      }
+      String child = indentedCopies(value);
+      pretty.append(value.isScalar() ? child : child.replace("\n", "\n  "));
+      pretty.append(idx < children.size() - 1 ? ",\n" : "\n");
+    }
+    return pretty.append(object ? '}' : ']').toString();
+  }
+
+  @Test
+  public void testWritePrettySameAsPrettyPrint() throws IOException {
+    IJsonObject root = new JsonObject();
+    root.add("tree", deepTree(6, 3, "v"));
+    root.add("empty", new JsonObject());
+    root.add("none", new JsonArray());
+    root.add("lines", new JsonString("one\ntwo\n"));
+    root.add("key \nbreak", new JsonNumber(2.5));
+    IJsonArray mixed = new JsonArray();
+    mixed.add(new JsonArray());
+    mixed.add(JsonBoolean.TRUE);
+    mixed.add(JsonNull.INSTANCE);
+    mixed.add(((JsonObject) root).freeze());
+    IJsonObject inner = new JsonObject();
+    inner.add("s", new JsonString("a\nb"));
+    mixed.add(inner);
+    root.add("mixed", mixed);
+
+    JsonNode[] nodes = {root, ((JsonObject) root).freeze(), mixed, new JsonObject(),
+        new JsonString("x\ny"), new JsonNumber(-7), JsonNull.INSTANCE};
+    for (JsonNode tree : nodes) {
+      StringBuilder out = new StringBuilder();
+      tree.writePretty(out, 2);
+      assertEquals(indentedCopies(tree), out.toString());
+      assertEquals(indentedCopies(tree), tree.prettyPrint());
+    }
+
+    IJsonObject small = new JsonObject();
+    small.add("a", new JsonArray());
+    small.add("b", inner);
+    StringWriter writer = new StringWriter();
+    small.writePretty(writer, 4);
+    assertEquals("{\n    \"a\":\n    [\n    ],\n    \"b\":\n    {\n        \"s\":\"a\n    b\"\n    }\n}",
+            writer.toString());
+    StringBuilder flat = new StringBuilder();
+    small.writePretty(flat, 0);
+    assertEquals("{\n\"a\":\n[\n],\n\"b\":\n{\n\"s\":\"a\nb\"\n}\n}", flat.toString());
+    try {
+      small.writePretty(flat, -1);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("The indent cannot be negative", e.getMessage());
+    }
+  }
+
+  // This method writes a tree far deeper than the stack would allow
+  // with recursion.
+  @Test
+  public void testWritePrettyDeepTree() throws IOException {
+    IJsonArray root = new JsonArray();
+    IJsonArray array = root;
+    for (int i = 0; i < 100000; i++) {
+      IJsonArray next = new JsonArray();
+      array.add(next);
+      array = next;
+    }
+    array.add(new JsonString("bottom"));
+    CountingAppendable out = new CountingAppendable();
+    root.writePretty(out, 1);
+    // The array at depth d writes '[', two line breaks followed by d
+    // spaces each, one more space before its element, and ']'.
+    long levels = 100001;
+    long expected = levels * 5 + levels * (levels - 1) + "\"bottom\"".length();
+    assertEquals(expected, out.count);
+  }
+
+  // This method writes a 12 level deep tree. The time it takes against
+  // printing each child to a String is measured in Benchmarks.writePretty.
+  @Test
+  public void testWritePrettyLargeTree() throws IOException {
+    JsonNode tree = deepTree(12, 3, "v");
+    StringBuilder out = new StringBuilder();
+    tree.writePretty(out, 2);
+    assertEquals(indentedCopies(tree), out.toString());
+  }
+
+  @Test
+  public void testWriteCompact() throws IOException {
+    IJsonObject root = new JsonObject();
+    IJsonArray numbers = new JsonArray();
+    numbers.add(new JsonNumber(0));
+    numbers.add(new JsonNumber(-7));
+    numbers.add(new JsonNumber(Long.MIN_VALUE));
+    numbers.add(new JsonNumber(Long.MAX_VALUE));
+    numbers.add(new JsonNumber(2.5));
+    numbers.add(new JsonNumber(new BigDecimal("12345678901234567890123456789.5")));
+    root.add("n", numbers);
+    root.add("s", new JsonString("\u00e9t\u00e9 \ud83d\ude00 \u2713"));
+    root.add("lone", new JsonString("\ud800"));
+    root.add("e", new JsonObject());
+    IJsonArray literals = new JsonArray();
+    literals.add(JsonBoolean.TRUE);
+    literals.add(JsonBoolean.FALSE);
+    literals.add(JsonNull.INSTANCE);
+    literals.add(new JsonArray());
+    root.add("key with space", literals);
+    String expected = "{\"n\":[0,-7,-9223372036854775808,9223372036854775807,2.5,"
+            + "12345678901234567890123456789.5],\"s\":\"\u00e9t\u00e9 \ud83d\ude00 \u2713\","
+            + "\"lone\":\"\ufffd\",\"e\":{},\"key with space\":[true,false,null,[]]}";
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    root.writeCompact(stream);
+    assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    stream.reset();
+    ((JsonObject) root).freeze().writeCompact(stream);
+    assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.UTF_8));
+
+    ByteBuffer buffer = ByteBuffer.allocate(200);
+    buffer.position(3);
+    root.writeCompact(buffer);
+    assertEquals(expected.getBytes(StandardCharsets.UTF_8).length + 3, buffer.position());
+    assertEquals(expected, new String(buffer.array(), 3, buffer.position() - 3, StandardCharsets.UTF_8));
+    buffer.clear();
+    new JsonNumber(-42).writeCompact(buffer);
+    assertEquals("-42", new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+    try {
+      root.writeCompact(ByteBuffer.allocate(10));
+      fail("Expected BufferOverflowException");
+    } catch (BufferOverflowException e) {
+      // The json does not fit.
+    }
+  }
+
+  // This method writes a tree larger than the internal buffer, and far
+  // deeper than the stack would allow with recursion.
+  @Test
+  public void testWriteCompactLargeTrees() throws IOException {
+    JsonNode tree = deepTree(8, 4, "\u00e9");
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    tree.writeCompact(stream);
+    String pretty = tree.prettyPrint();
+    StringBuilder stripped = new StringBuilder();
+    for (String line : pretty.split("\n")) {
+      stripped.append(line.trim());
+    }
+    assertEquals(stripped.toString(), new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    assertTrue(stream.size() > 65536);
+
+    IJsonArray root = new JsonArray();
+    IJsonArray array = root;
+    for (int i = 0; i < 100000; i++) {
+      IJsonArray next = new JsonArray();
+      array.add(next);
+      array = next;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(200002);
+    root.writeCompact(buffer);
+    assertEquals(200002, buffer.position());
+    assertEquals('[', buffer.get(100000));
+    assertEquals(']', buffer.get(100001));
+  }
+
+  // This method writes a tree compact from inside the stream another tree
+  // is written to, on the same thread.
+  @Test
+  public void testWriteCompactNested() throws IOException {
+    JsonNode outer = deepTree(4, 3, "outer");
+    JsonNode inner = deepTree(6, 3, "inner");
+    ByteArrayOutputStream innerStream = new ByteArrayOutputStream();
+    ByteArrayOutputStream outerStream = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] bytes, int offset, int length) {
+        if (innerStream.size() == 0) {
+          try {
+            inner.writeCompact(innerStream);
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+        super.write(bytes, offset, length);
+      }
+    };
+    outer.writeCompact(outerStream);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    outer.writeCompact(expected);
+    assertEquals(expected.toString(StandardCharsets.UTF_8),
+            outerStream.toString(StandardCharsets.UTF_8));
+    expected.reset();
+    inner.writeCompact(expected);
+    assertEquals(expected.toString(StandardCharsets.UTF_8),
+            innerStream.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testCachePretty() throws IOException {
+    JsonObject root = (JsonObject) deepTree(4, 3, "v");
+    JsonArray list = (JsonArray) root.get("k1");
+    JsonObject leaf = (JsonObject) list.jsonArray.get(2);
+    JsonObject other = (JsonObject) ((JsonArray) root.get("k2")).jsonArray.get(0);
+    root.cachePretty(true);
+    list.cachePretty(true);
+    other.cachePretty(true);
+    IJsonArray shared = new JsonArray();
+    shared.add(new JsonString("s"));
+    leaf.add("shared", shared);
+    other.add("shared", shared);
+
+    String first = root.prettyPrint();
+    assertEquals(indentedCopies(root), first);
+    assertTrue(first == root.prettyPrint());
+    // The text of other is kept with the indents of the two containers
+    // it is printed in.
+    String otherText = other.prettyPrintAt(2);
+
+    leaf.add("new", new JsonString("n\nline"));
+    assertEquals(indentedCopies(root), root.prettyPrint());
+    assertTrue(otherText == other.prettyPrintAt(2));
+    assertEquals(indentedCopies(other), other.prettyPrint());
+
+    shared.add(new JsonNumber(3));
+    assertEquals(indentedCopies(other), other.prettyPrint());
+    assertEquals(indentedCopies(root), root.prettyPrint());
+
+    StringBuilder out = new StringBuilder();
+    root.writePretty(out, 4);
+    JsonObject copy = root.freeze().thaw();
+    StringBuilder expected = new StringBuilder();
+    copy.writePretty(expected, 4);
+    assertEquals(expected.toString(), out.toString());
+
+    IJsonArray outer = new JsonArray();
+    outer.add(root);
+    assertEquals(indentedCopies(outer), outer.prettyPrint());
+    root.cachePretty(false);
+    list.add(new JsonObject());
+    assertEquals(indentedCopies(outer), outer.prettyPrint());
+  }
+
+  // This method prints a 12 level deep tree again after adding a pair
+  // deep down, with the containers of the top three levels cached. The
+  // time it takes is measured in Benchmarks.cachePretty.
+  @Test
+  public void testCachePrettyDeepChange() {
+    JsonObject root = cachedTree(12, 3);
+    root.prettyPrint();
+    JsonObject changed = (JsonObject) ((JsonArray) root.get("k0")).jsonArray.get(1);
+    for (int pass = 0; pass < 2; pass++) {
+      changed.add("p" + pass, new JsonString("x"));
+      String text = root.prettyPrint();
+      assertTrue(text.contains("\"p" + pass + "\":\"x\""));
+      assertEquals(PrettyWriter.print(root), text);
+    }
+  }
+
+  /**
+   * This is a method that builds a deep tree, see deepTree, with the
+   * containers of its top levels set to keep their pretty form.
+   *
+   * @param depth  the number of levels.
+   * @param cached the number of top levels that are cached.
+   * @return the root object.
+   */
+  static JsonObject cachedTree(int depth, int cached) {
+    JsonObject root = (JsonObject) deepTree(depth, 3, "v");
+    List<JsonNode> containers = new ArrayList<>();
+    containers.add(root);
+    for (int level = 0; level < cached; level++) {
+      List<JsonNode> below = new ArrayList<>();
+      for (JsonNode container : containers) {
+        if (container instanceof JsonObject) {
+          ((JsonObject) container).cachePretty(true);
+          for (Pair pair : ((JsonObject) container).jsonObject) {
+            below.add(pair.getValue());
+          }
+        } else {
+          ((JsonArray) container).cachePretty(true);
+          below.addAll(((JsonArray) container).jsonArray);
+        }
+      }
+      containers = below;
+    }
+    return root;
+  }
+
+  /**
+   * This is a private class that counts the characters written to it.
+   */
+  private static final class CountingAppendable implements Appendable {
+    long count;
+
+    @Override
+    public Appendable append(CharSequence csq) {
+      count += csq.length();
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      count += end - start;
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      count++;
+      return this;
+    }
+  }
+}
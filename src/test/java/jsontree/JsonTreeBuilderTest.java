@@ -1,13 +1,39 @@
 package jsontree;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
+import parser.FeedResult;
 import parser.InvalidJsonException;
 import parser.JsonParser;
+import parser.Status;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * This is a test class that tests the functionality of
@@ -499,4 +525,1177 @@ public class JsonTreeBuilderTest {
 
     assertNull(node.output());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testBulkInputSameTree() throws InvalidJsonException {
+    String json = "{\"name\":\"some name\",\n\t\"age\":[{\"today\":\"9\"},"
+            + "{\"tomorrow\":\"1\n0\"}], \"light\": {\"ambient\": [\"0.8\", \"0.8\"]}}";
+    jsonTree = new JsonTreeBuilder();
+    stringStreamInput(jsonTree, json);
+    JsonNode expected = jsonTree.output();
+
+    JsonParser<JsonNode> fromString = new JsonTreeBuilder().input(json);
+    assertEquals(expected, fromString.output());
+    assertEquals(expected.prettyPrint(), fromString.output().prettyPrint());
+
+    char[] padded = ("xx" + json + "yy").toCharArray();
+    JsonParser<JsonNode> fromArray = new JsonTreeBuilder().input(padded, 2, json.length());
+    assertEquals(expected.prettyPrint(), fromArray.output().prettyPrint());
+
+    CharBuffer buffer = CharBuffer.wrap(json);
+    JsonParser<JsonNode> fromBuffer = new JsonTreeBuilder().input(buffer);
+    assertEquals(expected.prettyPrint(), fromBuffer.output().prettyPrint());
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test
+  public void testBulkInputSplitInsideValue() throws InvalidJsonException {
+    jsonTree = new JsonTreeBuilder();
+    jsonTree.input("{\"name\":\"Some ");
+    assertNull(jsonTree.output());
+    jsonTree.input("Name\"");
+    jsonTree.input('}');
+
+    assertEquals("{\n  \"name\":\"Some Name\"\n}", jsonTree.output().prettyPrint());
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testBulkInputInvalid() throws InvalidJsonException {
+    jsonTree = new JsonTreeBuilder();
+    jsonTree.input("{\"name\":\"cs5010\",\"9");
+  }
+
+  // This method tests that a large input is parsed in linear time.
+  @Test(timeout = 10000)
+  public void testLargeInputLinear() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"items\":[");
+    IJsonArray items = new JsonArray();
+    for (int i = 0; i < 50000; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      String value = "value number " + i + " with some padding to grow it";
+      json.append("{\"id\":\"").append(value).append("\"}");
+      IJsonObject item = new JsonObject();
+      item.add("id", new JsonString(value));
+      items.add(item);
+    }
+    json.append("]}");
+    IJsonObject expected = new JsonObject();
+    expected.add("items", items);
+
+    jsonTree = new JsonTreeBuilder();
+    stringStreamInput(jsonTree, json.toString());
+    assertEquals(expected, jsonTree.output());
+
+    assertEquals(expected, new JsonTreeBuilder().input(json).output());
+  }
+
+  @Test
+  public void testNestedArrays() throws InvalidJsonException {
+    jsonTree = new JsonTreeBuilder();
+    stringStreamInput(jsonTree, "{\"details\" : [[\"1\", \"2\"], [{}]] }");
+
+    IJsonArray first = new JsonArray();
+    first.add(new JsonString("1"));
+    first.add(new JsonString("2"));
+    IJsonArray second = new JsonArray();
+    second.add(new JsonObject());
+    IJsonArray details = new JsonArray();
+    details.add(first);
+    details.add(second);
+    IJsonObject root = new JsonObject();
+    root.add("details", details);
+
+    assertEquals(root, jsonTree.output());
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testSecondColonAfterValue() throws InvalidJsonException {
+    jsonTree = new JsonTreeBuilder();
+    stringStreamInput(jsonTree, "{\"a\":\"b\":\"c\"}");
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testEmptyKey() throws InvalidJsonException {
+    jsonTree = new JsonTreeBuilder();
+    stringStreamInput(jsonTree, "{\"\":\"b\"}");
+  }
+
+  // This method builds 100k sibling objects. The time it takes is
+  // measured in Benchmarks.siblingObjects.
+  @Test(timeout = 10000)
+  public void testManySiblingObjects() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"siblings\":[");
+    IJsonArray siblings = new JsonArray();
+    for (int i = 0; i < 100000; i++) {
+      json.append(i > 0 ? "," : "").append("{\"a\":\"{").append(i).append("}\"}");
+      IJsonObject sibling = new JsonObject();
+      sibling.add("a", new JsonString("{" + i + "}"));
+      siblings.add(sibling);
+    }
+    json.append("]}");
+    IJsonObject expected = new JsonObject();
+    expected.add("siblings", siblings);
+
+    JsonNode result = new JsonTreeBuilder().input(json).output();
+    assertEquals(expected, result);
+  }
+
+  @Test
+  public void testUtf8Input() throws InvalidJsonException, IOException {
+    String json = "{\"cl\u00e9\":\"h\u00e9llo w\u00f6rld \u2713 \ud83d\ude00\","
+            + "\"list\":[\"\u4e2d\u6587\", \"plain\"]}";
+    JsonNode expected = new JsonTreeBuilder().input(json).output();
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+    assertEquals(expected, new JsonTreeBuilder().input(bytes, 0, bytes.length).output());
+    assertEquals(expected, new JsonTreeBuilder().input(ByteBuffer.wrap(bytes)).output());
+    assertEquals(expected,
+            new JsonTreeBuilder().input(new ByteArrayInputStream(bytes)).output());
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    assertEquals(expected, new JsonTreeBuilder().input(direct).output());
+
+    // Every multi-byte sequence is split across inputs.
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    for (int i = 0; i < bytes.length; i++) {
+      builder.input(bytes, i, 1);
+    }
+    assertEquals(expected, builder.output());
+    assertEquals(expected.prettyPrint(), builder.output().prettyPrint());
+  }
+
+  @Test
+  public void testMalformedUtf8InValue() throws InvalidJsonException {
+    byte[] bytes = {'{', '"', 'a', '"', ':', '"', (byte) 0xC3, '"', '}'};
+    IJsonObject expected = new JsonObject();
+    expected.add("a", new JsonString("\ufffd"));
+
+    assertEquals(expected, new JsonTreeBuilder().input(bytes, 0, bytes.length).output());
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testNonLetterUtf8InKey() throws InvalidJsonException {
+    byte[] bytes = "{\"a\u2713\":".getBytes(StandardCharsets.UTF_8);
+    new JsonTreeBuilder().input(bytes, 0, bytes.length);
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testSupplementaryUtf8InKey() throws InvalidJsonException {
+    byte[] bytes = "{\"\ud835\udc9cb\":1}".getBytes(StandardCharsets.UTF_8);
+    new JsonTreeBuilder().input(bytes, 0, bytes.length);
+  }
+
+  @Test
+  public void testParseFile() throws InvalidJsonException, IOException {
+    String json = "{\"cl\u00e9\":\"h\u00e9llo w\u00f6rld \u2713 \ud83d\ude00\",\n"
+            + "  \"list\":[\"\u4e2d\u6587\", {\"a\":\"b\"}]}";
+    JsonNode expected = new JsonTreeBuilder().input(json).output();
+    Path file = Files.createTempFile("tree", ".json");
+    try {
+      Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+      assertEquals(expected, JsonTreeBuilder.parse(file));
+
+      // Small windows put window boundaries inside every token.
+      for (int window = 1; window < 8; window++) {
+        assertEquals(expected, new JsonTreeBuilder().input(file, window).output());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * This is a private method that builds a document of many long strings,
+   * with multi-byte characters, quotes and newlines falling on all
+   * positions of the inputs they are split in.
+   *
+   * @param count the number of values.
+   * @return the json string.
+   */
+  private String longStrings(int count) {
+    StringBuilder json = new StringBuilder("{\"kéy\":[");
+    for (int i = 0; i < count; i++) {
+      json.append(i > 0 ? ",\n " : "").append("{\"v").append(i).append("\":\"");
+      for (int j = 0; j < i % 97; j++) {
+        json.append(j % 13 == 0 ? "é✓ " : "text ");
+      }
+      json.append("\"}");
+    }
+    return json.append("]}").toString();
+  }
+
+  @Test
+  public void testLongBytesSameTree() throws InvalidJsonException {
+    String json = longStrings(2000);
+    JsonNode expected = new JsonTreeBuilder().input(json).output();
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+    assertEquals(expected, new JsonTreeBuilder().input(bytes, 0, bytes.length).output());
+
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    for (int i = 0; i < bytes.length; i += 100) {
+      builder.input(bytes, i, Math.min(100, bytes.length - i));
+    }
+    assertEquals(expected, builder.output());
+
+    // Odd sized inputs split the characters at every offset.
+    builder = new JsonTreeBuilder();
+    for (int i = 0; i < bytes.length; i += 1001) {
+      builder.input(ByteBuffer.wrap(bytes, i, Math.min(1001, bytes.length - i)));
+    }
+    assertEquals(expected, builder.output());
+  }
+
+  @Test
+  public void testLongBytesInvalid() {
+    String json = longStrings(300);
+    String[] invalid = {
+        json.substring(0, json.length() - 2) + "x]}",
+        json.substring(0, json.length() - 2) + "é]}",
+        json + "\n",
+        json.replace("{\"v17\"", "{\"v✓\""),
+    };
+    for (String text : invalid) {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      try {
+        new JsonTreeBuilder().input(bytes, 0, bytes.length);
+        fail("Expected InvalidJsonException");
+      } catch (InvalidJsonException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testOfferChunks() throws InvalidJsonException {
+    String json = "{\"cl\u00e9\":\"h\u00e9llo \u2713 \ud83d\ude00\","
+            + "\"list\":[\"\u4e2d\u6587\", {\"a\":\"b\"}]}";
+    JsonNode expectedTree = new JsonTreeBuilder().input(json).output();
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+    // Chunks of every size, so that every multi-byte sequence gets split.
+    for (int size = 1; size < 8; size++) {
+      JsonTreeBuilder builder = new JsonTreeBuilder();
+      for (int i = 0; i < bytes.length; i += size) {
+        int length = Math.min(size, bytes.length - i);
+        FeedResult expected = i + length == bytes.length
+                ? FeedResult.DOCUMENT_COMPLETE : FeedResult.NEED_MORE_INPUT;
+        ByteBuffer chunk = ByteBuffer.wrap(bytes, i, length);
+        assertEquals(expected, builder.offer(chunk));
+        assertEquals(0, chunk.remaining());
+      }
+      assertEquals(expectedTree, builder.output());
+      assertEquals(FeedResult.DOCUMENT_COMPLETE,
+              builder.offer(ByteBuffer.wrap(new byte[] {' '})));
+    }
+  }
+
+  @Test
+  public void testOfferInterleaved() {
+    int count = 1000;
+    JsonTreeBuilder[] builders = new JsonTreeBuilder[count];
+    byte[][] documents = new byte[count][];
+    for (int k = 0; k < count; k++) {
+      builders[k] = new JsonTreeBuilder();
+      documents[k] = ("{\"id\":\"" + k + "\",\"v\":[\"\u00e9" + k + "\"]}")
+              .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // One thread hands every parser 3 bytes at a time, in turns.
+    for (int i = 0, done = 0; done < count; i += 3) {
+      done = 0;
+      for (int k = 0; k < count; k++) {
+        byte[] document = documents[k];
+        if (i >= document.length) {
+          done++;
+          continue;
+        }
+        FeedResult result = builders[k].offer(
+                ByteBuffer.wrap(document, i, Math.min(3, document.length - i)));
+        assertNotEquals(FeedResult.ERROR, result);
+      }
+    }
+    for (int k = 0; k < count; k++) {
+      IJsonObject expected = new JsonObject();
+      JsonArray array = new JsonArray();
+      array.add(new JsonString("\u00e9" + k));
+      expected.add("id", new JsonString(String.valueOf(k)));
+      expected.add("v", array);
+      assertEquals(expected, builders[k].output());
+    }
+  }
+
+  @Test
+  public void testOfferError() {
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    assertEquals(FeedResult.NEED_MORE_INPUT,
+            builder.offer(ByteBuffer.wrap("{\"a\":".getBytes(StandardCharsets.UTF_8))));
+    assertEquals(-1, builder.errorOffset());
+    assertEquals(FeedResult.ERROR,
+            builder.offer(ByteBuffer.wrap("\"b\"x".getBytes(StandardCharsets.UTF_8))));
+    assertEquals(8, builder.errorOffset());
+    assertEquals(FeedResult.ERROR,
+            builder.offer(ByteBuffer.wrap("}".getBytes(StandardCharsets.UTF_8))));
+    assertEquals(8, builder.errorOffset());
+    assertNull(builder.output());
+  }
+
+  @Test
+  public void testReset() throws InvalidJsonException {
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    JsonNode first = builder.input("{\"a\":[\"b\"]}").output();
+    String printed = first.prettyPrint();
+
+    assertEquals(Status.EMPTY, builder.reset().status());
+    assertNull(builder.output());
+    JsonNode second = builder.input("{\"c\":{\"d\":\"e\"}}").output();
+    assertEquals(new JsonTreeBuilder().input("{\"c\":{\"d\":\"e\"}}").output(), second);
+    assertEquals(printed, first.prettyPrint());
+
+    // A builder is reusable after invalid or incomplete input too.
+    assertEquals(FeedResult.ERROR, builder.reset().offer("{\"a\":[\"b\"\n,x"));
+    assertEquals(FeedResult.NEED_MORE_INPUT, builder.reset().offer("{\"x\":{\"y\":[\"\u00e9"));
+    builder.reset().input(ByteBuffer.wrap("{\"q\":\"\u00e9\"}".getBytes(StandardCharsets.UTF_8)));
+    IJsonObject expected = new JsonObject();
+    expected.add("q", new JsonString("\u00e9"));
+    assertEquals(expected, builder.output());
+    assertEquals(-1, builder.errorOffset());
+  }
+
+  /**
+   * This is a method that makes an event document with the same 40 keys
+   * as every other, 10 of them in a nested object. It is shared with
+   * Benchmarks.
+   *
+   * @param n the number of the document, put in the values.
+   * @return the json text.
+   */
+  static String eventDocument(int n) {
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 0; i < 30; i++) {
+      json.append("\"eventField").append(i).append("\":\"").append(n).append("\",");
+    }
+    json.append("\"payload\":{");
+    for (int i = 0; i < 9; i++) {
+      json.append(i > 0 ? "," : "").append("\"payloadField").append(i).append("\":\"").append(n).append('"');
+    }
+    return json.append("}}").toString();
+  }
+
+  /**
+   * This is a private method that collects the distinct String instances
+   * used as keys in a tree.
+   *
+   * @param node the root of the tree.
+   * @param keys the set of keys, compared by identity.
+   */
+  private void collectKeys(JsonNode node, Set<String> keys) {
+    if (node instanceof JsonObject) {
+      for (Pair pair : ((JsonObject) node).jsonObject) {
+        keys.add(pair.getKey());
+        collectKeys(pair.getValue(), keys);
+      }
+    } else if (node instanceof JsonArray) {
+      for (JsonNode element : ((JsonArray) node).jsonArray) {
+        collectKeys(element, keys);
+      }
+    }
+  }
+
+  // This method builds 20000 repeated-schema documents with and without
+  // a dictionary. The heap they retain is measured in
+  // Benchmarks.keyDictionary.
+  @Test
+  public void testKeyDictionarySharesKeys() throws InvalidJsonException {
+    int count = 20000;
+    List<JsonNode> trees = new ArrayList<>();
+    KeyDictionary dictionary = new KeyDictionary();
+    for (int pass = 0; pass < 2; pass++) {
+      trees.clear();
+      JsonTreeBuilder builder = new JsonTreeBuilder(pass == 0 ? null : dictionary);
+      for (int n = 0; n < count; n++) {
+        trees.add(builder.reset().input(eventDocument(n)).output());
+      }
+
+      Set<String> keys = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (JsonNode tree : trees) {
+        collectKeys(tree, keys);
+      }
+      assertEquals(pass == 0 ? count * 40 : 40, keys.size());
+    }
+
+    assertEquals(new JsonTreeBuilder().input(eventDocument(7)).output(), trees.get(7));
+    assertEquals(40, dictionary.size());
+    assertEquals(40, dictionary.misses());
+    assertEquals(count * 40 - 40, dictionary.hits());
+  }
+
+  @Test
+  public void testKeyDictionaryBounded() throws InvalidJsonException {
+    KeyDictionary dictionary = new KeyDictionary(4);
+    JsonTreeBuilder builder = new JsonTreeBuilder(dictionary);
+    for (int n = 0; n < 3; n++) {
+      JsonNode tree = builder.reset().input(eventDocument(n)).output();
+      assertEquals(new JsonTreeBuilder().input(eventDocument(n)).output(), tree);
+    }
+    assertEquals(4, dictionary.size());
+    assertEquals(8, dictionary.hits());
+    assertEquals(3 * 40 - 8, dictionary.misses());
+
+    try {
+      new KeyDictionary(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testKeyDictionarySharedByThreads() throws Exception {
+    KeyDictionary dictionary = new KeyDictionary(64);
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Set<String>>> results = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      results.add(executor.submit(() -> {
+        Set<String> keys = Collections.newSetFromMap(new IdentityHashMap<>());
+        JsonTreeBuilder builder = new JsonTreeBuilder(dictionary);
+        for (int n = 0; n < 500; n++) {
+          collectKeys(builder.reset().input(eventDocument(n)).output(), keys);
+        }
+        return keys;
+      }));
+    }
+    Set<String> all = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Future<Set<String>> result : results) {
+      all.addAll(result.get());
+    }
+    executor.shutdown();
+
+    assertEquals(40, all.size());
+    assertEquals(40, dictionary.size());
+    assertEquals(threads * 500 * 40, dictionary.hits() + dictionary.misses());
+  }
+
+  // Threads adding distinct keys to a tiny dictionary at once can pass its
+  // capacity and fill the whole table, after which lookups must still end.
+  // The threads meet before each key, so that their misses race.
+  @Test(timeout = 30000)
+  public void testKeyDictionaryTinyCapacityThreads() throws Exception {
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int round = 0; round < 200; round++) {
+      KeyDictionary dictionary = new KeyDictionary(1);
+      CyclicBarrier barrier = new CyclicBarrier(threads);
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        String prefix = "key" + t + "_";
+        results.add(executor.submit(() -> {
+          boolean same = true;
+          for (int i = 0; i < 20; i++) {
+            String key = prefix + i;
+            barrier.await();
+            same &= key.equals(dictionary.intern(new StringBuilder(key)));
+          }
+          return same;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+      assertTrue(dictionary.size() <= threads);
+      assertEquals(threads * 20, dictionary.hits() + dictionary.misses());
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testTapeSameTree() throws InvalidJsonException {
+    String[] documents = {
+        "{}",
+        "{\"a\":\"\"}",
+        "{\"a\":[\"b\",{\"c\":[[\"d\"]]},{}],\"e\":{\"f\":\"g h\"},\"a\":\"x\"}",
+        "{ \"k\u00e9y\" : [ \"\u00e9\ud83d\ude00\" ] ,\n \"z\" : { } }",
+        eventDocument(3),
+        longStrings(50),
+        SCALARS,
+    };
+    for (String json : documents) {
+      JsonTape tape = new JsonTapeBuilder().input(json).output();
+      assertEquals(json, new JsonTreeBuilder().input(json).output(), tape.toJsonNode());
+      JsonTape fromBytes = new JsonTapeBuilder()
+              .input(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))).output();
+      assertEquals(json, tape.toJsonNode(), fromBytes.toJsonNode());
+    }
+
+    JsonTapeBuilder builder = new JsonTapeBuilder();
+    builder.input("{\"a\":[\"b\"]");
+    assertNull(builder.output());
+    assertEquals(FeedResult.ERROR, builder.offer("x"));
+    assertNull(builder.output());
+    assertEquals(new JsonTreeBuilder().input("{\"q\":\"r\"}").output(),
+            builder.reset().input("{\"q\":\"r\"}").output().toJsonNode());
+  }
+
+  @Test
+  public void testTapeCursor() throws InvalidJsonException {
+    JsonTape tape = new JsonTapeBuilder()
+            .input("{\"a\":[\"b\",{\"c\":\"d\"},[\"e\"]],\"f\":\"g\",\"h\":{}}").output();
+    JsonTape.Cursor root = tape.root();
+    assertTrue(root.isObject());
+    assertEquals(3, root.size());
+    assertNull(root.key());
+    assertNull(root.next());
+
+    JsonTape.Cursor a = root.get("a");
+    assertTrue(a.isArray());
+    assertEquals("a", a.key());
+    assertEquals(3, a.size());
+    assertEquals("b", a.get(0).stringValue());
+    assertEquals("d", a.get(1).get("c").stringValue());
+    assertEquals("e", a.get(2).first().stringValue());
+    assertNull(a.get(3));
+    assertNull(a.get("b"));
+    assertNull(a.get(0).next().next().next());
+
+    assertEquals("g", a.next().stringValue());
+    assertEquals("f", a.next().key());
+    assertEquals(root.get("h").key(), a.next().next().key());
+    assertNull(root.get("h").first());
+    assertEquals(0, root.get("h").size());
+    assertNull(root.get("x"));
+    assertNull(root.stringValue());
+    assertNull(root.get("f").first());
+  }
+
+  // This method builds 20000 repeated-schema documents as tapes. The heap
+  // they retain as trees and as tapes is measured in Benchmarks.tapes.
+  @Test
+  public void testTapeManyDocuments() throws InvalidJsonException {
+    int count = 20000;
+    List<JsonTape> documents = new ArrayList<>();
+    JsonTapeBuilder tapes = new JsonTapeBuilder();
+    for (int n = 0; n < count; n++) {
+      documents.add(tapes.reset().input(eventDocument(n)).output());
+    }
+
+    JsonTape last = documents.get(count - 1);
+    assertEquals("" + (count - 1), last.root().get("payload").get("payloadField8").stringValue());
+    assertEquals("0", documents.get(0).root().get("eventField0").stringValue());
+  }
+
+  /**
+   * This is a private method that collects the JsonString nodes of a tree.
+   *
+   * @param node    the root of the tree.
+   * @param strings the list the nodes are added to.
+   */
+  private void collectStrings(JsonNode node, List<JsonString> strings) {
+    if (node instanceof JsonString) {
+      strings.add((JsonString) node);
+    } else if (node instanceof JsonObject) {
+      for (Pair pair : ((JsonObject) node).jsonObject) {
+        collectStrings(pair.getValue(), strings);
+      }
+    } else if (node instanceof JsonArray) {
+      for (JsonNode element : ((JsonArray) node).jsonArray) {
+        collectStrings(element, strings);
+      }
+    }
+  }
+
+  @Test
+  public void testLazyValuesSameTree() throws Exception {
+    String[] documents = {
+        "{\"a\":\"\",\"b\":[\"x y\",{\"c\":\"z\"}]}",
+        "{\"a\":\"tab\there\",\"b\":\"new\nline\",\"c\":\"\u00e9t\u00e9 \ud83d\ude00\"}",
+        eventDocument(5),
+        longStrings(300),
+        SCALARS,
+    };
+    Path file = Files.createTempFile("lazy", ".json");
+    try {
+      for (String json : documents) {
+        JsonNode expected = new JsonTreeBuilder().input(json).output();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes);
+        JsonNode[] trees = {
+            new JsonTreeBuilder(null, true).input(json).output(),
+            new JsonTreeBuilder(null, true).input(json.toCharArray(), 0, json.length()).output(),
+            new JsonTreeBuilder(null, true).input(CharBuffer.wrap(json)).output(),
+            new JsonTreeBuilder(null, true).input(("xx" + json).toCharArray(), 2, json.length())
+                    .output(),
+            new JsonTreeBuilder(null, true).input(new StringBuilder(json)).output(),
+            new JsonTreeBuilder(null, true).input(ByteBuffer.wrap(bytes)).output(),
+            new JsonTreeBuilder(null, true).input(new ByteArrayInputStream(bytes)).output(),
+            new JsonTreeBuilder(null, true).input(file, 64).output(),
+        };
+        for (JsonNode tree : trees) {
+          assertEquals(json, expected, tree);
+          assertEquals(json, tree, expected);
+          assertEquals(json, expected.hashCode(), tree.hashCode());
+          assertEquals(json, expected.prettyPrint(), tree.prettyPrint());
+        }
+
+        // Chunks of every size split values between inputs.
+        for (int size = 1; size < 40; size += 3) {
+          JsonTreeBuilder builder = new JsonTreeBuilder(null, true);
+          for (int from = 0; from < bytes.length; from += size) {
+            builder.offer(ByteBuffer.wrap(bytes, from, Math.min(size, bytes.length - from)));
+          }
+          assertEquals(json, expected, builder.output());
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+
+    // Only printable values read in one input refer to it.
+    List<JsonString> strings = new ArrayList<>();
+    collectStrings(new JsonTreeBuilder(null, true).input(documents[1]).output(), strings);
+    assertFalse(strings.get(0).isSlice());
+    assertFalse(strings.get(1).isSlice());
+    assertTrue(strings.get(2).isSlice());
+    strings.clear();
+    collectStrings(new JsonTreeBuilder(null, true)
+            .input(ByteBuffer.wrap(documents[1].getBytes(StandardCharsets.UTF_8))).output(), strings);
+    assertFalse(strings.get(2).isSlice());
+  }
+
+  @Test
+  public void testLazyValuesDetach() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"a\":{\"x\":\"one\",\"y\":\"two\"},\"b\":\"three\"}");
+    JsonNode tree = new JsonTreeBuilder(null, true).input(json).output();
+    List<JsonString> strings = new ArrayList<>();
+    collectStrings(tree, strings);
+    assertTrue(strings.get(0).isSlice());
+    assertEquals("one", strings.get(0).value());
+    assertFalse(strings.get(0).isSlice());
+    assertTrue(strings.get(1).isSlice());
+
+    String printed = tree.prettyPrint();
+    assertTrue(tree.detach() == tree);
+    for (JsonString string : strings) {
+      assertFalse(string.isSlice());
+    }
+    json.setLength(0);
+    json.append("{\"a\":{\"x\":\"xxx\",\"y\":\"yyy\"},\"b\":\"zzzzz\"}");
+    assertEquals(printed, tree.prettyPrint());
+    assertEquals(new JsonTreeBuilder().input("{\"a\":{\"x\":\"one\",\"y\":\"two\"},\"b\":\"three\"}").output(),
+            tree);
+  }
+
+  // This method builds 20000 event documents with copied and with lazy
+  // values, reading one field of each. The time it takes is measured in
+  // Benchmarks.lazyValues.
+  @Test
+  public void testLazyValuesManyDocuments() throws InvalidJsonException {
+    for (boolean lazy : new boolean[] {false, true}) {
+      JsonTreeBuilder builder = new JsonTreeBuilder(null, lazy);
+      for (int n = 0; n < 20000; n++) {
+        byte[] document = eventDocument(n).getBytes(StandardCharsets.UTF_8);
+        JsonObject tree = (JsonObject) builder.reset().input(ByteBuffer.wrap(document)).output();
+        assertEquals(String.valueOf(n), ((JsonString) tree.get("eventField7")).value());
+      }
+    }
+  }
+
+  @Test
+  public void testPackedStrings() throws InvalidJsonException {
+    String json = "{\"a\":[\"x\",\"\",\"\u00e9t\u00e9\",\"y z\"],\"b\":[\"p\",{\"q\":\"r\"},[\"s\"]],"
+            + "\"c\":[[\"t\"],\"u\"]}";
+    IJsonObject expected = new JsonObject();
+    IJsonArray a = new JsonArray();
+    for (String value : new String[] {"x", "", "\u00e9t\u00e9", "y z"}) {
+      a.add(new JsonString(value));
+    }
+    IJsonArray b = new JsonArray();
+    IJsonObject q = new JsonObject();
+    q.add("q", new JsonString("r"));
+    IJsonArray s = new JsonArray();
+    s.add(new JsonString("s"));
+    b.add(new JsonString("p"));
+    b.add(q);
+    b.add(s);
+    IJsonArray t = new JsonArray();
+    t.add(new JsonString("t"));
+    IJsonArray c = new JsonArray();
+    c.add(t);
+    c.add(new JsonString("u"));
+    expected.add("a", a);
+    expected.add("b", b);
+    expected.add("c", c);
+
+    for (boolean lazy : new boolean[] {false, true}) {
+      JsonObject tree = (JsonObject) new JsonTreeBuilder(null, lazy).input(json).output();
+      assertEquals(expected, tree);
+      assertEquals(tree, expected);
+      assertEquals(expected.hashCode(), tree.hashCode());
+      assertEquals(expected.prettyPrint(), tree.prettyPrint());
+      assertTrue(((JsonArray) tree.get("a")).jsonArray instanceof PackedStrings);
+      assertFalse(((JsonArray) tree.get("b")).jsonArray instanceof PackedStrings);
+      assertEquals(tree.get("a"), ((JsonObject) new JsonTreeBuilder().input(json).output()).freeze().thaw().get("a"));
+
+      // Adding a container unpacks the strings.
+      JsonArray packed = (JsonArray) tree.get("a");
+      int hash = packed.hashCode();
+      packed.add(new JsonString("w"));
+      assertNotEquals(hash, packed.hashCode());
+      a.add(new JsonString("w"));
+      assertEquals(a, packed);
+      packed.add(new JsonArray());
+      a.add(new JsonArray());
+      assertFalse(packed.jsonArray instanceof PackedStrings);
+      assertEquals(a, packed);
+      a = new JsonArray();
+      for (String value : new String[] {"x", "", "\u00e9t\u00e9", "y z"}) {
+        a.add(new JsonString(value));
+      }
+      ((JsonObject) expected).jsonObject.set(0, new Pair("a", a));
+    }
+  }
+
+  // This method builds an array of 200000 short ids packed and as
+  // JsonString nodes. The heap they retain is measured in
+  // Benchmarks.packedStrings.
+  @Test
+  public void testPackedStringsManyIds() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"ids\":[");
+    for (int n = 0; n < 200000; n++) {
+      json.append(n > 0 ? "," : "").append("\"id").append(n).append('"');
+    }
+    json.append("]}");
+
+    JsonNode packed = new JsonTreeBuilder().input(json).output();
+    JsonNode nodes = ((JsonObject) packed).freeze().thaw();
+
+    assertTrue(((JsonArray) ((JsonObject) packed).get("ids")).jsonArray instanceof PackedStrings);
+    assertEquals(packed, nodes);
+  }
+
+  private static final String SCALARS = "{\"n\":[0,-1,2.50,3e2,-4.5E-3,1e400,"
+          + "123456789012345678901234567890],\"t\":true,\"f\":false,\"z\":null,"
+          + "\"o\":{\"x\":-0.0,\"y\":[\"s\",7]}}";
+
+  // This method tests the numbers and literals of a built tree.
+  @Test
+  public void testScalarValues() throws InvalidJsonException {
+    JsonObject root = (JsonObject) new JsonTreeBuilder()
+            .input("{\"a\":12,\"b\":-0.50, \"c\":1E+3\n,\"d\":true,\"e\":[false,null,0],"
+                    + "\"f\":123456789012345678901234567890.5,\"g\":[\"s\",2.5e-3]}").output();
+    JsonObject expected = new JsonObject();
+    expected.add("a", new JsonNumber(12));
+    expected.add("b", new JsonNumber(-0.5));
+    expected.add("c", new JsonNumber(1000));
+    expected.add("d", JsonBoolean.TRUE);
+    JsonArray e = new JsonArray();
+    e.add(JsonBoolean.FALSE);
+    e.add(JsonNull.INSTANCE);
+    e.add(new JsonNumber(0));
+    expected.add("e", e);
+    expected.add("f", new JsonNumber(new BigDecimal("123456789012345678901234567890.5")));
+    JsonArray g = new JsonArray();
+    g.add(new JsonString("s"));
+    g.add(new JsonNumber(new BigDecimal("0.0025")));
+    expected.add("g", g);
+    assertEquals(expected, root);
+    assertEquals(expected.hashCode(), root.hashCode());
+
+    JsonNumber a = (JsonNumber) root.get("a");
+    assertEquals(12, a.longValue());
+    assertEquals(12.0, a.doubleValue(), 0);
+    assertEquals(-0.5, ((JsonNumber) root.get("b")).doubleValue(), 0);
+    assertEquals(new BigDecimal("123456789012345678901234567890.5"),
+            ((JsonNumber) root.get("f")).bigDecimalValue());
+    assertTrue(((JsonBoolean) root.get("d")).value());
+    assertEquals("{\n  \"a\":12,\n  \"b\":-0.5,\n  \"c\":1000,\n  \"d\":true,\n  \"e\":\n"
+            + "  [\n    false,\n    null,\n    0\n  ],\n"
+            + "  \"f\":123456789012345678901234567890.5,\n  \"g\":\n  [\n    \"s\",\n    0.0025\n  ]\n}",
+            root.prettyPrint());
+    assertEquals(root, new JsonTreeBuilder().input(root.prettyPrint()).output());
+
+    // Equal values are equal however they are written.
+    assertEquals(new JsonNumber(100), numberOf("1e2"));
+    assertEquals(numberOf("100.00"), numberOf("10E1"));
+    assertEquals(numberOf("0"), numberOf("-0.000e-5"));
+    assertEquals(numberOf("9223372036854775807"), new JsonNumber(Long.MAX_VALUE));
+    assertEquals(new JsonNumber(Long.MAX_VALUE).hashCode(), numberOf("9223372036854775807").hashCode());
+    assertEquals(numberOf("1e99999999999"), numberOf("1e99999999999"));
+    assertNotEquals(numberOf("0.1"), numberOf("0.10000000000000001"));
+    assertEquals(Double.POSITIVE_INFINITY, numberOf("1e400").doubleValue(), 0);
+    assertEquals(0.0, numberOf("1e-400").doubleValue(), 0);
+  }
+
+  /**
+   * This is a private method that reads a single number.
+   *
+   * @param number the number as written in json.
+   * @return the JsonNumber.
+   */
+  private JsonNumber numberOf(String number) throws InvalidJsonException {
+    JsonObject root = (JsonObject) new JsonTreeBuilder().input("{\"n\":" + number + "}").output();
+    return (JsonNumber) root.get("n");
+  }
+
+  // This method checks that numbers read as doubles are rounded like
+  // Double.parseDouble, on the fast path and off it.
+  @Test
+  public void testNumberDoubleValue() throws InvalidJsonException {
+    Random random = new Random(20);
+    for (int i = 0; i < 20000; i++) {
+      double value;
+      switch (i % 3) {
+        case 0:
+          value = random.nextInt(1000000) / 1000.0;
+          break;
+        case 1:
+          value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+          break;
+        default:
+          value = Double.longBitsToDouble(random.nextLong());
+          break;
+      }
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        continue;
+      }
+      String text = Double.toString(value);
+      assertEquals(text, value, numberOf(text).doubleValue(), 0);
+      assertEquals(text, new JsonNumber(value), numberOf(text));
+    }
+  }
+
+  // This method tests the literals and numbers that are rejected.
+  @Test
+  public void testInvalidScalars() {
+    String[] values = {"01", "-", "1.", ".5", "1e", "1e+", "+1", "1.e3", "tru", "truex", "nul",
+                       "True", "x", "1 2", "1-", "\u0663"};
+    for (String value : values) {
+      JsonTreeBuilder builder = new JsonTreeBuilder();
+      assertEquals(value, FeedResult.ERROR, builder.offer("{\"n\":" + value + "}"));
+      assertNull(builder.output());
+    }
+  }
+
+  // This method reads numbers from a tape.
+  @Test
+  public void testTapeScalars() throws InvalidJsonException {
+    JsonTape.Cursor root = new JsonTapeBuilder().input(SCALARS).output().root();
+    JsonTape.Cursor n = root.get("n");
+    assertEquals(7, n.size());
+    assertTrue(n.get(2).isNumber());
+    assertEquals(0, n.get(2).size());
+    assertEquals(2.5, n.get(2).numberValue().doubleValue(), 0);
+    assertEquals(new BigDecimal("123456789012345678901234567890"),
+            n.get(6).numberValue().bigDecimalValue());
+    assertNull(n.get(6).next());
+    assertTrue(root.get("t").booleanValue());
+    assertTrue(root.get("f").isBoolean());
+    assertFalse(root.get("f").booleanValue());
+    assertTrue(root.get("z").isNull());
+    assertNull(root.get("z").first());
+    assertNull(root.get("t").numberValue());
+    assertEquals("s", root.get("o").get("y").first().stringValue());
+    assertEquals(numberOf("7"), root.get("o").get("y").get(1).numberValue());
+  }
+
+  @Test
+  public void testArenaSameTree() throws InvalidJsonException {
+    String[] documents = {
+        "{}",
+        "{\"a\":[\"b\",{\"c\":[[\"d\"]]},{}],\"e\":{\"f\":\"g h\"},\"a\":\"x\"}",
+        "{ \"k\u00e9y\" : [ \"\u00e9\ud83d\ude00\" ] ,\n \"z\" : { } }",
+        eventDocument(3),
+        longStrings(50),
+        SCALARS,
+    };
+    for (String json : documents) {
+      JsonNode tree = new JsonTreeBuilder().input(json).output();
+      try (JsonArena arena = new JsonArenaBuilder(64).input(json).output()) {
+        assertEquals(json, tree, arena.toJsonNode());
+      }
+      try (JsonArena arena = new JsonArenaBuilder()
+              .input(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))).output()) {
+        assertEquals(json, tree, arena.toJsonNode());
+      }
+    }
+
+    JsonArenaBuilder builder = new JsonArenaBuilder(8);
+    builder.input("{\"a\":[\"b\"]");
+    assertNull(builder.output());
+    assertEquals(FeedResult.ERROR, builder.offer("x"));
+    assertNull(builder.output());
+    JsonArena first = builder.reset().input("{\"q\":\"r\"}").output();
+    assertEquals(new JsonTreeBuilder().input("{\"q\":\"r\"}").output(), first.toJsonNode());
+    builder.reset().input("{\"a\":[1]}").output().close();
+    assertEquals("r", first.root().get("q").stringValue());
+  }
+
+  @Test
+  public void testArenaCursor() throws InvalidJsonException {
+    JsonArena arena = new JsonArenaBuilder(16)
+            .input("{\"a\":[\"b\",{\"c\":\"d\"},[\"e\"]],\"f\":\"g\",\"h\":{},\"\u00e9\":1}").output();
+    JsonArena.Cursor root = arena.root();
+    assertTrue(root.isObject());
+    assertEquals(4, root.size());
+    assertNull(root.key());
+    assertNull(root.next());
+
+    JsonArena.Cursor a = root.get("a");
+    assertTrue(a.isArray());
+    assertEquals("a", a.key());
+    assertEquals(3, a.size());
+    assertEquals("b", a.get(0).stringValue());
+    assertEquals("d", a.get(1).get("c").stringValue());
+    assertEquals("e", a.get(2).first().stringValue());
+    assertNull(a.get(3));
+    assertNull(a.get("b"));
+    assertNull(a.get(0).next().next().next());
+
+    assertEquals("g", a.next().stringValue());
+    assertEquals("f", a.next().key());
+    assertNull(root.get("h").first());
+    assertEquals(0, root.get("h").size());
+    assertEquals(new JsonNumber(1), root.get("\u00e9").numberValue());
+    assertNull(root.get("x"));
+    assertNull(root.stringValue());
+
+    JsonArena.Cursor n = new JsonArenaBuilder().input(SCALARS).output().root().get("n");
+    assertEquals(7, n.size());
+    assertEquals(2.5, n.get(2).numberValue().doubleValue(), 0);
+    assertEquals(new BigDecimal("123456789012345678901234567890"),
+            n.get(6).numberValue().bigDecimalValue());
+    assertTrue(n.next().booleanValue());
+    assertTrue(n.next().next().isBoolean());
+    assertTrue(n.next().next().next().isNull());
+  }
+
+  // This method copies trees to arenas and back, with strings longer
+  // than a segment.
+  @Test
+  public void testArenaCopyOf() throws InvalidJsonException {
+    JsonObject tree = (JsonObject) new JsonTreeBuilder().input(SCALARS).output();
+    tree.add("s", new JsonString("\u00e9t\u00e9 \ud83d\ude00 " + longStrings(3)));
+    tree.add("lone", new JsonString("\ud800"));
+    try (JsonArena arena = JsonArena.copyOf(tree, 8)) {
+      JsonNode copy = arena.toJsonNode();
+      assertEquals(tree.get("s"), ((JsonObject) copy).get("s"));
+      assertEquals(new JsonString("\ufffd"), ((JsonObject) copy).get("lone"));
+    }
+
+    JsonNode events = new JsonTreeBuilder().input(eventDocument(9)).output();
+    PersistentJsonObject frozen = ((JsonObject) events).freeze();
+    try (JsonArena arena = JsonArena.copyOf(frozen)) {
+      assertEquals(events, arena.toJsonNode());
+      assertTrue(arena.sizeInBytes() > 0);
+    }
+    try (JsonArena arena = JsonArena.copyOf(new JsonNumber(-7))) {
+      assertEquals(new JsonNumber(-7), arena.root().numberValue());
+      assertNull(arena.root().next());
+    }
+    try {
+      JsonArena.copyOf(events, 12);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("The segment size has to be a power of two of at least 8", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testArenaClose() throws InvalidJsonException {
+    JsonArena arena = new JsonArenaBuilder().input(eventDocument(1)).output();
+    JsonArena.Cursor root = arena.root();
+    assertFalse(arena.isClosed());
+    arena.close();
+    arena.close();
+    assertTrue(arena.isClosed());
+    assertEquals(0, arena.sizeInBytes());
+    try {
+      root.get("payload");
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("The arena has been closed", e.getMessage());
+    }
+    try {
+      arena.toJsonNode();
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("The arena has been closed", e.getMessage());
+    }
+  }
+
+  // This method builds one large document as a tree and as an arena. The
+  // heap each retains, and the memory outside the heap, are measured in
+  // Benchmarks.arena.
+  @Test
+  public void testArenaLargeDocument() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"events\":[");
+    for (int n = 0; n < 20000; n++) {
+      json.append(n == 0 ? "" : ",").append(eventDocument(n));
+    }
+    String document = json.append("]}").toString();
+    JsonNode tree = new JsonTreeBuilder().input(document).output();
+    JsonArena arena = new JsonArenaBuilder().input(document).output();
+
+    JsonArena.Cursor events = arena.root().get("events");
+    assertEquals(20000, events.size());
+    assertEquals("19999", events.get(19999).get("payload").get("payloadField8").stringValue());
+    assertEquals(((JsonObject) tree).get("events"), events.toJsonNode());
+    arena.close();
+  }
+
+  // This method reads back the compact form of parsed documents. Its size
+  // next to the pretty form is printed by Benchmarks.writeCompact.
+  @Test
+  public void testWriteCompactRoundTrip() throws IOException, InvalidJsonException {
+    String[] documents = {
+        "{}",
+        "{ \"k\u00e9y\" : [ \"\u00e9\ud83d\ude00\" ] ,\n \"z\" : { } }",
+        longStrings(50),
+        SCALARS,
+    };
+    for (String json : documents) {
+      JsonNode tree = new JsonTreeBuilder().input(json).output();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      tree.writeCompact(out);
+      assertEquals(json, tree, new JsonTreeBuilder().input(ByteBuffer.wrap(out.toByteArray())).output());
+    }
+
+    long prettyBytes = 0;
+    long compactBytes = 0;
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    for (int n = 0; n < 1000; n++) {
+      JsonNode tree = builder.reset().input(eventDocument(n)).output();
+      buffer.clear();
+      tree.writeCompact(buffer);
+      buffer.flip();
+      compactBytes += buffer.remaining();
+      prettyBytes += tree.prettyPrint().getBytes(StandardCharsets.UTF_8).length;
+      assertEquals(tree, new JsonTreeBuilder().input(buffer).output());
+    }
+    assertTrue(compactBytes < prettyBytes);
+  }
+
+  // This method decodes the binary encoding of parsed documents, in a
+  // heap buffer and in a direct one after some other bytes.
+  @Test
+  public void testBinaryRoundTrip() throws IOException, InvalidJsonException {
+    String[] documents = {
+        "{}",
+        "{\"a\":[\"b\",{\"c\":[[\"d\"]]},{}],\"e\":{\"f\":\"g h\"},\"a\":\"x\"}",
+        "{ \"k\u00e9y\" : [ \"\u00e9\ud83d\ude00\" ] ,\n \"z\" : { } }",
+        "{\"a\":[\"b\",1,\"c\",[true]],\"b\":\"\"}",
+        eventDocument(3),
+        longStrings(300),
+        SCALARS,
+    };
+    for (String json : documents) {
+      JsonNode tree = new JsonTreeBuilder().input(json).output();
+      byte[] encoding = JsonBinary.encode(tree);
+      assertEquals(json, tree, JsonBinary.decode(ByteBuffer.wrap(encoding)));
+
+      ByteBuffer direct = ByteBuffer.allocateDirect(encoding.length + 10);
+      direct.put(new byte[5]).put(encoding).put(new byte[5]).flip().position(5);
+      JsonNode lazy = JsonBinary.decode(direct, true);
+      assertEquals(json, tree, lazy);
+      assertEquals(encoding.length + 5, direct.position());
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      JsonBinary.encode(((JsonObject) tree).freeze(), out);
+      assertEquals(json, tree, JsonBinary.decode(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    JsonObject tree = (JsonObject) new JsonTreeBuilder().input(eventDocument(4)).output();
+    ByteBuffer buffer = ByteBuffer.wrap(JsonBinary.encode(tree));
+    JsonObject lazy = (JsonObject) JsonBinary.decode(buffer, true);
+    assertTrue(((JsonString) lazy.get("eventField0")).isSlice());
+    buffer.clear();
+    assertFalse(((JsonString) ((JsonObject) JsonBinary.decode(buffer)).get("eventField0")).isSlice());
+    assertEquals(new JsonNumber(-12), JsonBinary.decode(ByteBuffer.wrap(JsonBinary.encode(new JsonNumber(-12)))));
+  }
+
+  @Test
+  public void testBinaryInvalid() throws InvalidJsonException {
+    byte[] encoding = JsonBinary.encode(new JsonTreeBuilder().input(eventDocument(2)).output());
+    byte[][] invalid = {
+        {'J', 'T', 'X', 1, 0, 9},
+        {'J', 'T', 'B', 2, 0, 9},
+        Arrays.copyOf(encoding, encoding.length - 1),
+        Arrays.copyOf(encoding, 40),
+        {'J', 'T', 'B', 1, 0, 42},
+        {'J', 'T', 'B', 1, 0, 1, 1, 0, 9},
+        {'J', 'T', 'B', 1, -1, -1, -1, -1, 7},
+        {'J', 'T', 'B', 1, 2, 1, 'a'},
+        {'J', 'T', 'B', 1, 0, 2, -1, -1, -1, -1, 7, 7},
+        {'J', 'T', 'B', 1, 0, 2, 3, 3, -1, -1, -1, -1, 7},
+        {'J', 'T', 'B', 1, 0, 2, 1, 4, -128},
+    };
+    String[] messages = {
+        "Not a binary encoding of a tree",
+        "Unsupported binary encoding version: 2",
+        "The binary encoding is cut short",
+        "The binary encoding is cut short",
+        "Unknown tag 42 at 5",
+        "Unknown key 0 at 8",
+        "The binary encoding is cut short",
+        "The binary encoding is cut short",
+        "The binary encoding is cut short",
+        "The binary encoding is cut short",
+        "The binary encoding is cut short",
+    };
+    for (int idx = 0; idx < invalid.length; idx++) {
+      try {
+        JsonBinary.decode(ByteBuffer.wrap(invalid[idx]));
+        fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertEquals(messages[idx], e.getMessage());
+      }
+    }
+  }
+
+  // Every prefix of an encoding, and copies with random bytes changed,
+  // either decode or throw IllegalArgumentException.
+  @Test(timeout = 30000)
+  public void testBinaryTruncatedAndCorrupt() throws InvalidJsonException {
+    byte[] encoding = JsonBinary.encode(new JsonTreeBuilder().input(eventDocument(5)).output());
+    for (int length = 0; length < encoding.length; length++) {
+      try {
+        JsonBinary.decode(ByteBuffer.wrap(Arrays.copyOf(encoding, length)));
+        fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertEquals("The binary encoding is cut short", e.getMessage());
+      }
+    }
+    Random random = new Random(42);
+    for (int round = 0; round < 5000; round++) {
+      byte[] corrupt = encoding.clone();
+      for (int change = 0; change < 3; change++) {
+        corrupt[4 + random.nextInt(corrupt.length - 4)] = (byte) random.nextInt();
+      }
+      try {
+        JsonBinary.decode(ByteBuffer.wrap(corrupt), round % 2 == 0);
+      } catch (IllegalArgumentException e) {
+        // expected for most of them
+      }
+    }
+  }
+
+  // This method decodes the encodings of many documents made with one
+  // builder, with and without the keys shared. The time it takes against
+  // parsing them is measured in Benchmarks.binary.
+  @Test
+  public void testBinaryManyDocuments() throws InvalidJsonException {
+    JsonTreeBuilder builder = new JsonTreeBuilder();
+    for (int n = 0; n < 2000; n++) {
+      String json = eventDocument(n);
+      JsonNode tree = builder.reset().input(json).output();
+      ByteBuffer encoding = ByteBuffer.wrap(JsonBinary.encode(tree));
+      assertEquals(tree, JsonBinary.decode(encoding));
+      encoding.clear();
+      assertEquals(tree, JsonBinary.decode(encoding, true));
+    }
+  }
+}
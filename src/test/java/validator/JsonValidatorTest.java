@@ -1,12 +1,34 @@
 package validator;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 import org.junit.Test;
 
+import parser.FeedResult;
 import parser.InvalidJsonException;
+import parser.JsonError;
 import parser.JsonParser;
+import parser.ParallelValidation;
+import parser.ParserPool;
+import parser.Status;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -433,4 +455,625 @@ public class JsonValidatorTest {
     jsonString.input('{');
     assertEquals("Status:Invalid", jsonString.output());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testBulkInputSameStatus() throws InvalidJsonException {
+    String[] inputs = {"", "{", "{\"name\": \"Some", "{\"name\": \"Some Name\"}  ",
+        "{\"details\" : [{}, {}, {}] }", "{\"a\":\"\t\n\"}"};
+    for (String json : inputs) {
+      jsonString = new JsonValidator();
+      stringStreamInput(jsonString, json);
+
+      assertEquals(jsonString.output(), new JsonValidator().input(json).output());
+      assertEquals(jsonString.output(),
+              new JsonValidator().input(json.toCharArray(), 0, json.length()).output());
+      assertEquals(jsonString.output(),
+              new JsonValidator().input(CharBuffer.wrap(json)).output());
+    }
+  }
+
+  @Test
+  public void testBulkInputInvalidStatus() {
+    jsonString = new JsonValidator();
+    try {
+      jsonString.input("{\"name\":\"cs5010\"}{");
+    } catch (InvalidJsonException e) {
+      assertEquals("Status:Invalid", jsonString.output());
+      return;
+    }
+    fail("Expected an InvalidJsonException");
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testBulkInputOutOfBounds() throws InvalidJsonException {
+    jsonString = new JsonValidator();
+    jsonString.input(new char[4], 2, 3);
+  }
+
+  // This method tests that a large input is validated in linear time.
+  @Test(timeout = 10000)
+  public void testLargeInputLinear() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"data\":[");
+    for (int i = 0; i < 200000; i++) {
+      json.append(i > 0 ? "," : "").append("{\"key\":\"some value ").append(i).append("\"}");
+    }
+    json.append("]}");
+
+    jsonString = new JsonValidator();
+    stringStreamInput(jsonString, json.toString());
+    assertEquals("Status:Valid", jsonString.output());
+
+    assertEquals("Status:Valid", new JsonValidator().input(json).output());
+  }
+
+  @Test
+  public void testStatus() throws InvalidJsonException {
+    JsonValidator validator = new JsonValidator();
+    assertEquals(Status.EMPTY, validator.status());
+    validator.input(" {");
+    assertEquals(Status.INCOMPLETE, validator.status());
+    validator.input("}");
+    assertEquals(Status.VALID, validator.status());
+    try {
+      validator.input('\n');
+      fail("Expected an InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(Status.INVALID, validator.status());
+    }
+
+    // Input after the json became invalid is ignored.
+    validator.input('{');
+    assertEquals("Status:Invalid", validator.output());
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testObjectAfterCommaInObject() throws InvalidJsonException {
+    jsonString = new JsonValidator();
+    stringStreamInput(jsonString, "{\"a\":\"b\",{");
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testKeyAfterObjectValue() throws InvalidJsonException {
+    jsonString = new JsonValidator();
+    stringStreamInput(jsonString, "{\"a\":{}\"b\"");
+  }
+
+  // Characters that close objects elsewhere do not matter inside values.
+  @Test
+  public void testBracesAndColonsInValues() throws InvalidJsonException {
+    jsonString = new JsonValidator();
+    stringStreamInput(jsonString, "{\"a\":\"{\",\"b\":[\"}:{\"],\"c\":\"{:\"}");
+    assertEquals("Status:Valid", jsonString.output());
+  }
+
+  // This method validates 100k sibling objects a char at a time and in
+  // bulk. The time it takes is measured in Benchmarks.charInput.
+  @Test(timeout = 10000)
+  public void testManySiblingObjects() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"siblings\":[");
+    for (int i = 0; i < 100000; i++) {
+      json.append(i > 0 ? "," : "").append("{\"a\":{},\"b\":\"").append(i).append("\"}");
+    }
+    json.append("]}");
+
+    jsonString = new JsonValidator();
+    stringStreamInput(jsonString, json.toString());
+    JsonParser<String> bulk = new JsonValidator().input(json);
+
+    assertEquals("Status:Valid", jsonString.output());
+    assertEquals("Status:Valid", bulk.output());
+  }
+
+  // This method compares small and whole byte inputs on a document of
+  // long strings. The time they take is measured in Benchmarks.byteInput.
+  @Test(timeout = 30000)
+  public void testLongByteInputs() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"values\":[");
+    for (int i = 0; i < 20000; i++) {
+      json.append(i > 0 ? ", " : "").append("\"");
+      for (int j = 0; j < 10; j++) {
+        json.append("a long string value with é ");
+      }
+      json.append("\"");
+    }
+    json.append("]}");
+    byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+
+    jsonString = new JsonValidator();
+    stringStreamInput(jsonString, json.toString());
+
+    JsonValidator scanned = new JsonValidator();
+    for (int i = 0; i < bytes.length; i += 128) {
+      scanned.input(bytes, i, Math.min(128, bytes.length - i));
+    }
+    JsonParser<String> whole = new JsonValidator().input(bytes, 0, bytes.length);
+
+    assertEquals("Status:Valid", jsonString.output());
+    assertEquals("Status:Valid", scanned.output());
+    assertEquals("Status:Valid", whole.output());
+
+    bytes[bytes.length - 2] = 'x';
+    try {
+      new JsonValidator().input(bytes, 0, bytes.length);
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      // expected
+    }
+  }
+
+  // This method tests that every input path reports the same error offset.
+  @Test
+  public void testErrorOffset() {
+    StringBuilder json = new StringBuilder("{\"values\":[");
+    for (int i = 0; i < 100; i++) {
+      json.append(i > 0 ? ",\n " : "").append("\"some value ").append(i).append("\"");
+    }
+    int bad = json.length() + 1;
+    json.append(",x]}");
+    String text = json.toString();
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+    JsonValidator perChar = new JsonValidator();
+    JsonValidator bulk = new JsonValidator();
+    JsonValidator whole = new JsonValidator();
+    JsonValidator scanned = new JsonValidator();
+    try {
+      stringStreamInput(perChar, text);
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(bad, perChar.errorOffset());
+    }
+    try {
+      bulk.input(text);
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(bad, bulk.errorOffset());
+    }
+    try {
+      whole.input(bytes, 0, bytes.length);
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(bad, whole.errorOffset());
+    }
+    try {
+      for (int i = 0; i < bytes.length; i += 7) {
+        scanned.input(bytes, i, Math.min(7, bytes.length - i));
+      }
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(bad, scanned.errorOffset());
+    }
+    assertEquals(-1, new JsonValidator().errorOffset());
+  }
+
+  // This method tests the error record of every input path.
+  @Test
+  public void testError() throws InvalidJsonException {
+    StringBuilder json = new StringBuilder("{\"values\":[");
+    for (int i = 0; i < 100; i++) {
+      json.append(i > 0 ? ",\n  " : "").append("\"line\nin value ").append(i).append("\"");
+    }
+    json.append(",\n  \"last\" }");
+    String text = json.toString();
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    String expected = "UNEXPECTED_CHARACTER at " + (text.length() - 1)
+            + " (line 201, column 10), expected ',' or ']'";
+
+    JsonValidator perChar = new JsonValidator();
+    try {
+      stringStreamInput(perChar, text);
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(0, e.getStackTrace().length);
+    }
+    assertEquals(expected, perChar.error().toString());
+
+    JsonValidator bulk = new JsonValidator();
+    assertEquals(FeedResult.ERROR, bulk.offer(text));
+    assertEquals(expected, bulk.error().toString());
+
+    // A String, a char[], a buffer over a char[] and any other sequence
+    // each have a loop of their own.
+    char[] padded = ("xx" + text).toCharArray();
+    CharSequence[] sequences = {json, CharBuffer.wrap(padded, 2, text.length()),
+        CharBuffer.wrap(padded).position(2).slice()};
+    for (CharSequence sequence : sequences) {
+      JsonValidator chars = new JsonValidator();
+      assertEquals(FeedResult.ERROR, chars.offer(sequence));
+      assertEquals(expected, chars.error().toString());
+    }
+    JsonValidator array = new JsonValidator();
+    try {
+      array.input(padded, 2, text.length());
+      fail("Expected InvalidJsonException");
+    } catch (InvalidJsonException e) {
+      assertEquals(expected, array.error().toString());
+    }
+
+    JsonValidator whole = new JsonValidator();
+    assertEquals(FeedResult.ERROR, whole.offer(ByteBuffer.wrap(bytes)));
+    assertEquals(expected, whole.error().toString());
+
+    for (int size = 1; size < 10; size++) {
+      JsonValidator chunked = new JsonValidator();
+      for (int i = 0; i < bytes.length; i += size) {
+        chunked.offer(ByteBuffer.wrap(bytes, i, Math.min(size, bytes.length - i)));
+      }
+      assertEquals(expected, chunked.error().toString());
+    }
+
+    JsonValidator valid = new JsonValidator();
+    valid.input("{\"a\":\"b\"}");
+    assertNull(valid.error());
+  }
+
+  // This method tests the kinds of errors.
+  @Test
+  public void testErrorKinds() {
+    JsonValidator validator = new JsonValidator();
+    assertEquals(FeedResult.ERROR, validator.offer("{\"a\":\"b\",\"1\""));
+    JsonError error = validator.error();
+    assertEquals(JsonError.Kind.INVALID_KEY, error.kind());
+    assertEquals(10, error.offset());
+    assertEquals(1, error.line());
+    assertEquals(11, error.column());
+    assertEquals("a letter", error.expected());
+
+    validator = new JsonValidator();
+    assertEquals(FeedResult.ERROR, validator.offer("{\"a\":\"b\"}\n"));
+    error = validator.error();
+    assertEquals(JsonError.Kind.TRAILING_INPUT, error.kind());
+    assertEquals(9, error.offset());
+    assertEquals("' '", error.expected());
+
+    validator = new JsonValidator();
+    assertEquals(FeedResult.ERROR, validator.offer("\n\n  ["));
+    assertEquals("UNEXPECTED_CHARACTER at 4 (line 3, column 3), expected '{'",
+            validator.error().toString());
+  }
+
+  // This method tests the numbers and literals that are accepted and the
+  // errors of the ones that are not.
+  @Test
+  public void testNumbersAndLiterals() throws InvalidJsonException {
+    String[] valid = {"0", "-0", "12", "-3.25", "0.5e10", "1E-2", "6e+0", "true", "false",
+                      "null", "123456789012345678901234567890e-99999999999"};
+    for (String value : valid) {
+      String json = "{\"a\":" + value + ",\"b\":[" + value + "," + value + "]\t,\"c\":" + value + "\n}";
+      assertEquals(json, "Status:Valid", new JsonValidator().input(json).output());
+      JsonValidator perChar = new JsonValidator();
+      stringStreamInput(perChar, json);
+      assertEquals(json, "Status:Valid", perChar.output());
+    }
+
+    String[][] invalid = {
+        {"{\"a\":01}", "UNEXPECTED_CHARACTER at 6 (line 1, column 7), expected '.', 'e', ',', '}' or ']'"},
+        {"{\"a\":[1.]}", "UNEXPECTED_CHARACTER at 8 (line 1, column 9), expected a digit"},
+        {"{\"a\":-x}", "UNEXPECTED_CHARACTER at 6 (line 1, column 7), expected a digit"},
+        {"{\"a\":1e}", "UNEXPECTED_CHARACTER at 7 (line 1, column 8), expected a digit, '+' or '-'"},
+        {"{\"a\":12:}", "UNEXPECTED_CHARACTER at 7 (line 1, column 8), "
+                + "expected a digit, '.', 'e', ',', '}' or ']'"},
+        {"{\"a\":tru}", "UNEXPECTED_CHARACTER at 8 (line 1, column 9), expected true, false or null"},
+        {"{\"a\":nulls}", "UNEXPECTED_CHARACTER at 9 (line 1, column 10), expected true, false or null"},
+        {"{\"a\":[1 2]}", "UNEXPECTED_CHARACTER at 8 (line 1, column 9), expected ',' or ']'"},
+        {"{\"a\":yes}", "UNEXPECTED_CHARACTER at 5 (line 1, column 6), "
+                + "expected '\"', '{', '[', a number, true, false or null"},
+        {"{\"a\":+1}", "UNEXPECTED_CHARACTER at 5 (line 1, column 6), "
+                + "expected '\"', '{', '[', a number, true, false or null"},
+        {"{\"a\":1\u0663}", "UNEXPECTED_CHARACTER at 6 (line 1, column 7), "
+                + "expected a digit, '.', 'e', ',', '}' or ']'"},
+    };
+    for (String[] test : invalid) {
+      JsonValidator validator = new JsonValidator();
+      assertEquals(test[0], FeedResult.ERROR, validator.offer(test[0]));
+      assertEquals(test[0], test[1], validator.error().toString());
+      JsonValidator bytes = new JsonValidator();
+      bytes.offer(ByteBuffer.wrap(test[0].getBytes(StandardCharsets.UTF_8)));
+      assertEquals(test[0], test[1], bytes.error().toString());
+
+      // After a long string, in a single byte input.
+      StringBuilder padded = new StringBuilder("{\"p\":\"");
+      for (int i = 0; i < 300; i++) {
+        padded.append(' ');
+      }
+      String json = padded.append("\",").append(test[0], 1, test[0].length()).toString();
+      JsonValidator chars = new JsonValidator();
+      assertEquals(json, FeedResult.ERROR, chars.offer(json));
+      JsonValidator whole = new JsonValidator();
+      whole.offer(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+      assertEquals(json, chars.error().toString(), whole.error().toString());
+    }
+  }
+
+  // This method splits long numbers and literals between parallel chunks.
+  @Test(timeout = 60000)
+  public void testParallelValidationScalars() {
+    StringBuilder digits = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      digits.append(i % 10);
+    }
+    String json = "{\"a\":[-1" + digits + "." + digits + "e-" + digits + ", true,false,"
+            + "null,0 , 1" + digits + "],\"b\":-0.0E+00}";
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    byte[] broken = json.replace("true", "truex").getBytes(StandardCharsets.UTF_8);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int chunk = 1; chunk < 40; chunk++) {
+        assertParallel(bytes, pool, chunk);
+        assertParallel(broken, pool, chunk);
+      }
+      for (int i = 0; i < bytes.length; i++) {
+        byte[] mutated = bytes.clone();
+        mutated[i] = (byte) "x0.e- ".charAt(i % 6);
+        assertParallel(mutated, pool, 1 + i % 9);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // This method tests that a reset validator behaves like a new one.
+  @Test
+  public void testReset() throws InvalidJsonException {
+    JsonValidator validator = new JsonValidator();
+    assertEquals(FeedResult.ERROR, validator.offer("{\"a\":\n[x"));
+    validator.reset();
+    assertEquals("Status:Empty", validator.output());
+    assertNull(validator.error());
+    assertEquals(FeedResult.ERROR, validator.offer("{\"a\":]"));
+    assertEquals("UNEXPECTED_CHARACTER at 5 (line 1, column 6), "
+            + "expected '\"', '{', '[', a number, true, false or null",
+            validator.error().toString());
+
+    assertEquals("Status:Incomplete", validator.reset().input("{\"a\":[{").output());
+    assertEquals("Status:Valid", validator.reset().input("{\"b\":\"c\"}").output());
+  }
+
+  // This method tests the pool from many threads at once.
+  @Test(timeout = 30000)
+  public void testParserPool() throws InterruptedException {
+    ParserPool<JsonValidator> pool = new ParserPool<>(JsonValidator::new, 4);
+    Supplier<JsonValidator> local = ParserPool.perThread(JsonValidator::new);
+    AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          String json = i % 3 == 0 ? "{\"a\":[x" : "{\"a\":\"" + i + "\"}";
+          String expected = i % 3 == 0 ? "Status:Invalid" : "Status:Valid";
+
+          JsonValidator validator = pool.acquire();
+          validator.offer(json);
+          if (!expected.equals(validator.output())) {
+            failures.incrementAndGet();
+          }
+          pool.release(validator);
+
+          validator = local.get();
+          validator.offer(json);
+          if (!expected.equals(validator.output())) {
+            failures.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertTrue(pool.idle() <= 4);
+    assertEquals("Status:Empty", pool.acquire().output());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParserPoolCapacity() {
+    new ParserPool<>(JsonValidator::new, 0);
+  }
+
+  /**
+   * This is a private method that builds a document with nested objects
+   * and arrays, multi-byte keys and values, new lines, values full of
+   * structural characters, numbers and literals.
+   *
+   * @param count the number of entries.
+   * @return the json string.
+   */
+  private String mixedDocument(int count) {
+    StringBuilder json = new StringBuilder("{\"items\":[");
+    for (int i = 0; i < count; i++) {
+      json.append(i > 0 ? ",\n  " : "")
+              .append("{\"n\u00e4me").append(i).append("\" : \"v{a}l[u]e:, ").append(i)
+              .append(" \u2713\",\t\"list\":[\"a\", [\"b\"], {\"c\u4e2d\":\"\n\"}],")
+              .append("\"num\":-").append(i).append(".25e+").append(i % 3)
+              .append(",\"more\":[true,false,null ,0,\n").append(i * 7919).append("]}");
+    }
+    return json.append("],\"end\":{}} ").toString();
+  }
+
+  /**
+   * This is a private method that checks that a parallel validation ends
+   * like a sequential one.
+   *
+   * @param bytes the document.
+   * @param pool  the pool to validate on.
+   * @param chunk the size of the chunks.
+   */
+  private void assertParallel(byte[] bytes, ForkJoinPool pool, int chunk) {
+    JsonValidator sequential = new JsonValidator();
+    sequential.offer(ByteBuffer.wrap(bytes));
+    JsonValidator parallel = new ParallelValidation<>(JsonValidator::new, pool, chunk)
+            .validate(ByteBuffer.wrap(bytes));
+    assertEquals(sequential.output(), parallel.output());
+    assertEquals(sequential.errorOffset(), parallel.errorOffset());
+    assertEquals(String.valueOf(sequential.error()), String.valueOf(parallel.error()));
+  }
+
+  // This method compares the parallel and sequential validation.
+  @Test(timeout = 60000)
+  public void testParallelValidation() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      byte[] bytes = mixedDocument(20).getBytes(StandardCharsets.UTF_8);
+      for (int chunk = 1; chunk < 40; chunk++) {
+        assertParallel(bytes, pool, chunk);
+        assertParallel(Arrays.copyOf(bytes, bytes.length / 2), pool, chunk);
+      }
+
+      // Every byte replaced in turn, so that errors fall everywhere.
+      byte[] replacements = {'x', '}', ']', '"', ',', ':', '\n', (byte) 0xC3, (byte) 0x80};
+      for (int i = 0; i < bytes.length; i++) {
+        byte[] mutated = bytes.clone();
+        mutated[i] = replacements[i % replacements.length];
+        assertParallel(mutated, pool, 7 + i % 5);
+      }
+      assertParallel(new byte[0], pool, 3);
+      assertParallel("  \n ".getBytes(StandardCharsets.UTF_8), pool, 1);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // This method compares the parallel and sequential validation on
+  // randomly broken documents, where the chunks after the first error
+  // start from states that do not match their brackets.
+  @Test(timeout = 60000)
+  public void testParallelValidationRandom() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    Random random = new Random(42);
+    byte[] alphabet = " \r\n\"{}[]:,x0-.e\u00e9".getBytes(StandardCharsets.UTF_8);
+    try {
+      assertParallel(" a\r\n\"\u00e9\":\"\u00e9\"}".getBytes(StandardCharsets.UTF_8), pool, 2);
+      byte[] bytes = mixedDocument(3).getBytes(StandardCharsets.UTF_8);
+      for (int round = 0; round < 3000; round++) {
+        byte[] mutated;
+        if (round % 2 == 0) {
+          // A few bytes of a valid document replaced.
+          mutated = bytes.clone();
+          for (int edits = 1 + random.nextInt(4); edits > 0; edits--) {
+            mutated[random.nextInt(mutated.length)] = alphabet[random.nextInt(alphabet.length)];
+          }
+        } else {
+          // Short runs of structural bytes.
+          mutated = new byte[1 + random.nextInt(40)];
+          for (int i = 0; i < mutated.length; i++) {
+            mutated[i] = alphabet[random.nextInt(alphabet.length)];
+          }
+        }
+        assertParallel(mutated, pool, 2 + random.nextInt(56));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // This method tests the parallel validation of a file and of a buffer.
+  @Test(timeout = 60000)
+  public void testParallelValidationFile() throws IOException {
+    byte[] bytes = mixedDocument(20000).getBytes(StandardCharsets.UTF_8);
+    assertEquals("Status:Valid", JsonValidator.validateParallel(ByteBuffer.wrap(bytes)).output());
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    Path file = Files.createTempFile("parallel", ".json");
+    try {
+      bytes[bytes.length - 3] = ']';
+      Files.write(file, bytes);
+      JsonValidator sequential = new JsonValidator();
+      sequential.offer(ByteBuffer.wrap(bytes));
+      for (int window : new int[] {1000, 4097, 1 << 20}) {
+        JsonValidator parallel = new ParallelValidation<>(JsonValidator::new, pool, 333)
+                .validate(file, window);
+        assertEquals("Status:Invalid", parallel.output());
+        assertEquals(bytes.length - 3, parallel.errorOffset());
+        assertEquals(sequential.error().toString(), parallel.error().toString());
+      }
+      assertEquals("Status:Invalid", JsonValidator.validateParallel(file).output());
+    } finally {
+      Files.delete(file);
+      pool.shutdown();
+    }
+  }
+
+  // This method tests closing a deeply nested document.
+  @Test(timeout = 10000)
+  public void testDeeplyNestedObjects() throws InvalidJsonException {
+    int depth = 100000;
+    StringBuilder json = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      json.append("{\"a\":");
+    }
+    json.append("\"deep\"");
+    for (int i = 0; i < depth; i++) {
+      json.append('}');
+    }
+
+    assertEquals("Status:Valid", new JsonValidator().input(json).output());
+  }
+
+  @Test
+  public void testUtf8Input() throws InvalidJsonException {
+    byte[] bytes = "{\"cl\u00e9\":[\"\u2713 \ud83d\ude00\"]}".getBytes(StandardCharsets.UTF_8);
+    JsonValidator validator = new JsonValidator();
+    validator.input(bytes, 0, 9);
+    assertEquals("Status:Incomplete", validator.output());
+    validator.input(ByteBuffer.wrap(bytes, 9, bytes.length - 9));
+    assertEquals("Status:Valid", validator.output());
+  }
+
+  @Test(expected = InvalidJsonException.class)
+  public void testUtf8OutsideString() throws InvalidJsonException {
+    byte[] bytes = "{\"a\":\u00e9".getBytes(StandardCharsets.UTF_8);
+    new JsonValidator().input(bytes, 0, bytes.length);
+  }
+
+  // This method tests that keys outside the Basic Multilingual Plane are
+  // read the same way from chars and from bytes.
+  @Test
+  public void testSupplementaryKey() {
+    String[] keys = {"\ud835\udc9cb", "b\ud835\udc9c", "b\ud835\udc9c c", "\ud83d\ude00"};
+    for (String key : keys) {
+      String json = "{\"" + key + "\":1}";
+      JsonValidator chars = new JsonValidator();
+      chars.offer(json);
+      JsonValidator bytes = new JsonValidator();
+      bytes.offer(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+      assertEquals(json, chars.output(), bytes.output());
+    }
+  }
+
+  @Test
+  public void testValidateFile() throws InvalidJsonException, IOException {
+    Path file = Files.createTempFile("valid", ".json");
+    try {
+      Files.write(file, "{\"a\":[\"b\", {}]}  ".getBytes(StandardCharsets.UTF_8));
+      assertEquals("Status:Valid", JsonValidator.validate(file));
+      assertEquals("Status:Valid", new JsonValidator().input(file, 3).output());
+
+      Files.write(file, "{\"a\":[\"b\"".getBytes(StandardCharsets.UTF_8));
+      assertEquals("Status:Incomplete", JsonValidator.validate(file));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  // This method validates a file larger than 2 GB, mapped in several windows.
+  // The value in the middle is a hole of the sparse file, which reads as zeros.
+  @Test(timeout = 120000)
+  public void testValidateFileLargerThan2Gb() throws InvalidJsonException, IOException {
+    Path file = Files.createTempFile("large", ".json");
+    try {
+      long hole = (1L << 31) + 12345;
+      byte[] head = "{\"big\":[\"".getBytes(StandardCharsets.UTF_8);
+      byte[] tail = "\"]}".getBytes(StandardCharsets.UTF_8);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        channel.write(ByteBuffer.wrap(head));
+        channel.write(ByteBuffer.wrap(tail), head.length + hole);
+      }
+      assertEquals(head.length + hole + tail.length, Files.size(file));
+
+      assertEquals("Status:Valid", JsonValidator.validate(file));
+    } finally {
+      Files.delete(file);
+    }
+  }
+}